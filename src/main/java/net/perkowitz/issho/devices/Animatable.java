@@ -0,0 +1,9 @@
+package net.perkowitz.issho.devices;
+
+/**
+ * A display that flashes and pulses AnimatedColors itself, so the host only has to send them once.
+ * Displays that aren't Animatable show an AnimatedColor's current phase, and a BufferedDisplay redraws
+ * its animated cells whenever the phase changes.
+ */
+public interface Animatable {
+}
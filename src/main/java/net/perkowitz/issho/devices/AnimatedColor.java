@@ -0,0 +1,74 @@
+package net.perkowitz.issho.devices;
+
+import lombok.Getter;
+import net.perkowitz.issho.devices.launchpadpro.Color;
+
+/**
+ * A color that flashes (alternating with another color) or pulses (fading in and out).
+ * Animatable displays animate it natively. Elsewhere getIndex() returns the color for the current phase,
+ * so a display that is redrawn from time to time (see BufferedDisplay) blinks it from the host.
+ */
+public class AnimatedColor implements GridColor {
+
+    public enum Mode { FLASH, PULSE }
+
+    // the Launchpad Pro flashes and pulses in time with the midi clock, or at 120bpm without one;
+    // host emulation flashes on eighth notes and pulses on quarters at 120bpm
+    public static final long FLASH_PERIOD_NANOS = 500000000L;
+    public static final long PULSE_PERIOD_NANOS = 1000000000L;
+
+    @Getter private final Mode mode;
+    @Getter private final GridColor color;
+    @Getter private final GridColor alternate;
+
+
+    public AnimatedColor(Mode mode, GridColor color, GridColor alternate) {
+        this.mode = mode;
+        this.color = color;
+        this.alternate = alternate;
+    }
+
+    /**
+     * @param nanos: a System.nanoTime()
+     * @return 0 while the color is showing, 1 while the alternate is
+     */
+    public int phase(long nanos) {
+        long period = (mode == Mode.FLASH) ? FLASH_PERIOD_NANOS : PULSE_PERIOD_NANOS;
+        return (int) ((nanos / (period / 2)) & 1);
+    }
+
+    public GridColor colorAt(long nanos) {
+        return phase(nanos) == 0 ? color : alternate;
+    }
+
+    public int getIndex() {
+        return colorAt(System.nanoTime()).getIndex();
+    }
+
+    public String toString() {
+        return String.format("AnimatedColor:%s:%s:%s", mode, color, alternate);
+    }
+
+
+    /***** static methods ********************************/
+
+    public static AnimatedColor flash(GridColor color, GridColor alternate) {
+        return new AnimatedColor(Mode.FLASH, color, alternate);
+    }
+
+    public static AnimatedColor pulse(GridColor color) {
+        return new AnimatedColor(Mode.PULSE, color, Color.OFF);
+    }
+
+    /**
+     * @param display
+     * @return true if the display animates AnimatedColors itself
+     */
+    public static boolean isNative(GridDisplay display) {
+        if (display instanceof QueuedGridDevice) {
+            return isNative(((QueuedGridDevice) display).getDevice());
+        }
+        return display instanceof Animatable;
+    }
+
+}
@@ -0,0 +1,146 @@
+package net.perkowitz.issho.devices;
+
+import lombok.Getter;
+import net.perkowitz.issho.devices.launchpadpro.Color;
+
+import java.util.Set;
+
+/**
+ * A GridDisplay that only records what should be shown. Drawing calls update a GridFrame and return
+ * immediately; a RenderLoop later flushes the changed cells to the real display from its own thread,
+ * so whoever is drawing (e.g. the clock thread) never waits on LED traffic.
+ *
+ * An LED budget (messages per millisecond) limits how much is sent per flush; when there's more to send
+ * than the budget allows, the higher LedPriority cells go first and the rest wait for later flushes.
+ *
+ * If the display isn't Animatable, cells with an AnimatedColor are marked dirty whenever their phase changes,
+ * so they blink from here; an Animatable display is sent each AnimatedColor once.
+ */
+public class BufferedDisplay implements GridDisplay {
+
+    // unused budget carries over to later flushes, up to this much
+    private static final int MAX_BURST_MILLIS = 20;
+
+    @Getter private final GridDisplay display;
+    @Getter private final GridFrame frame = new GridFrame();
+
+    @Getter private int ledBudget = 0;
+    private double tokens = 0;
+    private long lastFlushNanos = 0;
+    @Getter private volatile long deferredCount = 0;
+
+    private final boolean nativeAnimation;
+    private final int[] animationPhases = new int[GridFrame.CELL_COUNT];
+
+
+    public BufferedDisplay(GridDisplay display) {
+        this.display = display;
+        this.nativeAnimation = AnimatedColor.isNative(display);
+    }
+
+    /**
+     * send any changed cells to the display; called by the RenderLoop
+     *
+     * @return the number of cells sent
+     */
+    public int flush() {
+        return flush(System.nanoTime());
+    }
+
+    public int flush(long nowNanos) {
+        if (!nativeAnimation) {
+            animate(nowNanos);
+        }
+
+        if (ledBudget <= 0) {
+            return frame.flush(display);
+        }
+
+        double maxTokens = (double) ledBudget * MAX_BURST_MILLIS;
+        tokens = Math.min(maxTokens, tokens + ledBudget * (nowNanos - lastFlushNanos) / 1000000.0);
+        lastFlushNanos = nowNanos;
+
+        int sent = frame.flush(display, (int) tokens);
+        tokens -= sent;
+        if (frame.isDirty()) {
+            deferredCount++;
+        }
+        return sent;
+    }
+
+    private void animate(long nowNanos) {
+        for (int cell = 0; cell < GridFrame.CELL_COUNT; cell++) {
+            GridColor color = frame.get(cell);
+            if (color instanceof AnimatedColor) {
+                int phase = ((AnimatedColor) color).phase(nowNanos);
+                if (phase != animationPhases[cell]) {
+                    animationPhases[cell] = phase;
+                    frame.set(cell, color, LedPriority.EDIT);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param messagesPerMillisecond how many LED messages the device can take; 0 for no limit
+     */
+    public void setLedBudget(int messagesPerMillisecond) {
+        ledBudget = Math.max(0, messagesPerMillisecond);
+        tokens = ledBudget * MAX_BURST_MILLIS;
+        lastFlushNanos = System.nanoTime();
+    }
+
+
+    /***** GridDisplay implementation ****************************************/
+
+    public void initialize() {
+        for (int cell = 0; cell < GridFrame.CELL_COUNT; cell++) {
+            frame.set(cell, Color.OFF);
+        }
+    }
+
+    public void initialize(boolean pads, Set<GridButton.Side> buttonSides) {
+        if (pads) {
+            for (int cell = 0; cell < GridFrame.PAD_COUNT; cell++) {
+                frame.set(cell, Color.OFF);
+            }
+        }
+        if (buttonSides != null) {
+            for (GridButton.Side side : buttonSides) {
+                for (int index = 0; index < GridFrame.GRID_SIZE; index++) {
+                    frame.set(GridButton.at(side, index), Color.OFF);
+                }
+            }
+        }
+    }
+
+    public void setPad(GridPad pad, GridColor color) {
+        frame.set(pad, color);
+    }
+
+    public void setButton(GridButton button, GridColor color) {
+        frame.set(button, color);
+    }
+
+    public void setKnob(GridKnob knob, int value) {
+        display.setKnob(knob, value);
+    }
+
+    public void setFrame(GridColor[] cells) {
+        int count = Math.min(cells.length, GridFrame.CELL_COUNT);
+        for (int cell = 0; cell < count; cell++) {
+            if (cells[cell] != null) {
+                frame.set(cell, cells[cell]);
+            }
+        }
+    }
+
+    public void setControls(GridControl[] controls, GridColor[] colors, int count) {
+        GridControl.draw(this, controls, colors, count);
+    }
+
+    public void setControls(GridControl[] controls, GridColor color) {
+        GridControl.draw(this, controls, color);
+    }
+
+}
@@ -4,6 +4,8 @@ import lombok.Getter;
 
 /**
  * Created by optic on 9/3/16.
+ *
+ * Interned like GridPad: at() returns the same instance for each side and index in the table.
  */
 public class GridButton {
 
@@ -11,10 +13,22 @@ public class GridButton {
         Top, Bottom, Left, Right
     }
 
+    public static final int TABLE_SIZE = 16;
+
+    private static final Side[] sides = Side.values();
+    private static final GridButton[] buttons = new GridButton[sides.length * TABLE_SIZE];
+    static {
+        for (Side side : sides) {
+            for (int index = 0; index < TABLE_SIZE; index++) {
+                buttons[side.ordinal() * TABLE_SIZE + index] = new GridButton(side, index);
+            }
+        }
+    }
+
     @Getter private final Side side;
     @Getter private final int index;
 
-    public GridButton(Side side, int index) {
+    private GridButton(Side side, int index) {
         this.side = side;
         this.index = index;
     }
@@ -24,16 +38,19 @@ public class GridButton {
 
     @Override
     public boolean equals(Object object) {
+        if (object == this) {
+            return true;
+        }
         if (object instanceof GridButton) {
             GridButton button = (GridButton) object;
-            return side.equals(button.getSide()) && index == button.getIndex();
+            return side == button.getSide() && index == button.getIndex();
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        return toString().hashCode();
+        return side.ordinal() * 31 + index;
     }
 
     @Override
@@ -44,6 +61,9 @@ public class GridButton {
     /***** static helpers ************************************/
 
     public static GridButton at(Side side, int index) {
+        if (side != null && index >= 0 && index < TABLE_SIZE) {
+            return buttons[side.ordinal() * TABLE_SIZE + index];
+        }
         return new GridButton(side, index);
     }
 
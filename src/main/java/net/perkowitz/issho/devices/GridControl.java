@@ -7,6 +7,28 @@ import lombok.Getter;
  */
 public class GridControl {
 
+    // index-less controls for each pad, button and knob, handed out by at()
+    private static final GridControl[] padControls = new GridControl[GridPad.TABLE_SIZE * GridPad.TABLE_SIZE];
+    private static final GridControl[] buttonControls = new GridControl[GridButton.Side.values().length * GridButton.TABLE_SIZE];
+    private static final GridControl[] knobControls = new GridControl[GridKnob.Side.values().length * GridKnob.TABLE_SIZE];
+    static {
+        for (int y = 0; y < GridPad.TABLE_SIZE; y++) {
+            for (int x = 0; x < GridPad.TABLE_SIZE; x++) {
+                padControls[y * GridPad.TABLE_SIZE + x] = new GridControl(GridPad.at(x, y), null);
+            }
+        }
+        for (GridButton.Side side : GridButton.Side.values()) {
+            for (int index = 0; index < GridButton.TABLE_SIZE; index++) {
+                buttonControls[side.ordinal() * GridButton.TABLE_SIZE + index] = new GridControl(GridButton.at(side, index), null);
+            }
+        }
+        for (GridKnob.Side side : GridKnob.Side.values()) {
+            for (int index = 0; index < GridKnob.TABLE_SIZE; index++) {
+                knobControls[side.ordinal() * GridKnob.TABLE_SIZE + index] = new GridControl(GridKnob.at(side, index), null);
+            }
+        }
+    }
+
     @Getter private Integer index = null;
     @Getter private GridPad pad = null;
     @Getter private GridButton button = null;
@@ -51,6 +73,61 @@ public class GridControl {
     }
 
 
+    /***** static helpers ****************************************/
+
+    /**
+     * a shared control with no index for the pad, e.g. for looking a pad press up in a GridControlSet
+     *
+     * @param pad
+     * @return
+     */
+    public static GridControl at(GridPad pad) {
+        int x = pad.getX();
+        int y = pad.getY();
+        if (x >= 0 && x < GridPad.TABLE_SIZE && y >= 0 && y < GridPad.TABLE_SIZE) {
+            return padControls[y * GridPad.TABLE_SIZE + x];
+        }
+        // outside the table (e.g. a Launchpad Pro side note mapped to x=-1): usable, just not shared
+        return new GridControl(pad, null);
+    }
+
+    public static GridControl at(GridButton button) {
+        int index = button.getIndex();
+        if (button.getSide() != null && index >= 0 && index < GridButton.TABLE_SIZE) {
+            return buttonControls[button.getSide().ordinal() * GridButton.TABLE_SIZE + index];
+        }
+        return new GridControl(button, null);
+    }
+
+    public static GridControl at(GridKnob knob) {
+        int index = knob.getIndex();
+        if (knob.getSide() != null && index >= 0 && index < GridKnob.TABLE_SIZE) {
+            return knobControls[knob.getSide().ordinal() * GridKnob.TABLE_SIZE + index];
+        }
+        return new GridControl(knob, null);
+    }
+
+    /**
+     * draw controls one at a time, for displays that have no faster way
+     *
+     * @param display
+     * @param controls
+     * @param colors
+     * @param count
+     */
+    public static void draw(GridDisplay display, GridControl[] controls, GridColor[] colors, int count) {
+        for (int i = 0; i < count; i++) {
+            controls[i].draw(display, colors[i]);
+        }
+    }
+
+    public static void draw(GridDisplay display, GridControl[] controls, GridColor color) {
+        for (GridControl control : controls) {
+            control.draw(display, color);
+        }
+    }
+
+
     /***** overrides ****************************************/
 
     @Override
@@ -70,6 +147,9 @@ public class GridControl {
 
     @Override
     public boolean equals(Object object) {
+        if (object == this) {
+            return true;
+        }
         if (object instanceof GridPad && pad != null) {
             return pad.equals((GridPad) object);
         } else if (object instanceof GridButton && button != null) {
@@ -77,14 +157,27 @@ public class GridControl {
         } else if (object instanceof GridKnob && knob != null) {
             return knob.equals((GridKnob) object);
         } else if (object instanceof GridControl) {
-            return this.toString().equals(((GridControl) object).toString());
+            // the index doesn't count; controls are equal if they're for the same pad, button or knob
+            GridControl control = (GridControl) object;
+            return same(pad, control.pad) && same(button, control.button) && same(knob, control.knob);
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        return toString().hashCode();
+        if (pad != null) {
+            return pad.hashCode();
+        } else if (button != null) {
+            return 1000 + button.hashCode();
+        } else if (knob != null) {
+            return 2000 + knob.hashCode();
+        }
+        return 0;
+    }
+
+    private static boolean same(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
     }
 
 
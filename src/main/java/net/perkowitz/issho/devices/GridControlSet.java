@@ -1,24 +1,34 @@
 package net.perkowitz.issho.devices;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import lombok.Getter;
 import lombok.Setter;
 import net.perkowitz.issho.devices.launchpadpro.Color;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Created by optic on 10/27/16.
+ *
+ * Pad and button lookups are a single read from arrays indexed like the GridPad and GridButton tables.
+ * Controls outside those tables are kept in a list and searched. The lookups and the array drawn from are
+ * rebuilt whenever the set changes, so the set is only changed through add() and remove().
  */
 public class GridControlSet {
 
-    @Getter private List<GridControl> controls;
-    private Map<GridPad, GridControl> padMap = Maps.newHashMap();
-    private Map<GridButton, GridControl> buttonMap = Maps.newHashMap();
+    private static final int PAD_SLOTS = GridPad.TABLE_SIZE * GridPad.TABLE_SIZE;
+    private static final int BUTTON_SLOTS = GridButton.Side.values().length * GridButton.TABLE_SIZE;
+
+    private final List<GridControl> controls;
+    private final List<GridControl> readOnlyControls;
+    private GridControl[] controlArray;
+    private final GridControl[] padControls = new GridControl[PAD_SLOTS];
+    private final GridControl[] buttonControls = new GridControl[BUTTON_SLOTS];
+    private final List<GridControl> otherControls = Lists.newArrayList();
     @Getter @Setter private Enum editStateEnum;
     @Getter @Setter private Enum controlStateEnum;
 
@@ -27,43 +37,77 @@ public class GridControlSet {
 
     public GridControlSet(Collection<GridControl> controls) {
         this.controls = new ArrayList<GridControl>(controls);
+        this.readOnlyControls = Collections.unmodifiableList(this.controls);
         computeControlMaps();
     }
 
     public GridControlSet(GridControlSet controlSet) {
-        this.controls = controlSet.getControls();
-        computeControlMaps();
+        this(controlSet.getControls());
     }
 
 
     /***** public methods ****************************************/
 
+    /**
+     * @return the controls in order, read-only
+     */
+    public List<GridControl> getControls() {
+        return readOnlyControls;
+    }
+
+    public void add(GridControl control) {
+        controls.add(control);
+        computeControlMaps();
+    }
+
+    public boolean remove(GridControl control) {
+        boolean removed = controls.remove(control);
+        if (removed) {
+            computeControlMaps();
+        }
+        return removed;
+    }
+
     public boolean contains(GridPad pad) {
-        return padMap.keySet().contains(pad);
+        return get(pad) != null;
     }
 
     public boolean contains(GridButton button) {
-        return buttonMap.keySet().contains(button);
+        return get(button) != null;
     }
 
     public boolean contains(GridControl control) {
-        return controls.contains(control);
+        if (control.getPad() != null) {
+            return get(control.getPad()) != null;
+        } else if (control.getButton() != null) {
+            return get(control.getButton()) != null;
+        }
+        return otherControls.contains(control);
     }
 
     public GridControl get(GridPad pad) {
-        return padMap.get(pad);
+        int slot = slot(pad);
+        if (slot >= 0) {
+            return padControls[slot];
+        }
+        return findOther(pad);
     }
 
     public GridControl get(GridButton button) {
-        return buttonMap.get(button);
+        int slot = slot(button);
+        if (slot >= 0) {
+            return buttonControls[slot];
+        }
+        return findOther(button);
     }
 
     public GridControl get(GridControl control) {
         if (control.getPad() != null) {
-            return padMap.get(control.getPad());
-        } else {
-            return buttonMap.get(control.getButton());
+            return get(control.getPad());
+        } else if (control.getButton() != null) {
+            return get(control.getButton());
         }
+        return null;
     }
 
     public GridControl get(int index) {
@@ -80,9 +124,7 @@ public class GridControlSet {
     }
 
     public void draw(GridDisplay display, Color color) {
-        for (GridControl control : controls) {
-            control.draw(display, color);
-        }
+        display.setControls(controlArray, color);
     }
 
     public void select(GridControl control) {
@@ -97,13 +139,56 @@ public class GridControlSet {
     /***** private methods ****************************************/
 
     public void computeControlMaps() {
+        controlArray = controls.toArray(new GridControl[controls.size()]);
+        Arrays.fill(padControls, null);
+        Arrays.fill(buttonControls, null);
+        otherControls.clear();
         for (GridControl control : controls) {
+            // when a pad or button is in the set twice, the last one wins
+            int slot = -1;
             if (control.getPad() != null) {
-                padMap.put(control.getPad(), control);
+                slot = slot(control.getPad());
+                if (slot >= 0) {
+                    padControls[slot] = control;
+                }
             } else if (control.getButton() != null) {
-                buttonMap.put(control.getButton(), control);
+                slot = slot(control.getButton());
+                if (slot >= 0) {
+                    buttonControls[slot] = control;
+                }
+            }
+            if (slot < 0) {
+                otherControls.add(control);
+            }
+        }
+    }
+
+    private static int slot(GridPad pad) {
+        int x = pad.getX();
+        int y = pad.getY();
+        if (x >= 0 && x < GridPad.TABLE_SIZE && y >= 0 && y < GridPad.TABLE_SIZE) {
+            return y * GridPad.TABLE_SIZE + x;
+        }
+        return -1;
+    }
+
+    private static int slot(GridButton button) {
+        int index = button.getIndex();
+        if (button.getSide() != null && index >= 0 && index < GridButton.TABLE_SIZE) {
+            return button.getSide().ordinal() * GridButton.TABLE_SIZE + index;
+        }
+        return -1;
+    }
+
+    private GridControl findOther(Object padOrButton) {
+        // search backwards so the last one wins, as in the arrays
+        for (int i = otherControls.size() - 1; i >= 0; i--) {
+            GridControl control = otherControls.get(i);
+            if (control.equals(padOrButton)) {
+                return control;
             }
         }
+        return null;
     }
 
 
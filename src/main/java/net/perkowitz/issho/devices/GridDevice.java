@@ -9,4 +9,9 @@ public interface GridDevice extends Receiver, GridDisplay {
 
     public void setListener(GridListener listener);
 
+    /**
+     * send the whole current LED state to the device again, e.g. after it has been reconnected
+     */
+    public void refresh();
+
 }
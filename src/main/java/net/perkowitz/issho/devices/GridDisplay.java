@@ -13,4 +13,28 @@ public interface GridDisplay {
     public void setButton(GridButton button, GridColor color);
     public void setKnob(GridKnob knob, int value);
 
+    /**
+     * set many pads and buttons in one pass. cells are indexed as in GridFrame; null cells are left alone.
+     *
+     * @param cells
+     */
+    public void setFrame(GridColor[] cells);
+
+    /**
+     * set each control to its own color: colors[i] for controls[i], for the first count controls
+     *
+     * @param controls
+     * @param colors
+     * @param count
+     */
+    public void setControls(GridControl[] controls, GridColor[] colors, int count);
+
+    /**
+     * set a region of controls all to one color
+     *
+     * @param controls
+     * @param color
+     */
+    public void setControls(GridControl[] controls, GridColor color);
+
 }
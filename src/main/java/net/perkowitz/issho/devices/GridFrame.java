@@ -0,0 +1,193 @@
+package net.perkowitz.issho.devices;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The colors of every pad and button on an 8x8 grid with four rows of 8 buttons, with a dirty flag per cell.
+ * Pads are cells 0-63 (y * 8 + x); buttons follow, 8 per side in GridButton.Side order.
+ * Writers and a single flushing thread can share a frame without locking.
+ * The dirty flag holds the highest LedPriority level the cell was drawn with since it was last flushed.
+ */
+public class GridFrame {
+
+    public static final int GRID_SIZE = 8;
+    public static final int PAD_COUNT = GRID_SIZE * GRID_SIZE;
+    public static final int BUTTON_COUNT = GridButton.Side.values().length * GRID_SIZE;
+    public static final int CELL_COUNT = PAD_COUNT + BUTTON_COUNT;
+
+    private static final GridPad[] pads = new GridPad[PAD_COUNT];
+    private static final GridButton[] buttons = new GridButton[BUTTON_COUNT];
+    static {
+        for (int y = 0; y < GRID_SIZE; y++) {
+            for (int x = 0; x < GRID_SIZE; x++) {
+                pads[y * GRID_SIZE + x] = GridPad.at(x, y);
+            }
+        }
+        for (GridButton.Side side : GridButton.Side.values()) {
+            for (int index = 0; index < GRID_SIZE; index++) {
+                buttons[side.ordinal() * GRID_SIZE + index] = GridButton.at(side, index);
+            }
+        }
+    }
+
+    private final AtomicReferenceArray<GridColor> colors = new AtomicReferenceArray<GridColor>(CELL_COUNT);
+    private final AtomicIntegerArray dirty = new AtomicIntegerArray(CELL_COUNT);
+    private volatile boolean anyDirty = false;
+
+    // only touched by the flushing thread
+    private final GridColor[] pending = new GridColor[CELL_COUNT];
+
+
+    /***** writing ****************************************/
+
+    public void set(GridPad pad, GridColor color) {
+        set(cell(pad), color);
+    }
+
+    public void set(GridButton button, GridColor color) {
+        set(cell(button), color);
+    }
+
+    public void set(int cell, GridColor color) {
+        set(cell, color, LedPriority.current());
+    }
+
+    public void set(int cell, GridColor color, LedPriority priority) {
+        if (cell < 0 || cell >= CELL_COUNT) return;
+        colors.set(cell, color);
+        int level = priority.level();
+        while (true) {
+            int current = dirty.get(cell);
+            if (current >= level || dirty.compareAndSet(cell, current, level)) {
+                break;
+            }
+        }
+        anyDirty = true;
+    }
+
+    public GridColor get(int cell) {
+        return colors.get(cell);
+    }
+
+    public boolean isDirty() {
+        return anyDirty;
+    }
+
+    public void markAllDirty() {
+        for (int cell = 0; cell < CELL_COUNT; cell++) {
+            if (colors.get(cell) != null && dirty.get(cell) == 0) {
+                dirty.compareAndSet(cell, 0, LedPriority.STATIC.level());
+            }
+        }
+        anyDirty = true;
+    }
+
+
+    /***** flushing ****************************************/
+
+    /**
+     * send every cell that has changed since the last flush to the display, one setFrame() per priority,
+     * highest first, with the flushing thread's LedPriority set to that priority (so a display that queues,
+     * like QueuedGridDevice, can keep the order). a cell written several times since the last flush is only
+     * sent once, with its latest color.
+     *
+     * @param display
+     * @return the number of cells sent
+     */
+    public int flush(GridDisplay display) {
+        return flush(display, Integer.MAX_VALUE);
+    }
+
+    /**
+     * like flush(display), but send at most budget cells; the rest stay dirty for the next flush.
+     * since higher priorities go first, it's the static cells that wait when the budget runs out.
+     *
+     * @param display
+     * @param budget
+     * @return the number of cells sent
+     */
+    public int flush(GridDisplay display, int budget) {
+        if (!anyDirty) return 0;
+        anyDirty = false;
+
+        int sent = 0;
+        for (int level = LedPriority.PLAYHEAD.level(); level >= LedPriority.STATIC.level(); level--) {
+            int sentAtLevel = 0;
+            for (int cell = 0; cell < CELL_COUNT; cell++) {
+                pending[cell] = null;
+                if (dirty.get(cell) != level) continue;
+                if (sent + sentAtLevel >= budget) {
+                    anyDirty = true;
+                    continue;
+                }
+                if (dirty.getAndSet(cell, 0) != 0) {
+                    GridColor color = colors.get(cell);
+                    if (color != null) {
+                        pending[cell] = color;
+                        sentAtLevel++;
+                    }
+                }
+            }
+            if (sentAtLevel > 0) {
+                LedPriority previous = LedPriority.set(LedPriority.ofLevel(level));
+                try {
+                    display.setFrame(pending);
+                } finally {
+                    LedPriority.set(previous);
+                }
+                sent += sentAtLevel;
+            }
+        }
+        return sent;
+    }
+
+
+    /***** static helpers ****************************************/
+
+    /**
+     * draw the non-null cells of a frame one at a time, for displays that have no faster way
+     *
+     * @param display
+     * @param cells
+     */
+    public static void draw(GridDisplay display, GridColor[] cells) {
+        int count = Math.min(cells.length, CELL_COUNT);
+        for (int cell = 0; cell < count; cell++) {
+            GridColor color = cells[cell];
+            if (color != null) {
+                if (cell < PAD_COUNT) {
+                    display.setPad(pads[cell], color);
+                } else {
+                    display.setButton(buttons[cell - PAD_COUNT], color);
+                }
+            }
+        }
+    }
+
+    public static int cell(GridPad pad) {
+        int x = pad.getX();
+        int y = pad.getY();
+        if (x < 0 || x >= GRID_SIZE || y < 0 || y >= GRID_SIZE) {
+            return -1;
+        }
+        return y * GRID_SIZE + x;
+    }
+
+    public static int cell(GridButton button) {
+        int index = button.getIndex();
+        if (index < 0 || index >= GRID_SIZE) {
+            return -1;
+        }
+        return PAD_COUNT + button.getSide().ordinal() * GRID_SIZE + index;
+    }
+
+    public static GridPad padAt(int cell) {
+        return cell >= 0 && cell < PAD_COUNT ? pads[cell] : null;
+    }
+
+    public static GridButton buttonAt(int cell) {
+        return cell >= PAD_COUNT && cell < CELL_COUNT ? buttons[cell - PAD_COUNT] : null;
+    }
+
+}
@@ -4,13 +4,27 @@ import lombok.Getter;
 
 /**
  * Created by optic on 9/3/16.
+ *
+ * Pads are interned: at() hands out the same instance every time for coordinates in the table,
+ * so looking up a pad (e.g. on every incoming pad press) doesn't allocate.
  */
 public class GridPad {
 
+    public static final int TABLE_SIZE = 16;
+
+    private static final GridPad[] pads = new GridPad[TABLE_SIZE * TABLE_SIZE];
+    static {
+        for (int y = 0; y < TABLE_SIZE; y++) {
+            for (int x = 0; x < TABLE_SIZE; x++) {
+                pads[y * TABLE_SIZE + x] = new GridPad(x, y);
+            }
+        }
+    }
+
     @Getter private final int x;
     @Getter private final int y;
 
-    public GridPad(int x, int y) {
+    private GridPad(int x, int y) {
         this.x = x;
         this.y = y;
     }
@@ -20,6 +34,9 @@ public class GridPad {
 
     @Override
     public boolean equals(Object object) {
+        if (object == this) {
+            return true;
+        }
         if (object instanceof GridPad) {
             GridPad pad = (GridPad) object;
             return x == pad.getX() && y == pad.getY();
@@ -29,7 +46,7 @@ public class GridPad {
 
     @Override
     public int hashCode() {
-        return toString().hashCode();
+        return x * 31 + y;
     }
 
     @Override
@@ -41,6 +58,9 @@ public class GridPad {
     /***** static helpers ************************************/
 
     public static GridPad at(int x, int y) {
+        if (x >= 0 && x < TABLE_SIZE && y >= 0 && y < TABLE_SIZE) {
+            return pads[y * TABLE_SIZE + x];
+        }
         return new GridPad(x, y);
     }
 
@@ -0,0 +1,60 @@
+package net.perkowitz.issho.devices;
+
+/**
+ * How urgently an LED change should reach the device when there isn't bandwidth to send everything at once.
+ * Higher priorities are sent first; lower ones wait for a later frame. Drawing code sets the priority for
+ * the current thread around what it draws, e.g. a module marks its playhead:
+ *
+ *   LedPriority previous = LedPriority.set(LedPriority.PLAYHEAD);
+ *   try {
+ *       ... draw the moving step ...
+ *   } finally {
+ *       LedPriority.set(previous);
+ *   }
+ *
+ * Anything drawn without a priority is STATIC.
+ */
+public enum LedPriority {
+
+    STATIC, EDIT, PLAYHEAD;
+
+    private static final LedPriority[] priorities = values();
+
+    private static final ThreadLocal<LedPriority> current = new ThreadLocal<LedPriority>() {
+        @Override
+        protected LedPriority initialValue() {
+            return STATIC;
+        }
+    };
+
+    /**
+     * @return the priority of whatever the current thread draws
+     */
+    public static LedPriority current() {
+        return current.get();
+    }
+
+    /**
+     * set the priority of whatever the current thread draws next
+     *
+     * @param priority
+     * @return the previous priority, to be restored afterwards
+     */
+    public static LedPriority set(LedPriority priority) {
+        LedPriority previous = current.get();
+        current.set(priority);
+        return previous;
+    }
+
+    /**
+     * @return the priority with the given level (ordinal + 1), as stored in a GridFrame's dirty flags
+     */
+    public static LedPriority ofLevel(int level) {
+        return priorities[level - 1];
+    }
+
+    public int level() {
+        return ordinal() + 1;
+    }
+
+}
@@ -49,6 +49,30 @@ public class MultiDevice implements GridDevice {
 
     public void setKnob(GridKnob knob, int value) {}
 
+    public void setFrame(GridColor[] cells) {
+        for (GridDevice gridDevice : gridDevices) {
+            gridDevice.setFrame(cells);
+        }
+    }
+
+    public void setControls(GridControl[] controls, GridColor[] colors, int count) {
+        for (GridDevice gridDevice : gridDevices) {
+            gridDevice.setControls(controls, colors, count);
+        }
+    }
+
+    public void setControls(GridControl[] controls, GridColor color) {
+        for (GridDevice gridDevice : gridDevices) {
+            gridDevice.setControls(controls, color);
+        }
+    }
+
+    public void refresh() {
+        for (GridDevice gridDevice : gridDevices) {
+            gridDevice.refresh();
+        }
+    }
+
 
     public void send(MidiMessage message, long timeStamp) {
         for (GridDevice gridDevice : gridDevices) {
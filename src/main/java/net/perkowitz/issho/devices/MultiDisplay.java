@@ -82,5 +82,29 @@ public class MultiDisplay implements GridDisplay {
 
     public void setKnob(GridKnob knob, int value) {}
 
+    public void setFrame(GridColor[] cells) {
+        if (enabled) {
+            for (GridDisplay display : displays) {
+                display.setFrame(cells);
+            }
+        }
+    }
+
+    public void setControls(GridControl[] controls, GridColor[] colors, int count) {
+        if (enabled) {
+            for (GridDisplay display : displays) {
+                display.setControls(controls, colors, count);
+            }
+        }
+    }
+
+    public void setControls(GridControl[] controls, GridColor color) {
+        if (enabled) {
+            for (GridDisplay display : displays) {
+                display.setControls(controls, color);
+            }
+        }
+    }
+
 
 }
@@ -0,0 +1,104 @@
+package net.perkowitz.issho.devices;
+
+import net.perkowitz.issho.devices.launchpadpro.Color;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A GridDisplay that only remembers what was drawn on it. Each module draws into its own offscreen
+ * display all the time, whether or not it's showing on a device, so switching to the module is a matter
+ * of blitting its current picture onto the device rather than asking the module to redraw everything.
+ * Cells are indexed as in GridFrame; cells that have never been drawn are not blitted.
+ */
+public class OffscreenDisplay implements GridDisplay {
+
+    private final AtomicReferenceArray<GridColor> cells = new AtomicReferenceArray<GridColor>(GridFrame.CELL_COUNT);
+    private final GridColor[] snapshot = new GridColor[GridFrame.CELL_COUNT];
+    private boolean drawn = false;
+
+
+    /**
+     * @return true once anything has been drawn
+     */
+    public boolean isDrawn() {
+        return drawn;
+    }
+
+    public GridColor get(int cell) {
+        return cells.get(cell);
+    }
+
+    /**
+     * send everything that has been drawn to the display in one batch
+     *
+     * @param display
+     */
+    public synchronized void blit(GridDisplay display) {
+        for (int cell = 0; cell < GridFrame.CELL_COUNT; cell++) {
+            snapshot[cell] = cells.get(cell);
+        }
+        display.setFrame(snapshot);
+    }
+
+
+    /***** GridDisplay implementation ****************************************/
+
+    public void initialize() {
+        for (int cell = 0; cell < GridFrame.CELL_COUNT; cell++) {
+            set(cell, Color.OFF);
+        }
+    }
+
+    public void initialize(boolean pads, Set<GridButton.Side> buttonSides) {
+        if (pads) {
+            for (int cell = 0; cell < GridFrame.PAD_COUNT; cell++) {
+                set(cell, Color.OFF);
+            }
+        }
+        if (buttonSides != null) {
+            for (GridButton.Side side : buttonSides) {
+                for (int index = 0; index < GridFrame.GRID_SIZE; index++) {
+                    set(GridFrame.cell(GridButton.at(side, index)), Color.OFF);
+                }
+            }
+        }
+    }
+
+    public void setPad(GridPad pad, GridColor color) {
+        set(GridFrame.cell(pad), color);
+    }
+
+    public void setButton(GridButton button, GridColor color) {
+        set(GridFrame.cell(button), color);
+    }
+
+    public void setKnob(GridKnob knob, int value) {}
+
+    public void setFrame(GridColor[] frame) {
+        int count = Math.min(frame.length, GridFrame.CELL_COUNT);
+        for (int cell = 0; cell < count; cell++) {
+            if (frame[cell] != null) {
+                set(cell, frame[cell]);
+            }
+        }
+    }
+
+    public void setControls(GridControl[] controls, GridColor[] colors, int count) {
+        GridControl.draw(this, controls, colors, count);
+    }
+
+    public void setControls(GridControl[] controls, GridColor color) {
+        GridControl.draw(this, controls, color);
+    }
+
+
+    /***** private implementation ****************************************/
+
+    private void set(int cell, GridColor color) {
+        if (cell < 0 || cell >= GridFrame.CELL_COUNT) return;
+        cells.set(cell, color);
+        drawn = true;
+    }
+
+}
@@ -0,0 +1,458 @@
+package net.perkowitz.issho.devices;
+
+import com.google.common.collect.Maps;
+import lombok.Getter;
+
+import javax.sound.midi.MidiMessage;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wraps a GridDevice with its own output queue and writer thread, so that a slow or stalled device
+ * only holds up itself, not the sequencer or the other devices.
+ *
+ * LED updates are coalesced per cell: if a cell is drawn again before the writer has sent it, the
+ * stale color is dropped and only the latest one goes out. Each cell keeps the highest LedPriority it was
+ * drawn with, and the writer sends the cells of the highest priority waiting first, so a playhead drawn
+ * during a long repaint still goes out ahead of it. Everything else (initialize, refresh, knob
+ * values, close) goes on a bounded queue in order and is never dropped; when that queue is full the
+ * caller waits for space. Input from the device (send) and the listener pass straight through.
+ */
+public class QueuedGridDevice implements GridDevice, Runnable {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    private enum CommandType { INITIALIZE, REFRESH, PAD, BUTTON, KNOB, STOP, CLOSE }
+
+    private static class Command {
+        CommandType type;
+        boolean everything;
+        boolean pads;
+        Set<GridButton.Side> buttonSides;
+        GridPad pad;
+        GridButton button;
+        GridKnob knob;
+        GridColor color;
+        int value;
+
+        Command(CommandType type) {
+            this.type = type;
+        }
+    }
+
+    @Getter private final GridDevice device;
+    private final String name;
+    private final BlockingQueue<Command> commands;
+    private final Object lock = new Object();
+
+    // guarded by lock; a cell's level is that of the highest LedPriority it was drawn with, 0 if not pending
+    private final GridColor[] pending = new GridColor[GridFrame.CELL_COUNT];
+    private final int[] pendingLevels = new int[GridFrame.CELL_COUNT];
+    private final int[] levelCounts = new int[LedPriority.PLAYHEAD.level() + 1];
+    private int pendingCount = 0;
+
+    // only touched by the writer thread
+    private final GridColor[] frame = new GridColor[GridFrame.CELL_COUNT];
+
+    private Thread thread = null;
+    private volatile boolean running = false;
+
+    @Getter private volatile long sentCount = 0;
+    @Getter private volatile long droppedCount = 0;
+    @Getter private volatile long blockedCount = 0;
+    @Getter private volatile int maxDepth = 0;
+
+
+    public QueuedGridDevice(GridDevice device, String name) {
+        this(device, name, DEFAULT_CAPACITY);
+    }
+
+    public QueuedGridDevice(GridDevice device, String name, int capacity) {
+        this.device = device;
+        this.name = name;
+        this.commands = new ArrayBlockingQueue<Command>(Math.max(1, capacity));
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "hachi-device-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * send whatever is still queued, then stop the writer thread
+     */
+    public void stop() {
+        finish(new Command(CommandType.STOP));
+    }
+
+    public int getCapacity() {
+        return commands.remainingCapacity() + commands.size();
+    }
+
+    /**
+     * @return commands waiting to be sent plus cells with an unsent color
+     */
+    public int getDepth() {
+        synchronized (lock) {
+            return commands.size() + pendingCount;
+        }
+    }
+
+    public void resetStats() {
+        sentCount = 0;
+        droppedCount = 0;
+        blockedCount = 0;
+        maxDepth = 0;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        map.put("name", name);
+        map.put("capacity", getCapacity());
+        map.put("depth", getDepth());
+        map.put("maxDepth", maxDepth);
+        map.put("sent", sentCount);
+        map.put("dropped", droppedCount);
+        map.put("blocked", blockedCount);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: depth=%d/%d maxDepth=%d sent=%d dropped=%d blocked=%d",
+                name, getDepth(), getCapacity(), maxDepth, sentCount, droppedCount, blockedCount);
+    }
+
+
+    /***** GridDevice implementation ****************************************/
+
+    public void initialize() {
+        initialize(true, null, true);
+    }
+
+    public void initialize(boolean pads, Set<GridButton.Side> buttonSides) {
+        initialize(pads, buttonSides, false);
+    }
+
+    public void setPad(GridPad pad, GridColor color) {
+        int cell = GridFrame.cell(pad);
+        if (cell >= 0) {
+            setCell(cell, color);
+        } else {
+            Command command = new Command(CommandType.PAD);
+            command.pad = pad;
+            command.color = color;
+            enqueue(command);
+        }
+    }
+
+    public void setButton(GridButton button, GridColor color) {
+        int cell = GridFrame.cell(button);
+        if (cell >= 0) {
+            setCell(cell, color);
+        } else {
+            Command command = new Command(CommandType.BUTTON);
+            command.button = button;
+            command.color = color;
+            enqueue(command);
+        }
+    }
+
+    public void setKnob(GridKnob knob, int value) {
+        Command command = new Command(CommandType.KNOB);
+        command.knob = knob;
+        command.value = value;
+        enqueue(command);
+    }
+
+    /**
+     * queue the non-null cells at the current thread's LedPriority (see GridFrame.flush())
+     *
+     * @param cells
+     */
+    public void setFrame(GridColor[] cells) {
+        int count = Math.min(cells.length, GridFrame.CELL_COUNT);
+        for (int cell = 0; cell < count; cell++) {
+            if (cells[cell] != null) {
+                setCell(cell, cells[cell]);
+            }
+        }
+    }
+
+    public void setControls(GridControl[] controls, GridColor[] colors, int count) {
+        GridControl.draw(this, controls, colors, count);
+    }
+
+    public void setControls(GridControl[] controls, GridColor color) {
+        GridControl.draw(this, controls, color);
+    }
+
+    public void refresh() {
+        enqueue(new Command(CommandType.REFRESH));
+    }
+
+    public void setListener(GridListener listener) {
+        device.setListener(listener);
+    }
+
+    public void send(MidiMessage message, long timeStamp) {
+        // input from the device isn't queued
+        device.send(message, timeStamp);
+    }
+
+    public void close() {
+        finish(new Command(CommandType.CLOSE));
+    }
+
+
+    /***** Runnable implementation ****************************************/
+
+    public void run() {
+        while (true) {
+            Command command;
+            int count = 0;
+            synchronized (lock) {
+                // commands go first, and cells are only taken once the queue is empty, so a cell drawn after
+                // a command was queued is never sent ahead of it (an initialize clears the cells drawn before it).
+                // cells are taken one priority at a time, so higher ones drawn meanwhile overtake the rest
+                command = commands.poll();
+                if (command == null) {
+                    count = takePending();
+                }
+            }
+
+            try {
+                if (command != null) {
+                    if (command.type == CommandType.STOP || command.type == CommandType.CLOSE) {
+                        flushPending();
+                        if (command.type == CommandType.CLOSE) {
+                            device.close();
+                        }
+                        return;
+                    }
+                    execute(command);
+                    sentCount++;
+                    continue;
+                }
+                if (count > 0) {
+                    device.setFrame(frame);
+                    Arrays.fill(frame, null);
+                    sentCount += count;
+                    continue;
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                continue;
+            }
+
+            if (!running) return;
+            LockSupport.park(this);
+        }
+    }
+
+
+    /***** private implementation ****************************************/
+
+    private void initialize(boolean pads, Set<GridButton.Side> buttonSides, boolean everything) {
+        Command command = new Command(CommandType.INITIALIZE);
+        command.everything = everything;
+        command.pads = pads;
+        command.buttonSides = buttonSides;
+
+        synchronized (lock) {
+            // anything drawn on these cells before now is wiped by the initialize, so don't send it afterwards
+            if (pads) {
+                for (int cell = 0; cell < GridFrame.PAD_COUNT; cell++) {
+                    clearCell(cell);
+                }
+            }
+            for (int cell = GridFrame.PAD_COUNT; cell < GridFrame.CELL_COUNT; cell++) {
+                if (everything || (buttonSides != null && buttonSides.contains(GridFrame.buttonAt(cell).getSide()))) {
+                    clearCell(cell);
+                }
+            }
+        }
+        enqueue(command);
+    }
+
+    private void setCell(int cell, GridColor color) {
+        if (!running) {
+            // not started (or already stopped): write straight through
+            if (cell < GridFrame.PAD_COUNT) {
+                device.setPad(GridFrame.padAt(cell), color);
+            } else {
+                device.setButton(GridFrame.buttonAt(cell), color);
+            }
+            return;
+        }
+        int level = LedPriority.current().level();
+        synchronized (lock) {
+            int pendingLevel = pendingLevels[cell];
+            if (pendingLevel != 0) {
+                droppedCount++;
+                if (level > pendingLevel) {
+                    levelCounts[pendingLevel]--;
+                    levelCounts[level]++;
+                    pendingLevels[cell] = level;
+                }
+            } else {
+                pendingCount++;
+                levelCounts[level]++;
+                pendingLevels[cell] = level;
+                updateMaxDepth();
+            }
+            pending[cell] = color;
+        }
+        wake();
+    }
+
+    private void clearCell(int cell) {
+        int level = pendingLevels[cell];
+        if (level != 0) {
+            pending[cell] = null;
+            pendingLevels[cell] = 0;
+            levelCounts[level]--;
+            pendingCount--;
+            droppedCount++;
+        }
+    }
+
+    /**
+     * move the pending cells of the highest priority waiting into frame; caller holds lock
+     *
+     * @return the number of cells taken
+     */
+    private int takePending() {
+        if (pendingCount == 0) {
+            return 0;
+        }
+        int level = levelCounts.length - 1;
+        while (levelCounts[level] == 0) {
+            level--;
+        }
+        int count = levelCounts[level];
+        for (int cell = 0; cell < GridFrame.CELL_COUNT; cell++) {
+            if (pendingLevels[cell] == level) {
+                frame[cell] = pending[cell];
+                pending[cell] = null;
+                pendingLevels[cell] = 0;
+            }
+        }
+        levelCounts[level] = 0;
+        pendingCount -= count;
+        return count;
+    }
+
+    private void flushPending() {
+        while (true) {
+            int count;
+            synchronized (lock) {
+                count = takePending();
+            }
+            if (count == 0) {
+                return;
+            }
+            device.setFrame(frame);
+            Arrays.fill(frame, null);
+            sentCount += count;
+        }
+    }
+
+    private void enqueue(Command command) {
+        if (!running) {
+            // not started (or already stopped): write straight through
+            execute(command);
+            return;
+        }
+        while (true) {
+            synchronized (lock) {
+                if (commands.offer(command)) {
+                    updateMaxDepth();
+                    break;
+                }
+            }
+            // never drop a command; wait for the writer to make room
+            blockedCount++;
+            wake();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        wake();
+    }
+
+    private void execute(Command command) {
+        switch (command.type) {
+            case INITIALIZE:
+                if (command.everything) {
+                    device.initialize();
+                } else {
+                    device.initialize(command.pads, command.buttonSides);
+                }
+                break;
+            case REFRESH:
+                device.refresh();
+                break;
+            case PAD:
+                device.setPad(command.pad, command.color);
+                break;
+            case BUTTON:
+                device.setButton(command.button, command.color);
+                break;
+            case KNOB:
+                device.setKnob(command.knob, command.value);
+                break;
+            case CLOSE:
+                device.close();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void finish(Command command) {
+        Thread writer;
+        synchronized (this) {
+            writer = thread;
+            if (!running) {
+                if (command.type == CommandType.CLOSE) {
+                    device.close();
+                }
+                return;
+            }
+        }
+        enqueue(command);
+        try {
+            writer.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            running = false;
+            thread = null;
+        }
+    }
+
+    private void updateMaxDepth() {
+        int depth = commands.size() + pendingCount;
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+    }
+
+    private void wake() {
+        Thread writer = thread;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+}
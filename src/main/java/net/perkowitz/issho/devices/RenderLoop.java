@@ -0,0 +1,120 @@
+package net.perkowitz.issho.devices;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Flushes a set of BufferedDisplays to their devices at a fixed frame rate from a dedicated thread.
+ * All the drawing done between two frames is coalesced into one update per changed cell.
+ */
+public class RenderLoop implements Runnable {
+
+    public static final int DEFAULT_FRAMES_PER_SECOND = 60;
+    private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    private final List<BufferedDisplay> displays = new CopyOnWriteArrayList<BufferedDisplay>();
+    private final long frameNanos;
+    private Thread thread = null;
+    private volatile boolean running = false;
+    private volatile boolean refreshPending = false;
+
+    @Getter private volatile long frameCount = 0;
+    @Getter private volatile long cellCount = 0;
+
+
+    public RenderLoop(int framesPerSecond) {
+        this.frameNanos = 1000000000L / Math.max(1, framesPerSecond);
+    }
+
+    public BufferedDisplay add(GridDisplay display) {
+        BufferedDisplay bufferedDisplay = new BufferedDisplay(display);
+        displays.add(bufferedDisplay);
+        return bufferedDisplay;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "hachi-render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * stop the render thread once it has flushed a last frame, so nothing drawn before the stop is lost
+     * and the devices are never written from two threads at once
+     */
+    public synchronized void stop() {
+        Thread renderer = thread;
+        thread = null;
+        running = false;
+        if (renderer == null) {
+            renderFrame();
+            return;
+        }
+        LockSupport.unpark(renderer);
+        try {
+            renderer.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * have every device resend all its LEDs with the next frame (e.g. after it has been reconnected),
+     * so the devices are still only sent to from the render thread
+     */
+    public void refresh() {
+        refreshPending = true;
+    }
+
+    /**
+     * flush every display now, from the calling thread
+     */
+    public void renderFrame() {
+        boolean refresh = refreshPending;
+        refreshPending = false;
+        int cells = 0;
+        for (BufferedDisplay display : displays) {
+            cells += display.flush();
+            if (refresh && display.getDisplay() instanceof GridDevice) {
+                ((GridDevice) display.getDisplay()).refresh();
+            }
+        }
+        frameCount++;
+        cellCount += cells;
+    }
+
+
+    /***** Runnable implementation ****************************************/
+
+    public void run() {
+        long nextFrame = System.nanoTime();
+        while (running) {
+            try {
+                renderFrame();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+            nextFrame += frameNanos;
+            long now = System.nanoTime();
+            if (nextFrame - now < 0) {
+                // fell behind (slow device); skip ahead rather than rendering back to back
+                nextFrame = now + frameNanos;
+            }
+            LockSupport.parkNanos(nextFrame - now);
+        }
+
+        // the final flush for stop()
+        try {
+            renderFrame();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+}
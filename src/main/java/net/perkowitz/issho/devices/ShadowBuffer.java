@@ -0,0 +1,149 @@
+package net.perkowitz.issho.devices;
+
+import lombok.Getter;
+
+/**
+ * The LED state a grid device is currently showing, as last sent by its driver, laid out as the 10x10
+ * grid of a Launchpad Pro: pads at (x+1, y+1), the top and bottom button rows at rows 0 and 9, and the
+ * left and right button columns at columns 0 and 9.
+ *
+ * Drivers check each update against the buffer and only send the ones that change what's lit.
+ * Every cell starts out unknown, so the first update to each one is always sent; after a reconnect,
+ * the driver's refresh() sends the whole buffer again.
+ */
+public class ShadowBuffer {
+
+    public static final int SIZE = 10;
+    public static final int UNKNOWN = -1;
+
+    private final int[] values = new int[SIZE * SIZE];
+    @Getter private long sentCount = 0;
+    @Getter private long skippedCount = 0;
+
+
+    public ShadowBuffer() {
+        invalidate();
+    }
+
+
+    /***** updates ****************************************/
+
+    /**
+     * record the value for a pad
+     *
+     * @param pad
+     * @param value
+     * @return true if the value changed and should be sent to the device
+     */
+    public boolean setPad(GridPad pad, int value) {
+        return set(padCell(pad.getX(), pad.getY()), value);
+    }
+
+    /**
+     * record the value for a button
+     *
+     * @param button
+     * @param value
+     * @return true if the value changed and should be sent to the device
+     */
+    public boolean setButton(GridButton button, int value) {
+        return set(buttonCell(button.getSide(), button.getIndex()), value);
+    }
+
+    /**
+     * record a value that is about to be sent no matter what, e.g. when initializing
+     *
+     * @param pad
+     * @param value
+     */
+    public void putPad(GridPad pad, int value) {
+        put(padCell(pad.getX(), pad.getY()), value);
+    }
+
+    public void putButton(GridButton button, int value) {
+        put(buttonCell(button.getSide(), button.getIndex()), value);
+    }
+
+    /**
+     * forget everything, so that every cell is sent on its next update
+     */
+    public void invalidate() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = UNKNOWN;
+        }
+    }
+
+
+    /***** lookups ****************************************/
+
+    /**
+     * @param x
+     * @param y
+     * @return the value last sent for the pad, or UNKNOWN
+     */
+    public int getPad(int x, int y) {
+        int cell = padCell(x, y);
+        return cell < 0 ? UNKNOWN : values[cell];
+    }
+
+    /**
+     * @param side
+     * @param index
+     * @return the value last sent for the button, or UNKNOWN
+     */
+    public int getButton(GridButton.Side side, int index) {
+        int cell = buttonCell(side, index);
+        return cell < 0 ? UNKNOWN : values[cell];
+    }
+
+
+    /***** private implementation ****************************************/
+
+    private boolean set(int cell, int value) {
+        if (cell < 0) {
+            // outside the grid: nothing to compare against, so always send
+            sentCount++;
+            return true;
+        }
+        if (values[cell] == value) {
+            skippedCount++;
+            return false;
+        }
+        values[cell] = value;
+        sentCount++;
+        return true;
+    }
+
+    private void put(int cell, int value) {
+        if (cell >= 0) {
+            values[cell] = value;
+        }
+        sentCount++;
+    }
+
+    private static int padCell(int x, int y) {
+        if (x < 0 || x > 7 || y < 0 || y > 7) {
+            return -1;
+        }
+        return (y + 1) * SIZE + x + 1;
+    }
+
+    private static int buttonCell(GridButton.Side side, int index) {
+        if (side == null || index < 0 || index > 7) {
+            return -1;
+        }
+        switch (side) {
+            case Top:
+                return index + 1;
+            case Bottom:
+                return (SIZE - 1) * SIZE + index + 1;
+            case Left:
+                return (index + 1) * SIZE;
+            case Right:
+                return (index + 1) * SIZE + SIZE - 1;
+            default:
+                return -1;
+        }
+    }
+
+}
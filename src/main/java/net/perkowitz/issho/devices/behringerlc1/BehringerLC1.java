@@ -2,6 +2,7 @@ package net.perkowitz.issho.devices.behringerlc1;
 
 
 import com.google.common.collect.Sets;
+import lombok.Getter;
 import lombok.Setter;
 import net.perkowitz.issho.devices.*;
 import net.perkowitz.issho.devices.launchpadpro.Color;
@@ -33,6 +34,7 @@ public class BehringerLC1 implements GridDevice {
 
     private Receiver receiver;
     @Setter private GridListener listener;
+    @Getter private final ShadowBuffer shadowBuffer = new ShadowBuffer();
 
     public BehringerLC1(Receiver receiver, GridListener listener) {
         this.receiver = receiver;
@@ -48,7 +50,9 @@ public class BehringerLC1 implements GridDevice {
         for (int y = 0; y < ROW_COUNT; y++) {
             if (pads) {
                 for (int x = 0; x < COLUMN_COUNT; x++) {
-                    setPad(GridPad.at(x, y), Color.fromIndex(127));
+                    GridPad pad = GridPad.at(x, y);
+                    shadowBuffer.putPad(pad, 127);
+                    sendPad(pad, 127);
                 }
             }
         }
@@ -57,7 +61,11 @@ public class BehringerLC1 implements GridDevice {
         for (int index = 0; index < BUTTON_COUNT; index++) {
             if (buttonSides != null) {
                 for (GridButton.Side side : buttonSides) {
-                    setButton(GridButton.at(side, index), Color.fromIndex(1));
+                    GridButton button = GridButton.at(side, index);
+                    if (hasButton(button)) {
+                        shadowBuffer.putButton(button, 1);
+                        sendButton(button, 1);
+                    }
                 }
             }
         }
@@ -85,23 +93,14 @@ public class BehringerLC1 implements GridDevice {
             return;
         }
 
-        int note = 32 + pad.getY()*4 + pad.getX();
-        note(CHANNEL, note, color.getIndex());
+        if (shadowBuffer.setPad(pad, color.getIndex())) {
+            sendPad(pad, color.getIndex());
+        }
     }
 
     public void setButton(GridButton button, GridColor color) {
-
-        if (button.getSide() == Top) {
-            int note = 16 + button.getIndex();
-            note(CHANNEL, note, color.getIndex());
-        } else if (button.getSide() == Right) {
-            int note = 64 + button.getIndex();
-            note(CHANNEL, note, color.getIndex());
-        } else if (button.getSide() == Bottom) {
-            if (button.getIndex() < 4) {
-                int note = 72 + button.getIndex();
-                note(CHANNEL, note, color.getIndex());
-            }
+        if (hasButton(button) && shadowBuffer.setButton(button, color.getIndex())) {
+            sendButton(button, color.getIndex());
         }
     }
 
@@ -109,6 +108,37 @@ public class BehringerLC1 implements GridDevice {
         cc(CHANNEL, knob.getIndex() + 16, value);
     }
 
+    public void setFrame(GridColor[] cells) {
+        GridFrame.draw(this, cells);
+    }
+
+    public void setControls(GridControl[] controls, GridColor[] colors, int count) {
+        GridControl.draw(this, controls, colors, count);
+    }
+
+    public void setControls(GridControl[] controls, GridColor color) {
+        GridControl.draw(this, controls, color);
+    }
+
+    public void refresh() {
+        for (int y = 0; y < ROW_COUNT; y++) {
+            for (int x = 0; x < COLUMN_COUNT; x++) {
+                int value = shadowBuffer.getPad(x, y);
+                if (value != ShadowBuffer.UNKNOWN) {
+                    sendPad(GridPad.at(x, y), value);
+                }
+            }
+        }
+        for (int index = 0; index < BUTTON_COUNT; index++) {
+            for (GridButton.Side side : GridButton.Side.values()) {
+                int value = shadowBuffer.getButton(side, index);
+                if (value != ShadowBuffer.UNKNOWN) {
+                    sendButton(GridButton.at(side, index), value);
+                }
+            }
+        }
+    }
+
 
     /***** midi receiver implementation **************************************************************/
 
@@ -187,6 +217,31 @@ public class BehringerLC1 implements GridDevice {
 
     /***** private implementation **************************************************************/
 
+    private void sendPad(GridPad pad, int value) {
+        int note = 32 + pad.getY()*4 + pad.getX();
+        note(CHANNEL, note, value);
+    }
+
+    private boolean hasButton(GridButton button) {
+        // top and right rows, and the first four bottom buttons
+        return button.getSide() == Top || button.getSide() == Right ||
+                (button.getSide() == Bottom && button.getIndex() < 4);
+    }
+
+    private void sendButton(GridButton button, int value) {
+
+        if (button.getSide() == Top) {
+            int note = 16 + button.getIndex();
+            note(CHANNEL, note, value);
+        } else if (button.getSide() == Right) {
+            int note = 64 + button.getIndex();
+            note(CHANNEL, note, value);
+        } else if (button.getSide() == Bottom) {
+            int note = 72 + button.getIndex();
+            note(CHANNEL, note, value);
+        }
+    }
+
     private void note(int channel, int noteNumber, int velocity) {
 
         try {
@@ -49,6 +49,18 @@ public class Console implements GridListener, GridDisplay {
 
     public void setKnob(GridKnob knob, int value) {}
 
+    public void setFrame(GridColor[] cells) {
+        GridFrame.draw(this, cells);
+    }
+
+    public void setControls(GridControl[] controls, GridColor[] colors, int count) {
+        GridControl.draw(this, controls, colors, count);
+    }
+
+    public void setControls(GridControl[] controls, GridColor color) {
+        GridControl.draw(this, controls, color);
+    }
+
 
 
 
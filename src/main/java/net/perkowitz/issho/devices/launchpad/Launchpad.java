@@ -2,9 +2,11 @@ package net.perkowitz.issho.devices.launchpad;
 
 
 import com.google.common.collect.Sets;
+import lombok.Getter;
 import lombok.Setter;
 import net.perkowitz.issho.devices.*;
 import net.perkowitz.issho.devices.launchpadpro.Color;
+import net.perkowitz.issho.midi.MidiOutput;
 
 import javax.sound.midi.*;
 import java.util.Set;
@@ -14,18 +16,48 @@ import static net.perkowitz.issho.devices.GridButton.Side.*;
 
 /**
  * Created by optic on 9/3/16.
+ *
+ * With doubleBuffered set, batches of LED changes (setFrame, setControls, initialize, refresh) that touch
+ * enough LEDs are written into the hidden buffer with rapid LED updates and then shown all at once by
+ * flipping buffers, so big redraws don't tear. Smaller changes are written to both buffers directly.
+ * Double buffering uses the velocity's copy/clear flag bits, so colors should be plain Launchpad colors.
  */
 public class Launchpad implements GridDevice {
 
     private static int MIDI_REALTIME_COMMAND = 0xF0;
 
     private static int CHANNEL = 0;
+    private static int RAPID_UPDATE_CHANNEL = 2;
+
+    private static int BUFFER_CONTROL_CC = 0;
+    private static int BUFFER_CONTROL = 0x20;
+    private static int VELOCITY_FLAGS = 0x0C;
+    private static int VELOCITY_COPY = 0x04;
+
+    // rapid update order: 64 pads row by row from the top left, 8 right buttons top to bottom, 8 top buttons left to right
+    private static final int RAPID_UPDATE_LEDS = 80;
+    private static final int RAPID_RIGHT = 64;
+    private static final int RAPID_TOP = 72;
+
+    // a rapid update always writes every led (40 messages), so only use it when a frame changes at least this many
+    public static final int RAPID_UPDATE_MIN_LEDS = 16;
 
     private Receiver receiver;
+    private MidiOutput output;
     @Setter private GridListener listener;
+    @Getter private final ShadowBuffer shadowBuffer = new ShadowBuffer();
+
+    @Getter @Setter private boolean doubleBuffered = false;
+    private int displayBuffer = 0;
+    private int frameDepth = 0;
+    private final boolean[] frameMarked = new boolean[RAPID_UPDATE_LEDS];
+    private final int[] frameLeds = new int[RAPID_UPDATE_LEDS];
+    private int frameLedCount = 0;
+    @Getter private int flipCount = 0;
 
     public Launchpad(Receiver receiver, GridListener listener) {
         this.receiver = receiver;
+        this.output = new MidiOutput(receiver);
         this.listener = listener;
     }
 
@@ -33,18 +65,33 @@ public class Launchpad implements GridDevice {
     /****** public logical implementation ***********************************************************/
 
     public void initialize(boolean pads, Set<GridButton.Side> buttonSides) {
+        if (doubleBuffered) {
+            // show buffer 0 and write to buffer 1
+            displayBuffer = 0;
+            cc(CHANNEL, BUFFER_CONTROL_CC, bufferControl());
+        }
+
+        // the device's state is unknown at this point, so send everything regardless of the shadow buffer
+        beginFrame();
         for (int y = 0; y < 8; y++) {
             if (pads) {
                 for (int x = 0; x < 8; x++) {
-                    setPad(GridPad.at(x, y), Color.OFF);
+                    GridPad pad = GridPad.at(x, y);
+                    shadowBuffer.putPad(pad, Color.OFF.getIndex());
+                    sendPad(pad, Color.OFF.getIndex());
                 }
             }
             if (buttonSides != null) {
                 for (GridButton.Side side : buttonSides) {
-                    setButton(GridButton.at(side, y), Color.OFF);
+                    GridButton button = GridButton.at(side, y);
+                    if (hasButton(button)) {
+                        shadowBuffer.putButton(button, Color.OFF.getIndex());
+                        sendButton(button, Color.OFF.getIndex());
+                    }
                 }
             }
         }
+        endFrame();
     }
 
     public void initialize() {
@@ -58,26 +105,84 @@ public class Launchpad implements GridDevice {
     }
 
     public void setPad(GridPad pad, GridColor color) {
-        note(CHANNEL, padToNote(pad), color.getIndex());
+        if (shadowBuffer.setPad(pad, color.getIndex())) {
+            sendPad(pad, color.getIndex());
+        }
     }
 
     public void setButton(GridButton button, GridColor color) {
-        if (button.getSide() == GridButton.Side.Left) {
-            // nope
-        } else if (button.getSide() == GridButton.Side.Bottom) {
-            // nope
-        } else if (button.getSide() == GridButton.Side.Right) {
-            // right side uses notes, as though they were a 9th column of the grid pad
-            int note = (button.getIndex()) * 16 + 8;
-            note(CHANNEL, note, color.getIndex());
-        } else if (button.getSide() == GridButton.Side.Top) {
-            int cc = 104 + button.getIndex();
-            cc(CHANNEL, cc, color.getIndex());
+        if (hasButton(button) && shadowBuffer.setButton(button, color.getIndex())) {
+            sendButton(button, color.getIndex());
         }
     }
 
     public void setKnob(GridKnob knob, int value) {}
 
+    public void setFrame(GridColor[] cells) {
+        beginFrame();
+        GridFrame.draw(this, cells);
+        endFrame();
+    }
+
+    public void setControls(GridControl[] controls, GridColor[] colors, int count) {
+        beginFrame();
+        GridControl.draw(this, controls, colors, count);
+        endFrame();
+    }
+
+    public void setControls(GridControl[] controls, GridColor color) {
+        beginFrame();
+        GridControl.draw(this, controls, color);
+        endFrame();
+    }
+
+    public void refresh() {
+        beginFrame();
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int value = shadowBuffer.getPad(x, y);
+                if (value != ShadowBuffer.UNKNOWN) {
+                    sendPad(GridPad.at(x, y), value);
+                }
+            }
+            for (GridButton.Side side : GridButton.Side.values()) {
+                int value = shadowBuffer.getButton(side, y);
+                if (value != ShadowBuffer.UNKNOWN && hasButton(GridButton.at(side, y))) {
+                    sendButton(GridButton.at(side, y), value);
+                }
+            }
+        }
+        endFrame();
+    }
+
+    /**
+     * start collecting LED changes into a frame; when double buffered, endFrame() shows them all at once.
+     * frames may be nested; only the outermost endFrame() sends.
+     */
+    public void beginFrame() {
+        frameDepth++;
+    }
+
+    public void endFrame() {
+        if (frameDepth == 0) return;
+        frameDepth--;
+        if (frameDepth > 0 || frameLedCount == 0) return;
+
+        if (frameLedCount >= RAPID_UPDATE_MIN_LEDS) {
+            rapidUpdate();
+            flip();
+        } else {
+            for (int i = 0; i < frameLedCount; i++) {
+                int led = frameLeds[i];
+                writeLed(led, rapidValue(led), true);
+            }
+        }
+        for (int i = 0; i < frameLedCount; i++) {
+            frameMarked[frameLeds[i]] = false;
+        }
+        frameLedCount = 0;
+    }
+
     public void setSide() {
         sysex();
     }
@@ -172,29 +277,98 @@ public class Launchpad implements GridDevice {
 
     /***** private implementation **************************************************************/
 
-    private void note(int channel, int noteNumber, int velocity) {
+    private boolean hasButton(GridButton button) {
+        // no left or bottom buttons
+        return button.getSide() == GridButton.Side.Right || button.getSide() == GridButton.Side.Top;
+    }
 
-        try {
-            ShortMessage message = new ShortMessage();
-            message.setMessage(ShortMessage.NOTE_ON, channel, noteNumber, velocity);
-            receiver.send(message, -1);
+    private void sendPad(GridPad pad, int value) {
+        int x = pad.getX();
+        int y = pad.getY();
+        if (doubleBuffered && x >= 0 && x < 8 && y >= 0 && y < 8) {
+            sendLed(y * 8 + x, value);
+        } else {
+            note(CHANNEL, padToNote(pad), value);
+        }
+    }
 
-        } catch (InvalidMidiDataException e) {
-            System.err.println(e);
+    private void sendButton(GridButton button, int value) {
+        int index = button.getIndex();
+        if (doubleBuffered && index >= 0 && index < 8) {
+            sendLed(button.getSide() == GridButton.Side.Right ? RAPID_RIGHT + index : RAPID_TOP + index, value);
+        } else if (button.getSide() == GridButton.Side.Right) {
+            // right side uses notes, as though they were a 9th column of the grid pad
+            int note = (button.getIndex()) * 16 + 8;
+            note(CHANNEL, note, value);
+        } else if (button.getSide() == GridButton.Side.Top) {
+            int cc = 104 + button.getIndex();
+            cc(CHANNEL, cc, value);
         }
+    }
 
+    // double buffered: leds are numbered in rapid update order
+    private void sendLed(int led, int value) {
+        if (frameDepth > 0) {
+            if (!frameMarked[led]) {
+                frameMarked[led] = true;
+                frameLeds[frameLedCount++] = led;
+            }
+        } else {
+            writeLed(led, value, true);
+        }
     }
 
-    private void cc(int channel, int ccNumber, int value) {
+    private void writeLed(int led, int value, boolean bothBuffers) {
+        int velocity = (value & ~VELOCITY_FLAGS) | (bothBuffers ? VELOCITY_COPY : 0);
+        if (led < RAPID_RIGHT) {
+            note(CHANNEL, padToNote(GridPad.at(led % 8, led / 8)), velocity);
+        } else if (led < RAPID_TOP) {
+            note(CHANNEL, (led - RAPID_RIGHT) * 16 + 8, velocity);
+        } else {
+            cc(CHANNEL, 104 + led - RAPID_TOP, velocity);
+        }
+    }
 
-        try {
-            ShortMessage message = new ShortMessage();
-            message.setMessage(ShortMessage.CONTROL_CHANGE, channel, ccNumber, value);
-            receiver.send(message, -1);
+    private int rapidValue(int led) {
+        int value;
+        if (led < RAPID_RIGHT) {
+            value = shadowBuffer.getPad(led % 8, led / 8);
+        } else if (led < RAPID_TOP) {
+            value = shadowBuffer.getButton(Right, led - RAPID_RIGHT);
+        } else {
+            value = shadowBuffer.getButton(Top, led - RAPID_TOP);
+        }
+        return value == ShadowBuffer.UNKNOWN ? Color.OFF.getIndex() : value;
+    }
 
-        } catch (InvalidMidiDataException e) {
-            System.err.println(e);
+    // write every led into the hidden buffer, two per message
+    private void rapidUpdate() {
+        for (int led = 0; led < RAPID_UPDATE_LEDS; led += 2) {
+            note(RAPID_UPDATE_CHANNEL, rapidValue(led) & ~VELOCITY_FLAGS, rapidValue(led + 1) & ~VELOCITY_FLAGS);
         }
+    }
+
+    // show the buffer that was just written and write to the other one next
+    private void flip() {
+        displayBuffer = 1 - displayBuffer;
+        cc(CHANNEL, BUFFER_CONTROL_CC, bufferControl());
+        flipCount++;
+    }
+
+    private int bufferControl() {
+        int updateBuffer = 1 - displayBuffer;
+        return BUFFER_CONTROL | (updateBuffer << 2) | displayBuffer;
+    }
+
+    private void note(int channel, int noteNumber, int velocity) {
+
+        output.note(channel, noteNumber, velocity, -1);
+
+    }
+
+    private void cc(int channel, int ccNumber, int value) {
+
+        output.cc(channel, ccNumber, value, -1);
 
     }
 
@@ -55,7 +55,7 @@ public class LPP {
             color = Color.fromIndex((int) (Math.random() * 127) + 1);
             lpp.setButton(GridButton.at(Left, y), color);
             for (int x = 0; x < 8; x++) {
-                lpp.setPad(new GridPad(x, y), color);
+                lpp.setPad(GridPad.at(x, y), color);
             }
             lpp.setButton(GridButton.at(Right, y), color);
         }
@@ -91,7 +91,7 @@ public class LPP {
         }
         for (int y = 0; y < 8; y++) {
             for (int x = 0; x < 8; x++) {
-                lpp.setPad(new GridPad(x, 7-y), Color.fromIndex(c));
+                lpp.setPad(GridPad.at(x, 7-y), Color.fromIndex(c));
                 c++;
             }
         }
@@ -104,7 +104,7 @@ public class LPP {
         for (int y = 0; y < 8; y++) {
             for (int x = 0; x < 8; x++) {
                 int index = colors[c % colors.length];
-                lpp.setPad(new GridPad(x, y), Color.fromIndex(index));
+                lpp.setPad(GridPad.at(x, y), Color.fromIndex(index));
                 c++;
             }
         }
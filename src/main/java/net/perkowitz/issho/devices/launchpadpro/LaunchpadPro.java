@@ -2,8 +2,10 @@ package net.perkowitz.issho.devices.launchpadpro;
 
 
 import com.google.common.collect.Sets;
+import lombok.Getter;
 import lombok.Setter;
 import net.perkowitz.issho.devices.*;
+import net.perkowitz.issho.midi.MidiOutput;
 
 import javax.sound.midi.*;
 
@@ -16,17 +18,37 @@ import static net.perkowitz.issho.devices.GridButton.Side.Top;
 /**
  * Created by optic on 9/3/16.
  */
-public class LaunchpadPro implements GridDevice {
+public class LaunchpadPro implements GridDevice, Animatable {
 
     private static int MIDI_REALTIME_COMMAND = 0xF0;
 
     private static int CHANNEL = 0;
+    private static int FLASH_CHANNEL = 1;
+    private static int PULSE_CHANNEL = 2;
+
+    // AnimatedColors are kept in the shadow buffer as color + (mode + 1) * 128 + alternate * 512
+    private static int ANIMATION_BASE = 128;
+    private static int ALTERNATE_BASE = 512;
+
+    // "set leds" sysex: header, then pairs of (led, palette color), up to 97 pairs per message
+    private static final byte[] SYSEX_SET_LEDS = { (byte) 0xf0, 0x00, 0x20, 0x29, 0x02, 0x10, 0x0a };
+    private static final byte SYSEX_END = (byte) 0xf7;
+    private static final int SYSEX_MAX_LEDS = 97;
 
     private Receiver receiver;
+    private MidiOutput output;
     @Setter private GridListener listener;
+    @Getter private final ShadowBuffer shadowBuffer = new ShadowBuffer();
+
+    // when enabled, LED changes made between beginFrame() and endFrame() go out as sysex instead of one message each
+    @Getter @Setter private boolean sysexEnabled = false;
+    private int frameDepth = 0;
+    private final byte[] frameLeds = new byte[SYSEX_MAX_LEDS * 2];
+    private int frameLedCount = 0;
 
     public LaunchpadPro(Receiver receiver, GridListener listener) {
         this.receiver = receiver;
+        this.output = new MidiOutput(receiver);
         this.listener = listener;
     }
 
@@ -34,18 +56,25 @@ public class LaunchpadPro implements GridDevice {
     /****** public logical implementation ***********************************************************/
 
     public void initialize(boolean pads, Set<GridButton.Side> buttonSides) {
+        // the device's state is unknown at this point, so send everything regardless of the shadow buffer
+        beginFrame();
         for (int y = 0; y < 8; y++) {
             if (pads) {
                 for (int x = 0; x < 8; x++) {
-                    setPad(GridPad.at(x, y), Color.OFF);
+                    GridPad pad = GridPad.at(x, y);
+                    shadowBuffer.putPad(pad, Color.OFF.getIndex());
+                    padLed(padToNote(pad), Color.OFF.getIndex());
                 }
             }
             if (buttonSides != null) {
                 for (GridButton.Side side : buttonSides) {
-                    setButton(GridButton.at(side, y), Color.OFF);
+                    GridButton button = GridButton.at(side, y);
+                    shadowBuffer.putButton(button, Color.OFF.getIndex());
+                    buttonLed(buttonToCc(button), Color.OFF.getIndex());
                 }
             }
         }
+        endFrame();
     }
 
     public void initialize() {
@@ -59,15 +88,75 @@ public class LaunchpadPro implements GridDevice {
     }
 
     public void setPad(GridPad pad, GridColor color) {
-        note(CHANNEL, padToNote(pad), color.getIndex());
+        int value = ledValue(color);
+        if (shadowBuffer.setPad(pad, value)) {
+            padLed(padToNote(pad), value);
+        }
     }
 
     public void setButton(GridButton button, GridColor color) {
-        cc(CHANNEL, buttonToCc(button), color.getIndex());
+        int value = ledValue(color);
+        if (shadowBuffer.setButton(button, value)) {
+            buttonLed(buttonToCc(button), value);
+        }
     }
 
     public void setKnob(GridKnob knob, int value) {}
 
+    public void setFrame(GridColor[] cells) {
+        beginFrame();
+        GridFrame.draw(this, cells);
+        endFrame();
+    }
+
+    public void setControls(GridControl[] controls, GridColor[] colors, int count) {
+        beginFrame();
+        GridControl.draw(this, controls, colors, count);
+        endFrame();
+    }
+
+    public void setControls(GridControl[] controls, GridColor color) {
+        beginFrame();
+        GridControl.draw(this, controls, color);
+        endFrame();
+    }
+
+    public void refresh() {
+        beginFrame();
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int value = shadowBuffer.getPad(x, y);
+                if (value != ShadowBuffer.UNKNOWN) {
+                    padLed(padToNote(GridPad.at(x, y)), value);
+                }
+            }
+            for (GridButton.Side side : GridButton.Side.values()) {
+                int value = shadowBuffer.getButton(side, y);
+                if (value != ShadowBuffer.UNKNOWN) {
+                    buttonLed(buttonToCc(GridButton.at(side, y)), value);
+                }
+            }
+        }
+        endFrame();
+    }
+
+    /**
+     * start collecting LED changes into a frame; with sysex enabled, they are sent together by endFrame().
+     * frames may be nested; only the outermost endFrame() sends.
+     */
+    public void beginFrame() {
+        frameDepth++;
+    }
+
+    public void endFrame() {
+        if (frameDepth > 0) {
+            frameDepth--;
+            if (frameDepth == 0) {
+                sendFrame();
+            }
+        }
+    }
+
     public void setSide() {
         sysex();
     }
@@ -147,22 +236,94 @@ public class LaunchpadPro implements GridDevice {
 
     private void note(int channel, int noteNumber, int velocity) {
 
-        try {
-            ShortMessage message = new ShortMessage();
-            message.setMessage(ShortMessage.NOTE_ON, channel, noteNumber, velocity);
-            receiver.send(message, -1);
+        output.note(channel, noteNumber, velocity, -1);
 
-        } catch (InvalidMidiDataException e) {
-            System.err.println(e);
+    }
+
+    private void cc(int channel, int ccNumber, int value) {
+
+        output.cc(channel, ccNumber, value, -1);
+
+    }
+
+    private int ledValue(GridColor color) {
+        if (color instanceof AnimatedColor) {
+            AnimatedColor animatedColor = (AnimatedColor) color;
+            return animatedColor.getColor().getIndex()
+                    + (animatedColor.getMode().ordinal() + 1) * ANIMATION_BASE
+                    + animatedColor.getAlternate().getIndex() * ALTERNATE_BASE;
         }
+        return color.getIndex();
+    }
 
+    private void padLed(int note, int value) {
+        if (value >= ANIMATION_BASE) {
+            animatedLed(true, note, value);
+        } else if (sysexEnabled && frameDepth > 0) {
+            frameLed(note, value);
+        } else {
+            note(CHANNEL, note, value);
+        }
     }
 
-    private void cc(int channel, int ccNumber, int value) {
+    private void buttonLed(int cc, int value) {
+        if (value >= ANIMATION_BASE) {
+            animatedLed(false, cc, value);
+        } else if (sysexEnabled && frameDepth > 0) {
+            frameLed(cc, value);
+        } else {
+            cc(CHANNEL, cc, value);
+        }
+    }
+
+    // flashing alternates between the color on the normal channel and the one on the flash channel;
+    // pulsing just needs the color on the pulse channel. these are sent right away, even in a frame,
+    // so the leds already collected in the frame go first to keep the order they were set in.
+    private void animatedLed(boolean pad, int led, int value) {
+        sendFrame();
+        int color = value % ANIMATION_BASE;
+        int mode = (value / ANIMATION_BASE) % (ALTERNATE_BASE / ANIMATION_BASE) - 1;
+        int alternate = value / ALTERNATE_BASE;
+        if (mode == AnimatedColor.Mode.FLASH.ordinal()) {
+            if (pad) {
+                note(CHANNEL, led, alternate);
+                note(FLASH_CHANNEL, led, color);
+            } else {
+                cc(CHANNEL, led, alternate);
+                cc(FLASH_CHANNEL, led, color);
+            }
+        } else {
+            if (pad) {
+                note(PULSE_CHANNEL, led, color);
+            } else {
+                cc(PULSE_CHANNEL, led, color);
+            }
+        }
+    }
+
+    // the sysex led numbers are the same as the pads' notes and the buttons' ccs
+    private void frameLed(int led, int color) {
+        if (frameLedCount == SYSEX_MAX_LEDS) {
+            sendFrame();
+        }
+        frameLeds[frameLedCount * 2] = (byte) led;
+        frameLeds[frameLedCount * 2 + 1] = (byte) color;
+        frameLedCount++;
+    }
+
+    private void sendFrame() {
+
+        if (frameLedCount == 0) return;
+
+        byte[] data = new byte[SYSEX_SET_LEDS.length + frameLedCount * 2 + 1];
+        System.arraycopy(SYSEX_SET_LEDS, 0, data, 0, SYSEX_SET_LEDS.length);
+        System.arraycopy(frameLeds, 0, data, SYSEX_SET_LEDS.length, frameLedCount * 2);
+        data[data.length - 1] = SYSEX_END;
+        frameLedCount = 0;
 
         try {
-            ShortMessage message = new ShortMessage();
-            message.setMessage(ShortMessage.CONTROL_CHANGE, channel, ccNumber, value);
+            SysexMessage message = new SysexMessage();
+            message.setMessage(data, data.length);
             receiver.send(message, -1);
 
         } catch (InvalidMidiDataException e) {
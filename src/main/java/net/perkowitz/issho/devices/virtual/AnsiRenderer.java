@@ -0,0 +1,149 @@
+package net.perkowitz.issho.devices.virtual;
+
+import lombok.Getter;
+import net.perkowitz.issho.devices.GridButton;
+import net.perkowitz.issho.devices.GridColor;
+import net.perkowitz.issho.devices.GridFrame;
+import net.perkowitz.issho.devices.GridPad;
+import net.perkowitz.issho.devices.launchpadpro.Color;
+
+import java.io.PrintStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Draws a VirtualGridDevice on an ANSI terminal from its own thread, at most framesPerSecond times a second
+ * and only when something has changed. Each pad or button is a block in the nearest 256-color terminal color
+ * (by Launchpad Pro color family); the top and bottom rows are the buttons, with the side buttons on either end.
+ */
+public class AnsiRenderer implements Runnable {
+
+    public static final int DEFAULT_FRAMES_PER_SECOND = 10;
+
+    private static final String ESC = "\u001b[";
+    private static final String HOME = ESC + "H";
+    private static final String CLEAR = ESC + "2J";
+    private static final String RESET = ESC + "0m";
+    private static final String BLANK = "  ";
+
+    private static final int ANSI_OFF = 236;
+    private static final int ANSI_OTHER = 201;
+    private static final int[] ansiColors = new int[128];
+    static {
+        for (int index = 0; index < ansiColors.length; index++) {
+            ansiColors[index] = ANSI_OTHER;
+        }
+        ansiColors[0] = ANSI_OFF;
+        setFamily(Color.grays, 250);
+        setFamily(Color.reds, 196);
+        setFamily(Color.oranges, 208);
+        setFamily(Color.yellows, 226);
+        setFamily(Color.greens, 46);
+        setFamily(Color.blues, 33);
+    }
+
+    private final VirtualGridDevice device;
+    private final PrintStream out;
+    private final long frameNanos;
+    private final StringBuilder builder = new StringBuilder();
+    private Thread thread = null;
+    private volatile boolean running = false;
+    private long renderedChangeCount = -1;
+
+    @Getter private volatile long frameCount = 0;
+
+
+    public AnsiRenderer(VirtualGridDevice device, PrintStream out, int framesPerSecond) {
+        this.device = device;
+        this.out = out;
+        this.frameNanos = 1000000000L / Math.max(1, framesPerSecond);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        out.print(CLEAR);
+        thread = new Thread(this, "hachi-ansi");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread = null;
+        }
+    }
+
+    /**
+     * draw the device if it has changed since the last render
+     *
+     * @return true if it was drawn
+     */
+    public boolean render() {
+        long changeCount = device.getChangeCount();
+        if (changeCount == renderedChangeCount) return false;
+        renderedChangeCount = changeCount;
+
+        builder.setLength(0);
+        builder.append(HOME);
+        buttonRow(GridButton.Side.Top);
+        for (int y = 0; y < GridFrame.GRID_SIZE; y++) {
+            cell(device.get(GridButton.at(GridButton.Side.Left, y)));
+            for (int x = 0; x < GridFrame.GRID_SIZE; x++) {
+                cell(device.get(GridPad.at(x, y)));
+            }
+            cell(device.get(GridButton.at(GridButton.Side.Right, y)));
+            builder.append(RESET).append('\n');
+        }
+        buttonRow(GridButton.Side.Bottom);
+        out.print(builder);
+        out.flush();
+        frameCount++;
+        return true;
+    }
+
+
+    /***** Runnable implementation ****************************************/
+
+    public void run() {
+        long nextFrame = System.nanoTime();
+        while (running) {
+            try {
+                render();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            nextFrame += frameNanos;
+            long now = System.nanoTime();
+            if (nextFrame - now < 0) {
+                nextFrame = now + frameNanos;
+            }
+            LockSupport.parkNanos(nextFrame - now);
+        }
+    }
+
+
+    /***** private implementation ****************************************/
+
+    private void buttonRow(GridButton.Side side) {
+        builder.append(RESET).append(BLANK);
+        for (int index = 0; index < GridFrame.GRID_SIZE; index++) {
+            cell(device.get(GridButton.at(side, index)));
+        }
+        builder.append(RESET).append(BLANK).append('\n');
+    }
+
+    private void cell(GridColor color) {
+        int index = (color == null) ? 0 : color.getIndex();
+        int ansi = (index >= 0 && index < ansiColors.length) ? ansiColors[index] : ANSI_OTHER;
+        builder.append(ESC).append("48;5;").append(ansi).append('m').append(BLANK);
+    }
+
+    private static void setFamily(int[] indices, int ansi) {
+        for (int index : indices) {
+            ansiColors[index] = ansi;
+        }
+    }
+
+}
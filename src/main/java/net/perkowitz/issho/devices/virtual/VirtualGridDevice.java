@@ -0,0 +1,311 @@
+package net.perkowitz.issho.devices.virtual;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import lombok.Getter;
+import lombok.Setter;
+import net.perkowitz.issho.devices.*;
+import net.perkowitz.issho.devices.launchpadpro.Color;
+
+import javax.sound.midi.MidiMessage;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A GridDevice with no hardware behind it. It keeps the LED state in memory (cells as in GridFrame),
+ * counts what was sent to it, and can play a script of pad and button presses into its listener,
+ * so Hachi can run without a controller for soak tests and display benchmarks.
+ *
+ * Script lines:
+ *   press pad x y [velocity]       release pad x y         tap pad x y [velocity]
+ *   press button Side index        release button Side index    tap button Side index
+ *   wait millis
+ * Blank lines and lines starting with # are skipped.
+ */
+public class VirtualGridDevice implements GridDevice {
+
+    private static final int DEFAULT_VELOCITY = 127;
+
+    private final AtomicReferenceArray<GridColor> cells = new AtomicReferenceArray<GridColor>(GridFrame.CELL_COUNT);
+    private final AtomicIntegerArray knobs = new AtomicIntegerArray(GridKnob.Side.values().length * GridFrame.GRID_SIZE);
+    @Getter @Setter private GridListener listener;
+
+    private final AtomicLong ledCount = new AtomicLong();
+    private final AtomicLong frameCount = new AtomicLong();
+    private final AtomicLong initializeCount = new AtomicLong();
+    private final AtomicLong pressCount = new AtomicLong();
+    private final AtomicLong changeCount = new AtomicLong();
+
+    @Getter @Setter private List<String> script = null;
+    @Getter @Setter private int scriptRepeat = 1;
+    private Thread scriptThread = null;
+
+
+    /***** LED state ****************************************/
+
+    public GridColor get(int cell) {
+        return cells.get(cell);
+    }
+
+    public GridColor get(GridPad pad) {
+        int cell = GridFrame.cell(pad);
+        return cell >= 0 ? cells.get(cell) : null;
+    }
+
+    public GridColor get(GridButton button) {
+        int cell = GridFrame.cell(button);
+        return cell >= 0 ? cells.get(cell) : null;
+    }
+
+    public int getKnob(GridKnob knob) {
+        int index = knobIndex(knob);
+        return index >= 0 ? knobs.get(index) : 0;
+    }
+
+    public long getLedCount() {
+        return ledCount.get();
+    }
+
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    public long getInitializeCount() {
+        return initializeCount.get();
+    }
+
+    public long getPressCount() {
+        return pressCount.get();
+    }
+
+    /**
+     * @return a number that goes up whenever an LED changes, e.g. to tell if there's anything new to render
+     */
+    public long getChangeCount() {
+        return changeCount.get();
+    }
+
+    public void resetStats() {
+        ledCount.set(0);
+        frameCount.set(0);
+        initializeCount.set(0);
+        pressCount.set(0);
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        map.put("leds", getLedCount());
+        map.put("frames", getFrameCount());
+        map.put("initializes", getInitializeCount());
+        map.put("presses", getPressCount());
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("VirtualGridDevice: leds=%d frames=%d initializes=%d presses=%d",
+                getLedCount(), getFrameCount(), getInitializeCount(), getPressCount());
+    }
+
+
+    /***** scripted input ****************************************/
+
+    public void pressPad(GridPad pad, int velocity) {
+        pressCount.incrementAndGet();
+        if (listener != null) {
+            listener.onPadPressed(pad, velocity);
+        }
+    }
+
+    public void releasePad(GridPad pad) {
+        if (listener != null) {
+            listener.onPadReleased(pad);
+        }
+    }
+
+    public void pressButton(GridButton button, int velocity) {
+        pressCount.incrementAndGet();
+        if (listener != null) {
+            listener.onButtonPressed(button, velocity);
+        }
+    }
+
+    public void releaseButton(GridButton button) {
+        if (listener != null) {
+            listener.onButtonReleased(button);
+        }
+    }
+
+    /**
+     * play a script into the listener from the calling thread
+     *
+     * @param lines
+     * @throws InterruptedException
+     */
+    public void play(List<String> lines) throws InterruptedException {
+        for (String line : lines) {
+            playLine(line.trim());
+        }
+    }
+
+    /**
+     * play the device's script scriptRepeat times (0 for forever) on a separate thread
+     */
+    public synchronized void startScript() {
+        if (script == null || scriptThread != null) return;
+        final List<String> lines = Lists.newArrayList(script);
+        scriptThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int count = 0; scriptRepeat <= 0 || count < scriptRepeat; count++) {
+                        play(lines);
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "hachi-virtual-script");
+        scriptThread.setDaemon(true);
+        scriptThread.start();
+    }
+
+    public synchronized void stopScript() {
+        if (scriptThread != null) {
+            scriptThread.interrupt();
+            scriptThread = null;
+        }
+    }
+
+
+    /***** GridDevice implementation ****************************************/
+
+    public void initialize() {
+        for (int cell = 0; cell < GridFrame.CELL_COUNT; cell++) {
+            set(cell, Color.OFF);
+        }
+        initializeCount.incrementAndGet();
+    }
+
+    public void initialize(boolean pads, Set<GridButton.Side> buttonSides) {
+        if (pads) {
+            for (int cell = 0; cell < GridFrame.PAD_COUNT; cell++) {
+                set(cell, Color.OFF);
+            }
+        }
+        if (buttonSides != null) {
+            for (GridButton.Side side : buttonSides) {
+                for (int index = 0; index < GridFrame.GRID_SIZE; index++) {
+                    set(GridFrame.cell(GridButton.at(side, index)), Color.OFF);
+                }
+            }
+        }
+        initializeCount.incrementAndGet();
+    }
+
+    public void setPad(GridPad pad, GridColor color) {
+        set(GridFrame.cell(pad), color);
+    }
+
+    public void setButton(GridButton button, GridColor color) {
+        set(GridFrame.cell(button), color);
+    }
+
+    public void setKnob(GridKnob knob, int value) {
+        int index = knobIndex(knob);
+        if (index >= 0) {
+            knobs.set(index, value);
+        }
+    }
+
+    public void setFrame(GridColor[] frame) {
+        int count = Math.min(frame.length, GridFrame.CELL_COUNT);
+        for (int cell = 0; cell < count; cell++) {
+            if (frame[cell] != null) {
+                set(cell, frame[cell]);
+            }
+        }
+        frameCount.incrementAndGet();
+    }
+
+    public void setControls(GridControl[] controls, GridColor[] colors, int count) {
+        GridControl.draw(this, controls, colors, count);
+    }
+
+    public void setControls(GridControl[] controls, GridColor color) {
+        GridControl.draw(this, controls, color);
+    }
+
+    public void refresh() {}
+
+    public void send(MidiMessage message, long timeStamp) {}
+
+    public void close() {
+        stopScript();
+    }
+
+
+    /***** private implementation ****************************************/
+
+    private void set(int cell, GridColor color) {
+        if (cell < 0 || cell >= GridFrame.CELL_COUNT) return;
+        ledCount.incrementAndGet();
+        GridColor previous = cells.getAndSet(cell, color);
+        if (previous == null || previous.getIndex() != color.getIndex()) {
+            changeCount.incrementAndGet();
+        }
+    }
+
+    private int knobIndex(GridKnob knob) {
+        int index = knob.getIndex();
+        if (index < 0 || index >= GridFrame.GRID_SIZE) {
+            return -1;
+        }
+        return knob.getSide().ordinal() * GridFrame.GRID_SIZE + index;
+    }
+
+    private void playLine(String line) throws InterruptedException {
+        if (line.isEmpty() || line.startsWith("#")) return;
+
+        String[] words = line.split("\\s+");
+        String action = words[0].toLowerCase();
+        try {
+            if (action.equals("wait")) {
+                Thread.sleep(Long.parseLong(words[1]));
+                return;
+            }
+
+            String target = words[1].toLowerCase();
+            if (target.equals("pad")) {
+                GridPad pad = GridPad.at(Integer.parseInt(words[2]), Integer.parseInt(words[3]));
+                int velocity = words.length > 4 ? Integer.parseInt(words[4]) : DEFAULT_VELOCITY;
+                if (action.equals("press") || action.equals("tap")) {
+                    pressPad(pad, velocity);
+                }
+                if (action.equals("release") || action.equals("tap")) {
+                    releasePad(pad);
+                }
+            } else if (target.equals("button")) {
+                GridButton button = GridButton.at(GridButton.Side.valueOf(words[2]), Integer.parseInt(words[3]));
+                int velocity = words.length > 4 ? Integer.parseInt(words[4]) : DEFAULT_VELOCITY;
+                if (action.equals("press") || action.equals("tap")) {
+                    pressButton(button, velocity);
+                }
+                if (action.equals("release") || action.equals("tap")) {
+                    releaseButton(button);
+                }
+            } else {
+                System.err.printf("Unknown script line: %s\n", line);
+            }
+        } catch (RuntimeException e) {
+            // e.g. a missing or malformed number
+            System.err.printf("Bad script line: %s (%s)\n", line, e);
+        }
+    }
+
+}
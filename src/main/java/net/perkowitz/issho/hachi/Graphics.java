@@ -10,64 +10,64 @@ import net.perkowitz.issho.devices.GridPad;
 public class Graphics {
 
     public static GridPad[] hachi = new GridPad[] {
-            new GridPad(3, 0),
-            new GridPad(4, 0),
-            new GridPad(3, 2),
-            new GridPad(4, 2),
-            new GridPad(3, 3),
-            new GridPad(4, 3),
-            new GridPad(3, 4),
-            new GridPad(4, 4),
-            new GridPad(3, 6),
-            new GridPad(4, 6),
-            new GridPad(3, 7),
-            new GridPad(4, 7),
+            GridPad.at(3, 0),
+            GridPad.at(4, 0),
+            GridPad.at(3, 2),
+            GridPad.at(4, 2),
+            GridPad.at(3, 3),
+            GridPad.at(4, 3),
+            GridPad.at(3, 4),
+            GridPad.at(4, 4),
+            GridPad.at(3, 6),
+            GridPad.at(4, 6),
+            GridPad.at(3, 7),
+            GridPad.at(4, 7),
     };
 
     public static GridPad[] issho = new GridPad[] {
-            new GridPad(3, 1),
-            new GridPad(4, 1),
-            new GridPad(5, 1),
-            new GridPad(2, 3),
-            new GridPad(3, 3),
-            new GridPad(4, 3),
-            new GridPad(3, 5),
-            new GridPad(4, 5),
-            new GridPad(5, 5),
-            new GridPad(2, 7),
-            new GridPad(3, 7),
-            new GridPad(4, 7)
+            GridPad.at(3, 1),
+            GridPad.at(4, 1),
+            GridPad.at(5, 1),
+            GridPad.at(2, 3),
+            GridPad.at(3, 3),
+            GridPad.at(4, 3),
+            GridPad.at(3, 5),
+            GridPad.at(4, 5),
+            GridPad.at(5, 5),
+            GridPad.at(2, 7),
+            GridPad.at(3, 7),
+            GridPad.at(4, 7)
         };
 
 
     public static GridPad[] nora1 = new GridPad[] {
-            new GridPad(3, 0),
-            new GridPad(4, 0),
-            new GridPad(3, 1),
-            new GridPad(3, 3),
-            new GridPad(4, 3),
-            new GridPad(3, 4),
-            new GridPad(4, 4),
-            new GridPad(4, 6),
-            new GridPad(3, 7),
-            new GridPad(4, 7),
+            GridPad.at(3, 0),
+            GridPad.at(4, 0),
+            GridPad.at(3, 1),
+            GridPad.at(3, 3),
+            GridPad.at(4, 3),
+            GridPad.at(3, 4),
+            GridPad.at(4, 4),
+            GridPad.at(4, 6),
+            GridPad.at(3, 7),
+            GridPad.at(4, 7),
     };
 
     public static GridPad[] nora2 = new GridPad[] {
-            new GridPad(3, 1),
-            new GridPad(4, 1),
-            new GridPad(6, 1),
-            new GridPad(6, 2),
-            new GridPad(7, 1),
-            new GridPad(3, 3),
-            new GridPad(4, 3),
-            new GridPad(3, 5),
-            new GridPad(4, 5),
-            new GridPad(3, 6),
-            new GridPad(4, 6),
-            new GridPad(0, 6),
-            new GridPad(1, 6),
-            new GridPad(1, 5),
+            GridPad.at(3, 1),
+            GridPad.at(4, 1),
+            GridPad.at(6, 1),
+            GridPad.at(6, 2),
+            GridPad.at(7, 1),
+            GridPad.at(3, 3),
+            GridPad.at(4, 3),
+            GridPad.at(3, 5),
+            GridPad.at(4, 5),
+            GridPad.at(3, 6),
+            GridPad.at(4, 6),
+            GridPad.at(0, 6),
+            GridPad.at(1, 6),
+            GridPad.at(1, 5),
     };
 
     public static GridPad[][] sprites = new GridPad[][] { hachi, issho, nora1, nora2 };
@@ -1,10 +1,16 @@
 package net.perkowitz.issho.hachi;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import net.perkowitz.issho.devices.GridDevice;
+import net.perkowitz.issho.devices.QueuedGridDevice;
 import net.perkowitz.issho.devices.Keyboard;
+import net.perkowitz.issho.devices.RenderLoop;
 import net.perkowitz.issho.devices.launchpad.Launchpad;
 import net.perkowitz.issho.devices.launchpadpro.*;
+import net.perkowitz.issho.devices.virtual.AnsiRenderer;
+import net.perkowitz.issho.devices.virtual.VirtualGridDevice;
+import net.perkowitz.issho.hachi.clock.MidiClockOutput;
 import net.perkowitz.issho.hachi.modules.*;
 import net.perkowitz.issho.hachi.modules.beatbox.BeatModule;
 import net.perkowitz.issho.hachi.modules.beatbox.BeatUtil;
@@ -20,6 +26,11 @@ import net.perkowitz.issho.hachi.modules.rhythm.RhythmController;
 import net.perkowitz.issho.hachi.modules.rhythm.RhythmDisplay;
 import net.perkowitz.issho.hachi.modules.shihai.ShihaiModule;
 import net.perkowitz.issho.hachi.modules.step.StepModule;
+import net.perkowitz.issho.midi.MidiInputDispatcher;
+import net.perkowitz.issho.midi.MidiOutputMerger;
+import net.perkowitz.issho.midi.MidiRepeatFilter;
+import net.perkowitz.issho.midi.MidiScheduler;
+import net.perkowitz.issho.midi.NoteTracker;
 import net.perkowitz.issho.util.MidiUtil;
 import net.perkowitz.issho.util.SettingsUtil;
 
@@ -27,8 +38,11 @@ import javax.sound.midi.MidiDevice;
 import javax.sound.midi.Receiver;
 import javax.sound.midi.Transmitter;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -42,6 +56,8 @@ public class Hachi {
     private static String CONTROLLER_NAME_PROPERTY = "controller.name";
     private static String CONTROLLER_TYPE_PROPERTY = "controller.type";
     private static String MIDI_NAME_PROPERTY = "midi.name";
+    private static int DEFAULT_LOOKAHEAD_MILLIS = 5;
+    private static int DEFAULT_RENDER_FPS = RenderLoop.DEFAULT_FRAMES_PER_SECOND;
 
     private static Properties properties;
     private static Map settings;
@@ -53,8 +69,16 @@ public class Hachi {
 
     private static MidiDevice midiInput;
     private static MidiDevice midiOutput;
-    private static Transmitter midiTransmitter;
+    private static MidiInputDispatcher midiInputDispatcher;
+    private static SequencerLoop sequencerLoop = new SequencerLoop();
     private static Receiver midiReceiver;
+    private static int lookaheadMillis = DEFAULT_LOOKAHEAD_MILLIS;
+    private static List<Integer> ledBudgets = Lists.newArrayList();
+    private static List<VirtualGridDevice> virtualGridDevices = Lists.newArrayList();
+    private static List<MidiScheduler> midiSchedulers = Lists.newArrayList();
+    private static List<MidiOutputMerger> outputMergers = Lists.newArrayList();
+    private static List<MidiRepeatFilter> repeatFilters = Lists.newArrayList();
+    private static Map<String, Receiver> outputPorts = Maps.newLinkedHashMap();
 
     private static MidiDevice knobInput;
     private static MidiDevice knobOutput;
@@ -117,23 +141,53 @@ public class Hachi {
         }
 
         // create the HachiController
-        controller = new HachiController(modules, gridDevicesArray);
+        Integer renderFps = (Integer)settings.get("renderFps");
+        if (renderFps == null) {
+            renderFps = DEFAULT_RENDER_FPS;
+        }
+        controller = new HachiController(modules, gridDevicesArray, renderFps, sequencerLoop);
         Boolean midiContinueAsStart = (Boolean)settings.get("midiContinueAsStart");
         if (midiContinueAsStart != null) {
             controller.setMidiContinueAsStart(midiContinueAsStart);
         }
+        controller.setLookaheadNanos(lookaheadMillis * 1000000L);
+        for (MidiOutputMerger outputMerger : outputMergers) {
+            controller.addOutputMerger(outputMerger);
+        }
+        for (MidiRepeatFilter repeatFilter : repeatFilters) {
+            controller.addRepeatFilter(repeatFilter);
+        }
+        for (Receiver outputPort : outputPorts.values()) {
+            controller.addNoteTracker(NoteTracker.forPort(outputPort));
+        }
+        for (int i = 0; i < ledBudgets.size(); i++) {
+            controller.setLedBudget(i, ledBudgets.get(i));
+        }
+        MidiClockOutput midiClockOutput = createMidiClockOutput();
+        if (midiClockOutput != null) {
+            controller.setMidiClockOutput(midiClockOutput);
+        }
+        for (MidiScheduler midiScheduler : midiSchedulers) {
+            controller.addMidiScheduler(midiScheduler);
+        }
+        String midiClockSync = (String)settings.get("midiClockSync");
+        if (midiClockSync != null && midiClockSync.equalsIgnoreCase("pll")) {
+            controller.setMidiClockPllEnabled(true);
+        }
 
         // if specified, create a knobby device and make the value control settings
         Knobby knobby = createKnobby();
 
-        // make the HachiController receive external midi
-        midiInput.getTransmitter().setReceiver(controller);
+        // make the HachiController receive external clock and transport
+        midiInputDispatcher.addListener("controller", controller.getSequencerLoop().receiver(controller),
+                MidiInputDispatcher.ALL_CHANNELS, MidiInputDispatcher.SYSTEM | MidiInputDispatcher.REALTIME);
+        controller.addInputDispatcher(midiInputDispatcher);
 
         if (deviceConfigs != null) {
             if (deviceConfigs.get("keyboard") != null) {
                 List<String> names = (List<String>)((Map<Object,Object>)deviceConfigs.get("keyboard")).get("names");
                 System.out.printf("Looking for keyboard: %s...\n", names);
-                keyboard = Keyboard.fromMidiDevice(names, controller.getChordReceiver());
+                keyboard = Keyboard.fromMidiDevice(names, controller.getSequencerLoop().receiver(controller.getChordReceiver()));
 
                 Integer holdClearControllerNumber = (Integer)((Map<Object,Object>)deviceConfigs.get("keyboard")).get("holdClearControllerNumber");
                 if (holdClearControllerNumber != null) {
@@ -150,10 +204,19 @@ public class Hachi {
         System.out.printf("Running controller...\n");
         controller.run();
 
-        // if we want to be able to send commands to Hachi from command line someday
-//        System.out.printf("Starting up command processor...\n");
-//        Thread t = new Thread(new CommandLine(controller));
-//        t.start();
+        // virtual controllers can play a script of presses once everything is running
+        for (VirtualGridDevice virtualGridDevice : virtualGridDevices) {
+            virtualGridDevice.startScript();
+        }
+
+        // send commands to Hachi from the command line (e.g. "stats")
+        Boolean commandLine = (Boolean)settings.get("commandLine");
+        if (commandLine != null && commandLine) {
+            System.out.printf("Starting up command processor...\n");
+            Thread t = new Thread(new CommandLine(controller));
+            t.setDaemon(true);
+            t.start();
+        }
 
         System.out.printf("Awaiting...\n");
         stop.await();
@@ -165,7 +228,7 @@ public class Hachi {
 
         RhythmController rhythmController = new LppRhythmController();
         RhythmDisplay rhythmDisplay = new LppRhythmDisplay(launchpadPro, palette);
-        RhythmModule rhythm = new RhythmModule(rhythmController, rhythmDisplay, midiTransmitter, midiReceiver, filePrefix);
+        RhythmModule rhythm = new RhythmModule(rhythmController, rhythmDisplay, moduleInput(filePrefix), midiReceiver, filePrefix);
 
         return rhythm;
     }
@@ -181,8 +244,13 @@ public class Hachi {
             Map<Object, Object> config = (Map<Object,Object>)controllerConfig;
             List<String> names = (List<String>)config.get("names");
             String type = (String)config.get("type");
-            MidiDevice input = MidiUtil.findMidiDevice(names.toArray(new String[0]), false, true);
-            MidiDevice output = MidiUtil.findMidiDevice(names.toArray(new String[0]), true, false);
+            if (type != null && type.equals("virtual")) {
+                gridDevices.add(createVirtualGridDevice(config));
+                ledBudgets.add(0);
+                continue;
+            }
+            MidiDevice input = MidiUtil.findMidiDevice(config, false, true);
+            MidiDevice output = MidiUtil.findMidiDevice(config, true, false);
             if (input == null || output == null) {
                 System.err.printf("Unable to find controller device matching name: %s\n", names);
             } else {
@@ -191,16 +259,37 @@ public class Hachi {
                     output.open();
 
                     GridDevice gridDevice = null;
-                    if (type == null) {
-                        gridDevice = new LaunchpadPro(output.getReceiver(), null);
-                    } else if (type.equals("launchpad")) {
-                        gridDevice = new Launchpad(output.getReceiver(), null);
+                    if (type != null && type.equals("launchpad")) {
+                        Launchpad launchpad = new Launchpad(output.getReceiver(), null);
+                        Boolean doubleBuffered = (Boolean)config.get("doubleBuffered");
+                        if (doubleBuffered != null) {
+                            launchpad.setDoubleBuffered(doubleBuffered);
+                        }
+                        gridDevice = launchpad;
                     } else {
-                        gridDevice = new LaunchpadPro(output.getReceiver(), null);
+                        LaunchpadPro launchpadPro = new LaunchpadPro(output.getReceiver(), null);
+                        Boolean sysex = (Boolean)config.get("sysex");
+                        if (sysex != null) {
+                            launchpadPro.setSysexEnabled(sysex);
+                        }
+                        gridDevice = launchpadPro;
                     }
                     input.getTransmitter().setReceiver(gridDevice);
 
+                    // give each controller its own output thread so a slow one doesn't hold up the others
+                    Integer deviceQueueSize = (Integer)settings.get("deviceQueueSize");
+                    if (deviceQueueSize == null) {
+                        deviceQueueSize = QueuedGridDevice.DEFAULT_CAPACITY;
+                    }
+                    if (deviceQueueSize > 0) {
+                        QueuedGridDevice queuedGridDevice = new QueuedGridDevice(gridDevice, names.get(0), deviceQueueSize);
+                        queuedGridDevice.start();
+                        gridDevice = queuedGridDevice;
+                    }
+
                     gridDevices.add(gridDevice);
+                    Integer ledBudget = (Integer)config.get("ledBudget");
+                    ledBudgets.add(ledBudget != null ? ledBudget : 0);
 
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -212,6 +301,58 @@ public class Hachi {
         return gridDevices;
     }
 
+    private static VirtualGridDevice createVirtualGridDevice(Map<Object, Object> config) {
+
+        VirtualGridDevice virtualGridDevice = new VirtualGridDevice();
+
+        String script = (String)config.get("script");
+        if (script != null) {
+            try {
+                virtualGridDevice.setScript(Files.readAllLines(new File(script).toPath(), Charset.defaultCharset()));
+            } catch (IOException e) {
+                System.err.printf("Unable to read script %s: %s\n", script, e);
+            }
+            Integer scriptRepeat = (Integer)config.get("scriptRepeat");
+            if (scriptRepeat != null) {
+                virtualGridDevice.setScriptRepeat(scriptRepeat);
+            }
+        }
+
+        Integer ansiFps = (Integer)config.get("ansiFps");
+        if (ansiFps != null && ansiFps > 0) {
+            new AnsiRenderer(virtualGridDevice, System.out, ansiFps).start();
+        }
+
+        virtualGridDevices.add(virtualGridDevice);
+        return virtualGridDevice;
+    }
+
+    /**
+     * unless turned off in the settings, put a MidiOutputMerger in front of an output port, so that
+     * everything sent to it goes out in priority order from its own thread, and a MidiRepeatFilter in
+     * front of that to drop controller values the port has just sent
+     */
+    private static Receiver outputPort(Receiver receiver, String name) {
+        Boolean outputMerger = (Boolean)settings.get("outputMerger");
+        if (outputMerger == null || outputMerger) {
+            MidiOutputMerger merger = new MidiOutputMerger(receiver, name);
+            merger.start();
+            outputMergers.add(merger);
+            receiver = merger;
+        }
+
+        Integer repeatWindowMillis = (Integer)settings.get("repeatWindowMillis");
+        if (repeatWindowMillis == null) {
+            repeatWindowMillis = (int) MidiRepeatFilter.DEFAULT_WINDOW_MILLIS;
+        }
+        if (repeatWindowMillis > 0) {
+            MidiRepeatFilter repeatFilter = new MidiRepeatFilter(receiver, name, repeatWindowMillis);
+            repeatFilters.add(repeatFilter);
+            receiver = repeatFilter;
+        }
+        return receiver;
+    }
+
     private static void getMidiDevice() {
 
         // get the device configs from the settings
@@ -222,8 +363,8 @@ public class Hachi {
         Map<Object,Object> midiConfig = (Map<Object,Object>)deviceConfigs.get("midi");
         if (midiConfig != null) {
             names = (List<String>)midiConfig.get("names");
-            midiInput = MidiUtil.findMidiDevice(names.toArray(new String[0]), false, true);
-            midiOutput = MidiUtil.findMidiDevice(names.toArray(new String[0]), true, false);
+            midiInput = MidiUtil.findMidiDevice(midiConfig, false, true);
+            midiOutput = MidiUtil.findMidiDevice(midiConfig, true, false);
         }
         if (midiInput == null || midiOutput == null) {
             System.err.printf("Unable to find midi device matching name: %s\n", names);
@@ -233,15 +374,135 @@ public class Hachi {
         try {
             midiInput.open();
             midiOutput.open();
-            midiTransmitter = midiInput.getTransmitter();
+            // subscribe once, and fan the input out to the controller and the modules
+            midiInputDispatcher = new MidiInputDispatcher("midi");
+            midiInput.getTransmitter().setReceiver(midiInputDispatcher);
 //            midiReceiver = new LoggingMidiReceiver(midiOutput.getReceiver(), Lists.<LoggingMidiReceiver.LogType>newArrayList(LoggingMidiReceiver.LogType.CC));
-            midiReceiver = midiOutput.getReceiver();
+            // schedule midi output ahead of the clock so notes go out exactly on the grid
+            Integer lookahead = (Integer)settings.get("lookaheadMillis");
+            if (lookahead != null) {
+                lookaheadMillis = lookahead;
+            }
+            midiReceiver = scheduled(outputPort(midiOutput.getReceiver(), "midi"));
+            outputPorts.put("midi", midiReceiver);
 
         } catch (Exception e) {
             e.printStackTrace();
             System.exit(1);
         }
 
+        getOutputPorts();
+    }
+
+    /**
+     * "outputs" names more midi output ports, so modules (and BeatModule tracks) can be spread across several
+     * interfaces, each with its own writer thread. a port that can't be found is left out, and anything
+     * assigned to it goes to the main midi output instead.
+     */
+    private static void getOutputPorts() {
+
+        Map<Object,Object> deviceConfigs = (Map<Object,Object>)settings.get("devices");
+        Map<Object,Object> outputConfigs = (Map<Object,Object>)deviceConfigs.get("outputs");
+        if (outputConfigs == null) return;
+
+        for (Map.Entry<Object,Object> entry : outputConfigs.entrySet()) {
+            String name = (String)entry.getKey();
+            Map<Object,Object> config = (Map<Object,Object>)entry.getValue();
+            List<String> names = (List<String>)config.get("names");
+            System.out.printf("Looking for output %s: %s...\n", name, names);
+            MidiDevice output = MidiUtil.findMidiDevice(config, true, false);
+            if (output == null) {
+                System.err.printf("Unable to find output device matching name: %s\n", names);
+                continue;
+            }
+            try {
+                output.open();
+                outputPorts.put(name, scheduled(outputPort(output.getReceiver(), name)));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * the named output port, or the main midi output if name is null or not found
+     */
+    private static Receiver outputReceiver(String name) {
+        if (name == null) {
+            return midiReceiver;
+        }
+        Receiver receiver = outputPorts.get(name);
+        if (receiver == null) {
+            System.err.printf("No output named %s, using the midi output\n", name);
+            return midiReceiver;
+        }
+        return receiver;
+    }
+
+    /**
+     * a module's midi input: its own listener on the midi input, handled on the sequencer thread
+     * like everything else that changes the modules
+     */
+    private static Transmitter moduleInput(String name) {
+        return sequencerLoop.transmitter(midiInputDispatcher.transmitter(name));
+    }
+
+    /**
+     * put a MidiScheduler in front of an output port when running with a lookahead
+     */
+    private static Receiver scheduled(Receiver receiver) {
+        if (lookaheadMillis > 0) {
+            MidiScheduler midiScheduler = new MidiScheduler(receiver);
+            midiScheduler.start();
+            midiSchedulers.add(midiScheduler);
+            return midiScheduler;
+        }
+        return receiver;
+    }
+
+    /**
+     * "clockOutputs" lists the ports to send midi clock to; a port with no names uses the main midi output.
+     * each port may give a "latencyMillis" to send its clock that much early.
+     *
+     * @return a MidiClockOutput, or null if no clock outputs are configured
+     */
+    private static MidiClockOutput createMidiClockOutput() {
+
+        Map<Object,Object> deviceConfigs = (Map<Object,Object>)settings.get("devices");
+        List<Object> clockConfigs = (List<Object>)deviceConfigs.get("clockOutputs");
+        if (clockConfigs == null || clockConfigs.isEmpty()) {
+            return null;
+        }
+
+        MidiClockOutput midiClockOutput = new MidiClockOutput();
+        for (Object clockConfig : clockConfigs) {
+            Map<Object, Object> config = (Map<Object,Object>)clockConfig;
+            List<String> names = (List<String>)config.get("names");
+            Integer latencyMillis = (Integer)config.get("latencyMillis");
+            long latencyMicros = (latencyMillis == null) ? 0 : latencyMillis * 1000L;
+
+            Receiver receiver = null;
+            if (names == null && config.get("raw") == null && config.get("rawOutput") == null) {
+                receiver = midiReceiver;
+            } else {
+                System.out.printf("Looking for clock output: %s...\n", names);
+                MidiDevice output = MidiUtil.findMidiDevice(config, true, false);
+                if (output == null) {
+                    System.err.printf("Unable to find clock output device matching name: %s\n", names);
+                    continue;
+                }
+                try {
+                    output.open();
+                    receiver = scheduled(outputPort(output.getReceiver(), "clock" + midiClockOutput.getPortCount()));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    continue;
+                }
+            }
+            midiClockOutput.addPort(receiver, latencyMicros);
+        }
+
+        return midiClockOutput;
     }
 
     private static GridDevice getMirrorGridDevice() {
@@ -258,8 +519,8 @@ public class Hachi {
         Map<Object,Object> controllerConfig = (Map<Object,Object>)deviceConfigs.get("controllerMirror");
         if (controllerConfig != null) {
             names = (List<String>)controllerConfig.get("names");
-            controllerInput = MidiUtil.findMidiDevice(names.toArray(new String[0]), false, true);
-            controllerOutput = MidiUtil.findMidiDevice(names.toArray(new String[0]), true, false);
+            controllerInput = MidiUtil.findMidiDevice(controllerConfig, false, true);
+            controllerOutput = MidiUtil.findMidiDevice(controllerConfig, true, false);
         }
         if (controllerInput == null || controllerOutput == null) {
             System.err.printf("Unable to find controller device matching name: %s\n", names);
@@ -303,6 +564,9 @@ public class Hachi {
                 filePrefix = className.toLowerCase() + (moduleList.size() + 1);
             }
 
+            // the module's output port
+            Receiver outputReceiver = outputReceiver((String)moduleSettings.get("output"));
+
             // instantiate module
             Module module = null;
             if (className.equals("RhythmModule")) {
@@ -324,7 +588,7 @@ public class Hachi {
                 if (paletteName != null && paletteName.toUpperCase().equals("ORANGE")) {
                     palette = MonoUtil.PALETTE_ORANGE;
                 }
-                module = new MonoModule(midiTransmitter, midiReceiver, palette, filePrefix);
+                module = new MonoModule(moduleInput(filePrefix), outputReceiver, palette, filePrefix);
 
             } else if (className.equals("ParaModule")) {
                 Map<Integer, Color> palette = ParaUtil.PALETTE_YELLOW;
@@ -335,7 +599,7 @@ public class Hachi {
                 } else if (paletteName != null && paletteName.toUpperCase().equals("PINK")) {
                     palette = ParaUtil.PALETTE_PINK;
                 }
-                ParaModule paraModule = new ParaModule(midiTransmitter, midiReceiver, palette, filePrefix);
+                ParaModule paraModule = new ParaModule(moduleInput(filePrefix), outputReceiver, palette, filePrefix);
                 if (moduleSettings.get("monophonic") != null) {
                     Boolean monophonic = (Boolean)moduleSettings.get("monophonic");
                     if (monophonic != null) {
@@ -354,7 +618,7 @@ public class Hachi {
                 module = paraModule;
 
             } else if (className.equals("StepModule")) {
-                module = new StepModule(midiTransmitter, midiReceiver, filePrefix);
+                module = new StepModule(moduleInput(filePrefix), outputReceiver, filePrefix);
 
             } else if (className.equals("BeatModule")) {
                 Map<Integer, Color> palette = BeatUtil.PALETTE_PINK;
@@ -365,7 +629,7 @@ public class Hachi {
                 } else if (paletteName != null && paletteName.toUpperCase().equals("GREEN")) {
                     palette = BeatUtil.PALETTE_GREEN;
                 }
-                BeatModule beatModule = new BeatModule(midiTransmitter, midiReceiver, palette, filePrefix);
+                BeatModule beatModule = new BeatModule(moduleInput(filePrefix), outputReceiver, palette, filePrefix);
                 if (moduleSettings.get("midiNoteOffset") != null) {
                     Integer offset = (Integer)moduleSettings.get("midiNoteOffset");
                     if (offset != null) {
@@ -382,6 +646,15 @@ public class Hachi {
                     List<Integer> sessionPrograms= (List<Integer>)moduleSettings.get("sessionPrograms");
                     beatModule.setSessionPrograms(sessionPrograms);
                 }
+                if (moduleSettings.get("trackOutputs") != null) {
+                    for (Map<Object,Object> trackOutput : (List<Map<Object,Object>>)moduleSettings.get("trackOutputs")) {
+                        Receiver trackReceiver = outputReceiver((String)trackOutput.get("output"));
+                        Integer channel = (Integer)trackOutput.get("channel");
+                        for (Integer trackIndex : (List<Integer>)trackOutput.get("tracks")) {
+                            beatModule.setTrackOutput(trackIndex, trackReceiver, channel == null ? -1 : channel);
+                        }
+                    }
+                }
                 module = beatModule;
 
             } else if (className.equals("MinibeatModule")) {
@@ -389,7 +662,7 @@ public class Hachi {
                 if (paletteName != null && paletteName.toUpperCase().equals("BLUE")) {
                     palette = MinibeatUtil.PALETTE_BLUE;
                 }
-                MinibeatModule minibeatModule = new MinibeatModule(midiTransmitter, midiReceiver, palette, filePrefix);
+                MinibeatModule minibeatModule = new MinibeatModule(moduleInput(filePrefix), outputReceiver, palette, filePrefix);
                 if (moduleSettings.get("midiNoteOffset") != null) {
                     Integer offset = (Integer)moduleSettings.get("midiNoteOffset");
                     if (offset != null) {
@@ -399,7 +672,7 @@ public class Hachi {
                 module = minibeatModule;
 
             } else if (className.equals("ShihaiModule")) {
-                shihaiModule = new ShihaiModule(midiTransmitter, midiReceiver);
+                shihaiModule = new ShihaiModule(moduleInput(filePrefix), outputReceiver);
                 List<Integer> panicExclude = (List<Integer>)moduleSettings.get("panicExclude");
                 if (panicExclude != null) {
                     shihaiModule.setPanicExclude(panicExclude);
@@ -417,7 +690,7 @@ public class Hachi {
                 module = new PaletteModule(false);
 
             } else if (className.equals("MinibeatModule")) {
-                module = new ExampleModule(midiTransmitter, midiReceiver, filePrefix);
+                module = new ExampleModule(moduleInput(filePrefix), outputReceiver, filePrefix);
 
             }
 
@@ -431,6 +704,9 @@ public class Hachi {
         Module[] modules = moduleList.toArray(new Module[0]);
         if (shihaiModule != null) {
             shihaiModule.setModules(modules);
+            for (Receiver outputPort : outputPorts.values()) {
+                shihaiModule.addNoteTracker(NoteTracker.forPort(outputPort));
+            }
         }
 
         return modules;
@@ -444,8 +720,8 @@ public class Hachi {
 //        modules[2] = new ClockModule();
         modules[2] = new DrawingModule("drawing");
 //        modules[3] = rhythm(lpp, LppRhythmUtil.PALETTE_BLUE, "rhythm");
-        modules[3] = new MonoModule(midiTransmitter, midiReceiver, MonoUtil.PALETTE_FUCHSIA, "mono1");
-        modules[4] = new MonoModule(midiTransmitter, midiReceiver, MonoUtil.PALETTE_ORANGE, "mono2");
+        modules[3] = new MonoModule(moduleInput("mono1"), midiReceiver, MonoUtil.PALETTE_FUCHSIA, "mono1");
+        modules[4] = new MonoModule(moduleInput("mono2"), midiReceiver, MonoUtil.PALETTE_ORANGE, "mono2");
 //        modules[4] = new KeyboardModule(midiTransmitter, midiReceiver, 10, 36);
 
         return modules;
@@ -461,8 +737,8 @@ public class Hachi {
         Map<Object,Object> config = (Map<Object,Object>)deviceConfigs.get("knobby");
         if (config != null) {
             List<String> names = (List<String>)config.get("names");
-            knobInput = MidiUtil.findMidiDevice(names.toArray(new String[0]), false, true);
-            knobOutput = MidiUtil.findMidiDevice(names.toArray(new String[0]), true, false);
+            knobInput = MidiUtil.findMidiDevice(config, false, true);
+            knobOutput = MidiUtil.findMidiDevice(config, true, false);
             if (knobInput == null || knobOutput == null) {
                 System.out.printf("Unable to find knobby device matching name: %s\n", names);
                 return null;
@@ -471,7 +747,9 @@ public class Hachi {
             try {
                 knobInput.open();
                 knobOutput.open();
-                Knobby knobby = new Knobby(knobInput.getTransmitter(), midiReceiver);
+                Transmitter knobTransmitter = knobInput.getTransmitter();
+                Knobby knobby = new Knobby(knobTransmitter, midiReceiver);
+                knobTransmitter.setReceiver(controller.getSequencerLoop().receiver(knobby));
                 if (config.get("valueControlChannel") != null && config.get("valueControlController") != null) {
                     knobby.setValueControl((Integer)config.get("valueControlChannel"), (Integer)config.get("valueControlController"), controller);
                 }
@@ -500,9 +778,13 @@ public class Hachi {
             while (true) {
                 try {
                     input = br.readLine();
+                    if (input == null) {
+                        return;  // stdin closed, e.g. running in the background
+                    }
                     listener.processCommand(input);
                 } catch (IOException e) {
                     e.printStackTrace();
+                    return;
                 }
             }
         }
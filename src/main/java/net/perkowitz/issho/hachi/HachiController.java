@@ -4,15 +4,28 @@ import com.google.common.collect.Lists;
 import lombok.Getter;
 import lombok.Setter;
 import net.perkowitz.issho.devices.*;
+import net.perkowitz.issho.devices.virtual.VirtualGridDevice;
+import net.perkowitz.issho.hachi.clock.ClockEngine;
+import net.perkowitz.issho.hachi.clock.ClockListener;
+import net.perkowitz.issho.hachi.clock.ClockStats;
+import net.perkowitz.issho.hachi.clock.MidiClockOutput;
+import net.perkowitz.issho.hachi.clock.MidiClockPll;
 import net.perkowitz.issho.hachi.modules.Module;
 import net.perkowitz.issho.hachi.modules.shihai.ShihaiModule;
+import net.perkowitz.issho.midi.MidiInputDispatcher;
+import net.perkowitz.issho.midi.MidiOutputMerger;
+import net.perkowitz.issho.midi.MidiRepeatFilter;
+import net.perkowitz.issho.midi.MidiScheduler;
+import net.perkowitz.issho.midi.NoteTracker;
+import org.codehaus.jackson.map.ObjectMapper;
 
 import javax.sound.midi.MidiMessage;
 import javax.sound.midi.Receiver;
 import javax.sound.midi.ShortMessage;
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
 import static javax.sound.midi.ShortMessage.*;
@@ -20,7 +33,7 @@ import static javax.sound.midi.ShortMessage.*;
 /**
  * Created by optic on 9/12/16.
  */
-public class HachiController implements Clockable, Receiver, ValueSettable {
+public class HachiController implements Clockable, ClockListener, Receiver, ValueSettable {
 
     public static boolean DEBUG_MODE = true;
 
@@ -29,6 +42,7 @@ public class HachiController implements Clockable, Receiver, ValueSettable {
     private static int RESET_MIN = 111;
     private static int RESET_MAX = 127;
     private static int MIDI_REALTIME_COMMAND = 0xF0;
+    private static String DEFAULT_STATS_FILENAME = "hachi-stats.json";
 
     private int triggerChannel = 9;//15;
     private int stepNote = 65;//36;
@@ -37,34 +51,83 @@ public class HachiController implements Clockable, Receiver, ValueSettable {
     private int clockMeasure = 0;
     private int clockBeat = 0;
     private int clockPulse = 0;
-    private int clockPulsesPerBeat = 24;
+    private int clockPulsesPerBeat = ClockEngine.PULSES_PER_BEAT;
     private int clockBeatsPerMeasure = 4;
 
     private Module[] modules = null;
     private GridDevice[] gridDevices;
+    private GridDisplay[] deviceDisplays;
+    private RenderLoop renderLoop = null;
     private HachiDeviceManager[] hachiDeviceManagers;
     private MultiDisplay[] displays;
+    private OffscreenDisplay[] offscreenDisplays;
 
     private List<Clockable> clockables = Lists.newArrayList();
     private List<Triggerable> triggerables = Lists.newArrayList();
     private List<Chordable> chordables = Lists.newArrayList();
     private ShihaiModule shihaiModule = null;
     @Getter private ChordReceiver chordReceiver;
+    @Getter private ClockStats clockStats;
+    @Getter private final SequencerLoop sequencerLoop;
 
     private static CountDownLatch stop = new CountDownLatch(1);
-    private static Timer timer = null;
+    @Getter private ClockEngine clockEngine = null;
     @Getter private boolean clockRunning = false;
     private boolean midiClockRunning = false;
     private int tickCount = 0;
     @Setter private boolean midiContinueAsStart = true;
+    @Setter private long lookaheadNanos = 0;
+    @Setter private boolean midiClockPllEnabled = false;
+    @Getter private MidiClockPll midiClockPll = null;
+    private boolean followingMidiClock = false;
+    @Setter private MidiClockOutput midiClockOutput = null;
+    private List<MidiScheduler> midiSchedulers = Lists.newArrayList();
+    private List<MidiOutputMerger> outputMergers = Lists.newArrayList();
+    private List<MidiRepeatFilter> repeatFilters = Lists.newArrayList();
+    private List<NoteTracker> noteTrackers = Lists.newArrayList();
+    private List<MidiInputDispatcher> inputDispatchers = Lists.newArrayList();
+    private int songPosition = 0;
 
     private int tempo = 120;
-    private int tempoIntervalInMillis = 125 * 120 / tempo;
 
 
     public HachiController(Module[] modules, GridDevice[] gridDevices) {
+        this(modules, gridDevices, RenderLoop.DEFAULT_FRAMES_PER_SECOND);
+    }
+
+    /**
+     * @param modules
+     * @param gridDevices
+     * @param renderFps: frame rate for sending LED updates to the devices from a separate render thread;
+     *                 when 0, modules draw directly to the devices from whatever thread they're on
+     */
+    public HachiController(Module[] modules, GridDevice[] gridDevices, int renderFps) {
+        this(modules, gridDevices, renderFps, new SequencerLoop());
+    }
+
+    /**
+     * @param modules
+     * @param gridDevices
+     * @param renderFps
+     * @param sequencerLoop: the loop the modules' input was already routed through when they were created
+     */
+    public HachiController(Module[] modules, GridDevice[] gridDevices, int renderFps, SequencerLoop sequencerLoop) {
 
+        this.sequencerLoop = sequencerLoop;
+
+        // modules draw into buffered displays; the render loop sends the changes to the devices
+        this.gridDevices = gridDevices;
+        deviceDisplays = new GridDisplay[gridDevices.length];
+        if (renderFps > 0) {
+            renderLoop = new RenderLoop(renderFps);
+        }
+        for (int i = 0; i < gridDevices.length; i++) {
+            deviceDisplays[i] = (renderLoop != null) ? renderLoop.add(gridDevices[i]) : gridDevices[i];
+        }
+
+        // each module always draws offscreen; a device is added to a module's display while it shows that module
         displays = new MultiDisplay[modules.length];
+        offscreenDisplays = new OffscreenDisplay[modules.length];
 
         this.modules = modules;
         for (int i = 0; i < modules.length; i++) {
@@ -82,15 +145,21 @@ public class HachiController implements Clockable, Receiver, ValueSettable {
                 shihaiModule = (ShihaiModule)modules[i];
             }
 
-            displays[i] = new MultiDisplay(gridDevices);
+            offscreenDisplays[i] = new OffscreenDisplay();
+            displays[i] = new MultiDisplay(new GridDisplay[] { offscreenDisplays[i] });
         }
 
         chordReceiver = new ChordReceiver(chordables);
 
-        this.gridDevices = gridDevices;
+        String[] clockableNames = new String[clockables.size()];
+        for (int i = 0; i < clockables.size(); i++) {
+            clockableNames[i] = clockables.get(i).getClass().getSimpleName();
+        }
+        clockStats = new ClockStats(clockableNames);
+
         hachiDeviceManagers = new HachiDeviceManager[gridDevices.length];
         for (int i = 0; i < gridDevices.length; i++) {
-            HachiDeviceManager hachiDeviceManager = new HachiDeviceManager(gridDevices[i], modules, this);
+            HachiDeviceManager hachiDeviceManager = new HachiDeviceManager(gridDevices[i], deviceDisplays[i], modules, this);
             hachiDeviceManagers[i] = hachiDeviceManager;
         }
 
@@ -101,6 +170,14 @@ public class HachiController implements Clockable, Receiver, ValueSettable {
         for (GridDevice gridDevice : gridDevices) {
             gridDevice.initialize();
         }
+        if (renderLoop != null) {
+            renderLoop.start();
+        }
+
+        // fill in every module's offscreen display, so that selecting a module only has to blit it
+        for (Module module : modules) {
+            module.redraw();
+        }
         redraw();
 //        Graphics.setPads(display, Graphics.issho, Color.WHITE);
 //        try {
@@ -114,19 +191,30 @@ public class HachiController implements Clockable, Receiver, ValueSettable {
             hachiDeviceManager.selectModule(0);
         }
 
-        System.out.printf("Starting timer...\n");
-        startTimer();
+        // from here on, all input and clock pulses are handled on the sequencer thread
+        System.out.printf("Starting sequencer...\n");
+        sequencerLoop.start();
+
+        System.out.printf("Starting clock...\n");
+        startClock();
 
     }
 
     public void pressPlay() {
         clockRunning = !clockRunning;
         if (clockRunning) {
+            resetClockPosition();
             start(true);
             for (Clockable clockable: clockables) {
                 clockable.start(true);
             }
+            if (midiClockOutput != null) {
+                midiClockOutput.start();
+            }
         } else {
+            if (midiClockOutput != null) {
+                midiClockOutput.stop();
+            }
             stop();
             for (Clockable clockable: clockables) {
                 clockable.stop();
@@ -139,21 +227,101 @@ public class HachiController implements Clockable, Receiver, ValueSettable {
         shutdown();
     }
 
+    /**
+     * limit how many LED messages per millisecond are sent to a device (only when rendering at a frame rate)
+     *
+     * @param deviceIndex
+     * @param messagesPerMillisecond: 0 for no limit
+     */
+    public void setLedBudget(int deviceIndex, int messagesPerMillisecond) {
+        if (deviceDisplays[deviceIndex] instanceof BufferedDisplay) {
+            ((BufferedDisplay) deviceDisplays[deviceIndex]).setLedBudget(messagesPerMillisecond);
+        }
+    }
+
+    /**
+     * a scheduler in front of an output port, to flush and stop at shutdown
+     *
+     * @param midiScheduler
+     */
+    public void addMidiScheduler(MidiScheduler midiScheduler) {
+        midiSchedulers.add(midiScheduler);
+    }
+
+    /**
+     * an output merger to stop at shutdown and include in the stats
+     *
+     * @param outputMerger
+     */
+    public void addOutputMerger(MidiOutputMerger outputMerger) {
+        outputMergers.add(outputMerger);
+    }
+
+    /**
+     * a repeat filter to include in the stats
+     *
+     * @param repeatFilter
+     */
+    public void addRepeatFilter(MidiRepeatFilter repeatFilter) {
+        repeatFilters.add(repeatFilter);
+    }
+
+    /**
+     * a port's note tracker, so any notes the modules leave on are stopped at shutdown
+     *
+     * @param noteTracker
+     */
+    public void addNoteTracker(NoteTracker noteTracker) {
+        noteTrackers.add(noteTracker);
+    }
+
+    /**
+     * an input dispatcher to include in the stats
+     *
+     * @param inputDispatcher
+     */
+    public void addInputDispatcher(MidiInputDispatcher inputDispatcher) {
+        inputDispatchers.add(inputDispatcher);
+    }
+
     public MultiDisplay getDisplay(int index) {
         return displays[index];
     }
 
+    public OffscreenDisplay getOffscreenDisplay(int index) {
+        return offscreenDisplays[index];
+    }
+
     /***** private implementation ***************/
 
     private void shutdown() {
+        stopClock();
+        sequencerLoop.stop();
         for (Module module : modules) {
             module.shutdown();
         }
+        for (NoteTracker noteTracker : noteTrackers) {
+            noteTracker.releaseAll();
+        }
         for (HachiDeviceManager hachiDeviceManager : hachiDeviceManagers) {
             hachiDeviceManager.shutdown();
         }
+        // send the modules' final note offs before exiting: release anything still scheduled ahead,
+        // then let the mergers write it all out
+        for (MidiScheduler midiScheduler : midiSchedulers) {
+            midiScheduler.stop();
+        }
+        for (MidiOutputMerger outputMerger : outputMergers) {
+            outputMerger.stop();
+        }
+        if (renderLoop != null) {
+            renderLoop.stop();
+        }
         for (GridDevice gridDevice : gridDevices) {
             gridDevice.initialize();
+            if (gridDevice instanceof QueuedGridDevice) {
+                ((QueuedGridDevice) gridDevice).stop();
+            }
         }
         System.exit(0);
     }
@@ -164,31 +332,72 @@ public class HachiController implements Clockable, Receiver, ValueSettable {
         }
     }
 
-    public void startTimer() {
+    public void startClock() {
+        if (clockEngine == null) {
+            if (shihaiModule != null) {
+                tempo = shihaiModule.tempo();
+            }
+            clockEngine = new ClockEngine(sequencerLoop.clockListener(this), tempo);
+            clockEngine.setLookaheadNanos(lookaheadNanos);
+            if (midiClockPllEnabled) {
+                midiClockPll = new MidiClockPll(clockEngine);
+            }
+        }
+        clockEngine.start();
+    }
 
-        if (timer != null) {
-            timer.cancel();
+    private void stopClock() {
+        if (clockEngine != null) {
+            clockEngine.stop();
+        }
+        // don't leave anything following our clock running after we're gone
+        if (midiClockOutput != null && midiClockRunning) {
+            midiClockOutput.stop();
         }
+    }
 
-        timer = new Timer();
+    /**
+     * go back to the internal tempo (Shihai's, if there is one) once we're no longer following an external clock
+     */
+    private void restoreTempo() {
+        followingMidiClock = false;
+        if (shihaiModule != null) {
+            tempo = shihaiModule.tempo();
+        }
+        clockEngine.setTempo(tempo);
+    }
 
-        timer.scheduleAtFixedRate(new TimerTask() {
-            public void run() {
-                if (clockRunning) {
-                    tick(tickCount % 16 == 0);
-                    tickCount++;
-                }
+    private void resetClockPosition() {
+        midiClockCount = 0;
+        clockMeasure = clockBeat = clockPulse = 0;
+    }
 
-                if (shihaiModule != null && shihaiModule.tempo() != tempo) {
-                    tempo = shihaiModule.tempo();
-                    tempoIntervalInMillis = 125 * 120 / tempo;
-                    timer.cancel();
-                    timer = null;
-                    startTimer();
-                }
+    /**
+     * advance the measure/beat/pulse position by one 24ppqn pulse and send it to the Clockables.
+     * both the internal ClockEngine and external midi clock come through here,
+     * and the modules derive their 16th-note ticks from the pulse position
+     */
+    private void pulse() {
 
-            }
-        }, tempoIntervalInMillis, tempoIntervalInMillis);
+        if (midiClockOutput != null) {
+            midiClockOutput.pulse(MidiScheduler.eventTimestamp());
+        }
+        if (midiClockCount % midiClockDivider == 0) {
+            tickCount++;
+        }
+
+        this.clock(clockMeasure, clockBeat, clockPulse);
+        clockPulse++;
+        if (clockPulse % clockPulsesPerBeat == 0 && clockPulse > 0) {
+            clockPulse = 0;
+            clockBeat++;
+        }
+        if (clockBeat % clockBeatsPerMeasure == 0 && clockBeat > 0) {
+            clockBeat = 0;
+            clockMeasure++;
+        }
+
+        midiClockCount++;
     }
 
     public void processCommand(String command) {
@@ -200,6 +409,105 @@ public class HachiController implements Clockable, Receiver, ValueSettable {
             for (int index = 0; index < modules.length; index++) {
                 System.out.printf("%d: %s\n", index, modules[index]);
             }
+        } else if (command.equals("refresh")) {
+            // e.g. after a controller has been unplugged and plugged back in. the devices are only
+            // sent to from the thread that draws on them, so the refresh is handed to that thread
+            if (renderLoop != null) {
+                renderLoop.refresh();
+            } else {
+                sequencerLoop.execute(new Runnable() {
+                    public void run() {
+                        for (GridDevice gridDevice : gridDevices) {
+                            gridDevice.refresh();
+                        }
+                    }
+                });
+            }
+        } else if (command.equals("stats")) {
+            clockStats.print(System.out);
+            System.out.printf("  sequencer: %s\n", sequencerLoop);
+            if (midiClockPll != null) {
+                System.out.printf("  midi clock: %s\n", midiClockPll);
+            }
+            for (MidiInputDispatcher inputDispatcher : inputDispatchers) {
+                System.out.printf("  midi in %s\n", inputDispatcher);
+                for (MidiInputDispatcher.Listener listener : inputDispatcher.getListeners()) {
+                    System.out.printf("    %s\n", listener);
+                }
+            }
+            for (MidiOutputMerger outputMerger : outputMergers) {
+                System.out.printf("  midi out %s\n", outputMerger);
+            }
+            for (MidiRepeatFilter repeatFilter : repeatFilters) {
+                System.out.printf("  midi repeats %s\n", repeatFilter);
+            }
+            for (GridDevice gridDevice : gridDevices) {
+                if (gridDevice instanceof QueuedGridDevice || gridDevice instanceof VirtualGridDevice) {
+                    System.out.printf("  device %s\n", gridDevice);
+                }
+            }
+        } else if (command.equals("stats reset")) {
+            clockStats.reset();
+            sequencerLoop.getLatency().reset();
+            if (midiClockPll != null) {
+                midiClockPll.resetStats();
+            }
+            for (MidiInputDispatcher inputDispatcher : inputDispatchers) {
+                inputDispatcher.resetStats();
+            }
+            for (MidiOutputMerger outputMerger : outputMergers) {
+                outputMerger.resetStats();
+            }
+            for (MidiRepeatFilter repeatFilter : repeatFilters) {
+                repeatFilter.resetStats();
+            }
+            for (GridDevice gridDevice : gridDevices) {
+                if (gridDevice instanceof QueuedGridDevice) {
+                    ((QueuedGridDevice) gridDevice).resetStats();
+                } else if (gridDevice instanceof VirtualGridDevice) {
+                    ((VirtualGridDevice) gridDevice).resetStats();
+                }
+            }
+        } else if (command.startsWith("stats json")) {
+            String filename = command.substring("stats json".length()).trim();
+            if (filename.isEmpty()) {
+                filename = DEFAULT_STATS_FILENAME;
+            }
+            try {
+                Map<String, Object> stats = clockStats.toMap();
+                stats.put("sequencer", sequencerLoop.toMap());
+                if (midiClockPll != null) {
+                    stats.put("midiClock", midiClockPll.toMap());
+                }
+                List<Map<String, Object>> midiInputStats = Lists.newArrayList();
+                for (MidiInputDispatcher inputDispatcher : inputDispatchers) {
+                    midiInputStats.add(inputDispatcher.toMap());
+                }
+                stats.put("midiInputs", midiInputStats);
+                List<Map<String, Object>> midiOutputStats = Lists.newArrayList();
+                for (MidiOutputMerger outputMerger : outputMergers) {
+                    midiOutputStats.add(outputMerger.toMap());
+                }
+                stats.put("midiOutputs", midiOutputStats);
+                List<Map<String, Object>> repeatStats = Lists.newArrayList();
+                for (MidiRepeatFilter repeatFilter : repeatFilters) {
+                    repeatStats.add(repeatFilter.toMap());
+                }
+                stats.put("midiRepeats", repeatStats);
+                List<Map<String, Object>> deviceStats = Lists.newArrayList();
+                for (GridDevice gridDevice : gridDevices) {
+                    if (gridDevice instanceof QueuedGridDevice) {
+                        deviceStats.add(((QueuedGridDevice) gridDevice).toMap());
+                    } else if (gridDevice instanceof VirtualGridDevice) {
+                        deviceStats.add(((VirtualGridDevice) gridDevice).toMap());
+                    }
+                }
+                stats.put("devices", deviceStats);
+                new ObjectMapper().writeValue(new File(filename), stats);
+                System.out.printf("Wrote stats to %s\n", filename);
+            } catch (IOException e) {
+                System.err.println(e);
+            }
         }
 
         System.out.print("> ");
@@ -227,22 +535,58 @@ public class HachiController implements Clockable, Receiver, ValueSettable {
 
     public void tick(boolean andReset) {
         if (midiClockRunning) {
-            for (Clockable clockable : clockables) {
-                clockable.tick(andReset);
+            for (int i = 0; i < clockables.size(); i++) {
+                long startNanos = System.nanoTime();
+                clockables.get(i).tick(andReset);
+                clockStats.recordDispatch(i, System.nanoTime() - startNanos);
             }
         }
     }
 
     public void clock(int measure, int beat, int pulse) {
         if (midiClockRunning) {
-            for (Clockable clockable : clockables) {
-                clockable.clock(measure, beat, pulse);
+            for (int i = 0; i < clockables.size(); i++) {
+                long startNanos = System.nanoTime();
+                clockables.get(i).clock(measure, beat, pulse);
+                clockStats.recordDispatch(i, System.nanoTime() - startNanos);
             }
         }
 
     }
 
 
+    /***** ClockListener implementation ***************/
+
+    public void onPulse(long pulseCount, long deadlineNanos) {
+
+        long startNanos = System.nanoTime();
+        boolean following = midiClockPll != null && midiClockPll.isFollowing();
+        if (clockRunning || following) {
+            if (following) {
+                midiClockPll.onOutputPulse(deadlineNanos);
+            }
+            // midi sent while handling this pulse is stamped with the pulse's ideal time
+            MidiScheduler.setEventTime(deadlineNanos);
+            pulse();
+            MidiScheduler.clearEventTime();
+            long wakeNanos = deadlineNanos - clockEngine.getLookaheadNanos();
+            clockStats.recordPulse(startNanos - wakeNanos, System.nanoTime() - startNanos, clockEngine.intervalNanos());
+        }
+
+        // tempo changes are picked up on the next pulse without restarting the clock;
+        // while following an external clock, the pll sets the tempo, and when that clock times out
+        // the engine is put back on the internal tempo
+        if (following) {
+            followingMidiClock = true;
+        } else if (followingMidiClock) {
+            restoreTempo();
+        } else if (shihaiModule != null && shihaiModule.tempo() != tempo) {
+            tempo = shihaiModule.tempo();
+            clockEngine.setTempo(tempo);
+        }
+    }
+
+
     /***** ValueSettable implementation ***********************************/
 
     public void setValue(int value) {
@@ -272,48 +616,57 @@ public class HachiController implements Clockable, Receiver, ValueSettable {
                 switch (status) {
                     case START:
 //                        System.out.println("START");
-                        midiClockCount = 0;
-                        clockMeasure = clockBeat = clockPulse = 0;
+                        resetClockPosition();
                         this.start(true);
+                        if (midiClockPll != null) {
+                            midiClockPll.start();
+                        }
+                        if (midiClockOutput != null) {
+                            midiClockOutput.start();
+                        }
                         break;
                     case STOP:
 //                        System.out.println("STOP");
                         this.stop();
+                        if (midiClockPll != null) {
+                            midiClockPll.stop();
+                            restoreTempo();
+                        }
+                        if (midiClockOutput != null) {
+                            midiClockOutput.stop();
+                        }
                         break;
                     case CONTINUE:
 //                        System.out.println("CONTINUE");
-                        midiClockCount = 0;
-                        clockMeasure = clockBeat = clockPulse = 0;
+                        resetClockPosition();
                         this.start(midiContinueAsStart);
+                        if (midiClockPll != null) {
+                            midiClockPll.start();
+                        }
+                        if (midiClockOutput != null) {
+                            if (midiContinueAsStart) {
+                                midiClockOutput.start();
+                            } else {
+                                midiClockOutput.continueAt(songPosition);
+                            }
+                        }
+                        break;
+                    case SONG_POSITION_POINTER:
+                        songPosition = shortMessage.getData1() | (shortMessage.getData2() << 7);
                         break;
                     case TIMING_CLOCK:
 //                        System.out.println("TICK");
-//                        System.out.printf("  Tick: %d, %d\n", midiClockCount, tickCount);
-                        if (midiClockCount % midiClockDivider == 0) {
-                            boolean andReset = (tickCount % 16 == 0);
-//                            this.tick(andReset);
-//                            System.out.printf("  Sending tick, reset=%s\n", andReset);
-                            tickCount++;
-                        }
-
-                        this.clock(clockMeasure, clockBeat, clockPulse);
-//                        if (clockPulse == 0) {
-//                            System.out.printf("  Clock: %04d:%02d:%02d\n", clockMeasure, clockBeat, clockPulse);
-//                        }
-                        clockPulse++;
-                        if (clockPulse % clockPulsesPerBeat == 0 && clockPulse > 0) {
-                            clockPulse = 0;
-                            clockBeat++;
-//                            System.out.println("  Incrementing clockBeat");
+                        if (midiClockPll == null) {
+                            pulse();
+                        } else {
+                            // the pll smooths the external clock and the clock engine plays the pulses,
+                            // except for those after a start until the tempo is known. it's given the time
+                            // the pulse came in, so time spent waiting in the sequencer queue doesn't count
+                            // as phase error
+                            if (midiClockPll.onInputPulse(SequencerLoop.eventArrivalNanos())) {
+                                pulse();
+                            }
                         }
-                        if (clockBeat % clockBeatsPerMeasure == 0 && clockBeat > 0) {
-                            clockBeat = 0;
-                            clockMeasure++;
-//                            System.out.println("  Incrementing clockMeasure");
-                        }
-
-
-                        midiClockCount++;
                         break;
                     default:
 //                        System.out.printf("REALTIME: %d\n", status);
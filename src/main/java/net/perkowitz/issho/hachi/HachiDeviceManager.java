@@ -17,16 +17,28 @@ public class HachiDeviceManager implements GridListener {
     private GridListener activeListener = null;
     private GridDisplay display;
     private GridDevice gridDevice;
+    private GridDisplay deviceDisplay;
     private HachiController hachiController;
 
 
     public HachiDeviceManager(GridDevice gridDevice, Module[] modules, HachiController hachiController) {
+        this(gridDevice, gridDevice, modules, hachiController);
+    }
+
+    /**
+     * @param gridDevice: the device to take input from
+     * @param deviceDisplay: where to draw for the device; may be the device itself or a buffer in front of it
+     * @param modules
+     * @param hachiController
+     */
+    public HachiDeviceManager(GridDevice gridDevice, GridDisplay deviceDisplay, Module[] modules, HachiController hachiController) {
 
         this.modules = modules;
         moduleListeners = new GridListener[modules.length];
         this.gridDevice = gridDevice;
-        gridDevice.setListener(this);
-        this.display = gridDevice;
+        this.deviceDisplay = deviceDisplay;
+        gridDevice.setListener(hachiController.getSequencerLoop().gridListener(this));
+        this.display = deviceDisplay;
         this.hachiController = hachiController;
         for (int i = 0; i < modules.length; i++) {
             moduleListeners[i] = modules[i].getGridListener();
@@ -42,17 +54,27 @@ public class HachiDeviceManager implements GridListener {
         if (index < modules.length && modules[index] != null) {
 
             // set this device for the chosen module and not for any other modules
-            hachiController.getDisplay(index).add(gridDevice);
             for (int i = 0; i < modules.length; i++) {
                 if (i != index) {
-                    hachiController.getDisplay(i).remove(gridDevice);
+                    hachiController.getDisplay(i).remove(deviceDisplay);
                 }
             }
 
-            display = hachiController.getDisplay(index);
+            MultiDisplay moduleDisplay = hachiController.getDisplay(index);
+            display = moduleDisplay;
             activeModule = modules[index];
             activeListener = moduleListeners[index];
-            activeModule.redraw();
+
+            // the module has been drawing offscreen all along, so just copy that onto the device;
+            // the device only sends the LEDs that differ from what it's showing
+            OffscreenDisplay offscreenDisplay = hachiController.getOffscreenDisplay(index);
+            if (offscreenDisplay.isDrawn()) {
+                offscreenDisplay.blit(deviceDisplay);
+                moduleDisplay.add(deviceDisplay);
+            } else {
+                moduleDisplay.add(deviceDisplay);
+                activeModule.redraw();
+            }
             redraw();
         }
     }
@@ -63,24 +85,25 @@ public class HachiDeviceManager implements GridListener {
 
     public void redraw() {
 
+        // hachi's own buttons go straight to the device, not into the module's offscreen display
         // modules
         for (int index = 0; index < modules.length; index++) {
             GridButton button = GridButton.at(HachiUtil.MODULE_BUTTON_SIDE, index);
             if (modules[index] == activeModule) {
-                display.setButton(button, COLOR_SELECTED);
+                deviceDisplay.setButton(button, COLOR_SELECTED);
             } else {
-                display.setButton(button, COLOR_UNSELECTED);
+                deviceDisplay.setButton(button, COLOR_UNSELECTED);
             }
         }
 
         if (hachiController.isClockRunning()) {
-            display.setButton(PLAY_BUTTON, COLOR_SELECTED);
+            deviceDisplay.setButton(PLAY_BUTTON, COLOR_SELECTED);
         } else {
-            display.setButton(PLAY_BUTTON, COLOR_UNSELECTED);
+            deviceDisplay.setButton(PLAY_BUTTON, COLOR_UNSELECTED);
         }
 
         if (HachiController.DEBUG_MODE) {
-            display.setButton(EXIT_BUTTON, COLOR_UNSELECTED);
+            deviceDisplay.setButton(EXIT_BUTTON, COLOR_UNSELECTED);
         }
 
     }
@@ -1,5 +1,7 @@
 package net.perkowitz.issho.hachi;
 
+import net.perkowitz.issho.midi.MidiOutput;
+
 import javax.sound.midi.*;
 
 import static javax.sound.midi.ShortMessage.*;
@@ -15,6 +17,7 @@ public class Knobby implements Receiver {
 
     private Transmitter inputTransmitter;
     private Receiver outputReceiver;
+    private MidiOutput midiOutput;
 
     private int valueControlChannel = 15;
     private int valueControlController = 16;
@@ -25,20 +28,14 @@ public class Knobby implements Receiver {
         this.inputTransmitter = inputTransmitter;
         this.inputTransmitter.setReceiver(this);
         this.outputReceiver = outputReceiver;
+        this.midiOutput = new MidiOutput(outputReceiver);
     }
 
 
     protected void sendMidiNote(int channel, int noteNumber, int velocity) {
 //        System.out.printf("Note: %d, %d, %d\n", channel, noteNumber, velocity);
 
-        try {
-            ShortMessage noteMessage = new ShortMessage();
-            noteMessage.setMessage(ShortMessage.NOTE_ON, channel, noteNumber, velocity);
-            outputReceiver.send(noteMessage, -1);
-
-        } catch (InvalidMidiDataException e) {
-            System.err.println(e);
-        }
+        midiOutput.note(channel, noteNumber, velocity, -1);
     }
 
     public void setValueControl(Integer valueControlChannel, Integer valueControlController, ValueSettable valueSettable) {
@@ -86,7 +83,8 @@ public class Knobby implements Receiver {
                         if (valueSettable != null && shortMessage.getChannel() == valueControlChannel && shortMessage.getData1() == valueControlController) {
                             valueSettable.setValue(shortMessage.getData2());
                         } else {
-                            outputReceiver.send(message, timeStamp);
+                            // input timestamps are on the input device's timebase, so just send it now
+                            outputReceiver.send(message, -1);
                         }
                         break;
                     default:
@@ -0,0 +1,362 @@
+package net.perkowitz.issho.hachi;
+
+import com.google.common.collect.Maps;
+import lombok.Getter;
+import net.perkowitz.issho.devices.*;
+import net.perkowitz.issho.hachi.clock.ClockListener;
+import net.perkowitz.issho.util.LatencyHistogram;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Transmitter;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The single thread that is allowed to change sequencer state. Clock pulses, pad and button presses,
+ * and incoming midi (external clock, keyboard, knobs) are all posted to a bounded multi-producer,
+ * single-consumer ring buffer and handled one at a time on this loop's thread, so modules never see
+ * two threads at once and don't need locks.
+ *
+ * Posting never allocates: the ring's slots are preallocated and events are stored as primitive fields
+ * plus references to objects the caller already has. If the ring is full, producers wait for space rather
+ * than drop events.
+ */
+public class SequencerLoop implements Runnable {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int EVENT_PULSE = 1;
+    private static final int EVENT_MIDI = 2;
+    private static final int EVENT_PAD_PRESSED = 3;
+    private static final int EVENT_PAD_RELEASED = 4;
+    private static final int EVENT_BUTTON_PRESSED = 5;
+    private static final int EVENT_BUTTON_RELEASED = 6;
+    private static final int EVENT_KNOB_CHANGED = 7;
+    private static final int EVENT_KNOB_SET = 8;
+    private static final int EVENT_TASK = 9;
+
+    // when the event being handled on this thread arrived; 0 when not handling one
+    private static final ThreadLocal<long[]> eventArrival = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[] { 0 };
+        }
+    };
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(0);
+    private volatile long head = 0;
+
+    private Thread thread = null;
+    private volatile boolean running = false;
+    private volatile boolean waiting = false;
+
+    @Getter private final LatencyHistogram latency = new LatencyHistogram();
+    @Getter private volatile int maxDepth = 0;
+    private final AtomicLong fullCount = new AtomicLong();
+
+
+    public SequencerLoop() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity: rounded up to a power of two
+     */
+    public SequencerLoop(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i);
+        }
+        mask = size - 1;
+    }
+
+
+    /***** lifecycle ****************************************/
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "hachi-sequencer");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread = null;
+        }
+    }
+
+    public int getDepth() {
+        return (int) (tail.get() - head);
+    }
+
+    public long getFullCount() {
+        return fullCount.get();
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        map.put("capacity", getCapacity());
+        map.put("depth", getDepth());
+        map.put("maxDepth", getMaxDepth());
+        map.put("full", getFullCount());
+        map.put("latency", latency.summary());
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("depth=%d/%d maxDepth=%d full=%d latency: %s", getDepth(), getCapacity(), getMaxDepth(), getFullCount(), latency);
+    }
+
+
+    /***** wrappers for input sources ****************************************/
+
+    /**
+     * when the event being handled was posted, i.e. when it arrived from its source, before any wait in the
+     * queue or time spent on earlier events (e.g. for timing an external clock pulse)
+     *
+     * @return System.nanoTime() at posting, or now if not called while handling an event
+     */
+    public static long eventArrivalNanos() {
+        long arrival = eventArrival.get()[0];
+        return arrival != 0 ? arrival : System.nanoTime();
+    }
+
+    public ClockListener clockListener(final ClockListener target) {
+        return new ClockListener() {
+            public void onPulse(long pulseCount, long deadlineNanos) {
+                post(EVENT_PULSE, target, null, 0, pulseCount, deadlineNanos);
+            }
+        };
+    }
+
+    public Receiver receiver(final Receiver target) {
+        return new Receiver() {
+            public void send(MidiMessage message, long timeStamp) {
+                post(EVENT_MIDI, target, message, 0, 0, timeStamp);
+            }
+            public void close() {}
+        };
+    }
+
+    /**
+     * a Transmitter (e.g. a module's midi input) whose receiver is called on the loop's thread
+     *
+     * @param source: where the midi comes from, e.g. one of MidiInputDispatcher's transmitters
+     * @return
+     */
+    public Transmitter transmitter(final Transmitter source) {
+        return new Transmitter() {
+            private Receiver target = null;
+            public synchronized void setReceiver(Receiver receiver) {
+                target = receiver;
+                source.setReceiver(receiver == null ? null : receiver(receiver));
+            }
+            public synchronized Receiver getReceiver() {
+                return target;
+            }
+            public void close() {
+                source.close();
+            }
+        };
+    }
+
+    public GridListener gridListener(final GridListener target) {
+        return new GridListener() {
+            public void onPadPressed(GridPad pad, int velocity) {
+                post(EVENT_PAD_PRESSED, target, pad, velocity, 0, 0);
+            }
+            public void onPadReleased(GridPad pad) {
+                post(EVENT_PAD_RELEASED, target, pad, 0, 0, 0);
+            }
+            public void onButtonPressed(GridButton button, int velocity) {
+                post(EVENT_BUTTON_PRESSED, target, button, velocity, 0, 0);
+            }
+            public void onButtonReleased(GridButton button) {
+                post(EVENT_BUTTON_RELEASED, target, button, 0, 0, 0);
+            }
+            public void onKnobChanged(GridKnob knob, int delta) {
+                post(EVENT_KNOB_CHANGED, target, knob, delta, 0, 0);
+            }
+            public void onKnobSet(GridKnob knob, int value) {
+                post(EVENT_KNOB_SET, target, knob, value, 0, 0);
+            }
+        };
+    }
+
+
+    /**
+     * run a task on the loop's thread, e.g. a command typed at the terminal that touches the modules or devices
+     *
+     * @param task
+     */
+    public void execute(Runnable task) {
+        post(EVENT_TASK, task, null, 0, 0, 0);
+    }
+
+
+    /***** producer ****************************************/
+
+    private void post(int type, Object target, Object arg, int value, long count, long time) {
+
+        long postedNanos = System.nanoTime();
+        if (!running || Thread.currentThread() == thread) {
+            // not started yet, or posting from inside the loop: handle it right here
+            dispatch(type, target, arg, value, count, time, postedNanos);
+            return;
+        }
+
+        long position;
+        Slot slot;
+        while (true) {
+            position = tail.get();
+            slot = slots[(int) position & mask];
+            long available = slot.sequence.get() - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (available < 0) {
+                // full: wait for the loop to catch up rather than drop input
+                fullCount.incrementAndGet();
+                LockSupport.parkNanos(50000);
+            }
+        }
+
+        slot.type = type;
+        slot.target = target;
+        slot.arg = arg;
+        slot.value = value;
+        slot.count = count;
+        slot.time = time;
+        slot.postedNanos = postedNanos;
+        slot.sequence.set(position + 1);
+
+        int depth = (int) (position + 1 - head);
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+
+    /***** consumer ****************************************/
+
+    public void run() {
+
+        while (running) {
+            long position = head;
+            Slot slot = slots[(int) position & mask];
+            if (slot.sequence.get() != position + 1) {
+                waiting = true;
+                if (slot.sequence.get() != position + 1) {
+                    LockSupport.parkNanos(10000000);
+                }
+                waiting = false;
+                continue;
+            }
+
+            int type = slot.type;
+            Object target = slot.target;
+            Object arg = slot.arg;
+            int value = slot.value;
+            long count = slot.count;
+            long time = slot.time;
+            long postedNanos = slot.postedNanos;
+            slot.target = null;
+            slot.arg = null;
+            // advance head before freeing the slot, so a producer never sees more than a full ring
+            head = position + 1;
+            slot.sequence.set(position + slots.length);
+
+            latency.record(System.nanoTime() - postedNanos);
+            try {
+                dispatch(type, target, arg, value, count, time, postedNanos);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void dispatch(int type, Object target, Object arg, int value, long count, long time, long postedNanos) {
+        // whatever is drawn in response to the grid is feedback on an edit, which should show before static redraws
+        LedPriority previous = LedPriority.set(type == EVENT_PULSE || type == EVENT_MIDI ? LedPriority.STATIC : LedPriority.EDIT);
+        long[] arrival = eventArrival.get();
+        long previousArrival = arrival[0];
+        arrival[0] = postedNanos;
+        try {
+            dispatchEvent(type, target, arg, value, count, time);
+        } finally {
+            arrival[0] = previousArrival;
+            LedPriority.set(previous);
+        }
+    }
+
+    private static void dispatchEvent(int type, Object target, Object arg, int value, long count, long time) {
+        switch (type) {
+            case EVENT_PULSE:
+                ((ClockListener) target).onPulse(count, time);
+                break;
+            case EVENT_MIDI:
+                ((Receiver) target).send((MidiMessage) arg, time);
+                break;
+            case EVENT_PAD_PRESSED:
+                ((GridListener) target).onPadPressed((GridPad) arg, value);
+                break;
+            case EVENT_PAD_RELEASED:
+                ((GridListener) target).onPadReleased((GridPad) arg);
+                break;
+            case EVENT_BUTTON_PRESSED:
+                ((GridListener) target).onButtonPressed((GridButton) arg, value);
+                break;
+            case EVENT_BUTTON_RELEASED:
+                ((GridListener) target).onButtonReleased((GridButton) arg);
+                break;
+            case EVENT_KNOB_CHANGED:
+                ((GridListener) target).onKnobChanged((GridKnob) arg, value);
+                break;
+            case EVENT_KNOB_SET:
+                ((GridListener) target).onKnobSet((GridKnob) arg, value);
+                break;
+            case EVENT_TASK:
+                ((Runnable) target).run();
+                break;
+        }
+    }
+
+
+    /***** Slot ****************************************/
+
+    private static final class Slot {
+
+        private final AtomicLong sequence;
+        private int type;
+        private Object target;
+        private Object arg;
+        private int value;
+        private long count;
+        private long time;
+        private long postedNanos;
+
+        private Slot(long sequence) {
+            this.sequence = new AtomicLong(sequence);
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+package net.perkowitz.issho.hachi.clock;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * High-resolution master clock. Runs on its own thread and fires PULSES_PER_BEAT pulses per beat
+ * against absolute System.nanoTime() deadlines, so time spent in the listener never accumulates as drift.
+ *
+ * Waiting is a hybrid: the thread parks until spinNanos before the deadline, then spins the rest of the way.
+ * Tempo changes take effect on the next pulse without restarting the thread; the pulse grid is re-anchored
+ * at the point of the change so the new interval starts exactly on the last pulse.
+ *
+ * With a lookahead set, each pulse is delivered that much ahead of its deadline, so the listener can
+ * schedule output for the exact deadline (see MidiScheduler).
+ *
+ * sync() steers both tempo and phase at once, which lets the engine act as the oscillator for a
+ * phase-locked loop following an external clock (see MidiClockPll).
+ */
+public class ClockEngine implements Runnable {
+
+    public static final int PULSES_PER_BEAT = 24;
+
+    public static final long NANOS_PER_MINUTE = 60L * 1000 * 1000 * 1000;
+    private static final long DEFAULT_SPIN_NANOS = 500 * 1000;
+    private static final int MAX_LATE_PULSES = 4;
+
+    private final ClockListener listener;
+    private Thread thread = null;
+    private volatile boolean running = false;
+
+    private volatile double tempo = 120;
+    @Getter @Setter private volatile long spinNanos = DEFAULT_SPIN_NANOS;
+    @Getter @Setter private volatile long lookaheadNanos = 0;
+
+    // the pulse grid: deadline(n) = anchorNanos + (n - anchorPulse) * interval
+    private long anchorNanos;
+    private long anchorPulse;
+    private double anchorTempo;
+    @Getter private volatile long pulseCount = 0;
+    @Getter private volatile long resyncCount = 0;
+
+    // a pending request to move the grid, applied by the clock thread
+    private volatile boolean syncPending = false;
+    private long syncDeadlineNanos;
+    private double syncTempo;
+
+
+    public ClockEngine(ClockListener listener, double tempo) {
+        this.listener = listener;
+        this.tempo = tempo;
+    }
+
+
+    /***** public methods ****************************************/
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "hachi-clock");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public double getTempo() {
+        return tempo;
+    }
+
+    /**
+     * set a new tempo in beats per minute. the current pulse interval is left alone;
+     * the new tempo applies from the next pulse.
+     *
+     * @param tempo
+     */
+    public void setTempo(double tempo) {
+        if (tempo > 0) {
+            this.tempo = tempo;
+        }
+    }
+
+    /**
+     * set the tempo and move the pulse grid so that the next pulse falls at nextDeadlineNanos.
+     * if the clock thread is already waiting for the next pulse, it wakes up and waits for the new deadline.
+     *
+     * @param nextDeadlineNanos
+     * @param tempo
+     */
+    public synchronized void sync(long nextDeadlineNanos, double tempo) {
+        if (tempo <= 0) return;
+        syncDeadlineNanos = nextDeadlineNanos;
+        syncTempo = tempo;
+        this.tempo = tempo;
+        syncPending = true;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public long intervalNanos() {
+        return intervalNanos(tempo);
+    }
+
+    public static long intervalNanos(double tempo) {
+        return Math.round(NANOS_PER_MINUTE / (tempo * PULSES_PER_BEAT));
+    }
+
+
+    /***** Runnable implementation ****************************************/
+
+    public void run() {
+
+        anchor(System.nanoTime(), 0);
+        long pulse = 0;
+
+        while (running) {
+
+            if (syncPending) {
+                applySync(pulse);
+            }
+            long deadline = deadline(pulse + 1);
+            if (!waitUntil(deadline - lookaheadNanos)) {
+                continue;
+            }
+            if (!running) break;
+
+            pulse++;
+            pulseCount = pulse;
+            try {
+                listener.onPulse(pulse, deadline);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+            long now = System.nanoTime();
+            if (tempo != anchorTempo) {
+                anchor(deadline, pulse);
+            }
+            if (now - (deadline - lookaheadNanos) > MAX_LATE_PULSES * intervalNanos(anchorTempo)) {
+                // we've stalled (gc, suspend); don't try to catch up with a burst of pulses
+                anchor(now, pulse);
+                resyncCount++;
+            }
+        }
+    }
+
+
+    /***** private implementation ****************************************/
+
+    private void anchor(long nanos, long pulse) {
+        anchorNanos = nanos;
+        anchorPulse = pulse;
+        anchorTempo = tempo;
+    }
+
+    private synchronized void applySync(long pulse) {
+        anchorTempo = syncTempo;
+        anchorPulse = pulse;
+        anchorNanos = syncDeadlineNanos - intervalNanos(syncTempo);
+        syncPending = false;
+    }
+
+    private long deadline(long pulse) {
+        double intervalNanos = (double) NANOS_PER_MINUTE / (anchorTempo * PULSES_PER_BEAT);
+        return anchorNanos + Math.round((pulse - anchorPulse) * intervalNanos);
+    }
+
+    /**
+     * @param deadline
+     * @return false if a sync() arrived while waiting and the deadline needs to be recomputed
+     */
+    private boolean waitUntil(long deadline) {
+        long remaining = deadline - System.nanoTime();
+        while (running && remaining > spinNanos) {
+            LockSupport.parkNanos(remaining - spinNanos);
+            if (syncPending) {
+                return false;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        while (running && deadline - System.nanoTime() > 0) {
+            // spin for the last stretch; parkNanos can overshoot by a scheduler quantum
+        }
+        return true;
+    }
+
+
+}
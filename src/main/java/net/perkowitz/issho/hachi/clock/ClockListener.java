@@ -0,0 +1,11 @@
+package net.perkowitz.issho.hachi.clock;
+
+/**
+ * Receives pulses from a ClockEngine. deadlineNanos is the ideal System.nanoTime() of the pulse,
+ * which may be slightly earlier than the actual time the pulse is delivered.
+ */
+public interface ClockListener {
+
+    public void onPulse(long pulseCount, long deadlineNanos);
+
+}
@@ -0,0 +1,91 @@
+package net.perkowitz.issho.hachi.clock;
+
+import com.google.common.collect.Maps;
+import lombok.Getter;
+import net.perkowitz.issho.util.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timing statistics for the master clock: how late each pulse fires against the ideal grid,
+ * how long each pulse takes to handle, how long each Clockable takes to dispatch, and how often
+ * handling a pulse overran the pulse interval. All recording is lock-free.
+ */
+public class ClockStats {
+
+    @Getter private final LatencyHistogram lateness = new LatencyHistogram();
+    @Getter private final LatencyHistogram pulseDuration = new LatencyHistogram();
+    private final String[] dispatchNames;
+    private final LatencyHistogram[] dispatch;
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong startedMillis = new AtomicLong(System.currentTimeMillis());
+
+
+    public ClockStats(String[] dispatchNames) {
+        this.dispatchNames = dispatchNames;
+        dispatch = new LatencyHistogram[dispatchNames.length];
+        for (int i = 0; i < dispatch.length; i++) {
+            dispatch[i] = new LatencyHistogram();
+        }
+    }
+
+
+    /***** recording ****************************************/
+
+    public void recordPulse(long latenessNanos, long durationNanos, long intervalNanos) {
+        lateness.record(latenessNanos);
+        pulseDuration.record(durationNanos);
+        if (durationNanos > intervalNanos) {
+            overruns.incrementAndGet();
+        }
+    }
+
+    public void recordDispatch(int index, long durationNanos) {
+        if (index >= 0 && index < dispatch.length) {
+            dispatch[index].record(durationNanos);
+        }
+    }
+
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    public void reset() {
+        lateness.reset();
+        pulseDuration.reset();
+        for (LatencyHistogram histogram : dispatch) {
+            histogram.reset();
+        }
+        overruns.set(0);
+        startedMillis.set(System.currentTimeMillis());
+    }
+
+
+    /***** output ****************************************/
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        map.put("seconds", (System.currentTimeMillis() - startedMillis.get()) / 1000);
+        map.put("overruns", getOverruns());
+        map.put("lateness", lateness.summary());
+        map.put("pulseDuration", pulseDuration.summary());
+        Map<String, Object> dispatchMap = Maps.newLinkedHashMap();
+        for (int i = 0; i < dispatch.length; i++) {
+            dispatchMap.put(i + ":" + dispatchNames[i], dispatch[i].summary());
+        }
+        map.put("dispatch", dispatchMap);
+        return map;
+    }
+
+    public void print(PrintStream out) {
+        out.printf("Clock stats over %ds, overruns=%d\n", (System.currentTimeMillis() - startedMillis.get()) / 1000, getOverruns());
+        out.printf("  lateness:  %s\n", lateness);
+        out.printf("  duration:  %s\n", pulseDuration);
+        for (int i = 0; i < dispatch.length; i++) {
+            out.printf("  %d %s: %s\n", i, dispatchNames[i], dispatch[i]);
+        }
+    }
+
+}
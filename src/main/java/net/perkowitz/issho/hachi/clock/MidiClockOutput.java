@@ -0,0 +1,148 @@
+package net.perkowitz.issho.hachi.clock;
+
+import com.google.common.collect.Lists;
+import lombok.Getter;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.List;
+
+import static javax.sound.midi.ShortMessage.*;
+
+/**
+ * Sends Hachi's clock to other devices: 24ppqn TIMING_CLOCK, START/STOP/CONTINUE and SONG_POSITION_POINTER,
+ * on any number of output ports.
+ *
+ * Pulses are stamped with the clock's ideal time (microseconds on the MidiScheduler timebase), so a port
+ * wrapped in a MidiScheduler sends them exactly on the grid. Each port has a latency offset: a device that
+ * responds late to clock can be sent its clock that much earlier, up to the clock's lookahead.
+ *
+ * As the MIDI spec requires, START and CONTINUE go out just ahead of the first pulse that should play.
+ * STOP is stamped with the last pulse's time, so a scheduled port sends it after any pulses still queued.
+ */
+public class MidiClockOutput {
+
+    private static final int MAX_SONG_POSITION = 0x3FFF;
+
+    private final List<Port> ports = Lists.newArrayList();
+    private final ShortMessage clockMessage = realtime(TIMING_CLOCK);
+    private final ShortMessage startMessage = realtime(START);
+    private final ShortMessage continueMessage = realtime(CONTINUE);
+    private final ShortMessage stopMessage = realtime(STOP);
+
+    private ShortMessage pending = null;
+    private int pendingSongPosition = 0;
+    private long lastTimestamp = -1;
+    @Getter private long pulseCount = 0;
+
+
+    /**
+     * @param receiver
+     * @param latencyMicros: how much earlier than the beat this port's clock should be sent
+     */
+    public void addPort(Receiver receiver, long latencyMicros) {
+        ports.add(new Port(receiver, latencyMicros));
+    }
+
+    public int getPortCount() {
+        return ports.size();
+    }
+
+
+    /***** transport ****************************************/
+
+    /**
+     * send START (and song position 0) with the next pulse
+     */
+    public void start() {
+        pending = startMessage;
+        pendingSongPosition = 0;
+    }
+
+    /**
+     * send CONTINUE with the next pulse, after moving the song position
+     *
+     * @param songPosition: in 16th notes (6 pulses)
+     */
+    public void continueAt(int songPosition) {
+        pending = continueMessage;
+        pendingSongPosition = songPosition;
+    }
+
+    /**
+     * send STOP, after any pulses that were sent ahead of their time and are still waiting to go out
+     */
+    public void stop() {
+        pending = null;
+        send(stopMessage, lastTimestamp);
+        lastTimestamp = -1;
+    }
+
+
+    /***** pulses ****************************************/
+
+    /**
+     * send one clock pulse
+     *
+     * @param timestamp: ideal time of the pulse in microseconds, or -1 for now
+     */
+    public void pulse(long timestamp) {
+        if (pending != null) {
+            send(songPosition(pendingSongPosition), timestamp);
+            send(pending, timestamp);
+            pending = null;
+        }
+        send(clockMessage, timestamp);
+        lastTimestamp = timestamp;
+        pulseCount++;
+    }
+
+
+    /***** private implementation ****************************************/
+
+    private void send(ShortMessage message, long timestamp) {
+        if (message == null) return;
+        for (Port port : ports) {
+            long portTimestamp = timestamp;
+            if (timestamp >= 0) {
+                portTimestamp = Math.max(0, timestamp - port.latencyMicros);
+            }
+            port.receiver.send(message, portTimestamp);
+        }
+    }
+
+    private static ShortMessage realtime(int status) {
+        try {
+            return new ShortMessage(status);
+        } catch (InvalidMidiDataException e) {
+            System.err.println(e);
+        }
+        return null;
+    }
+
+    private static ShortMessage songPosition(int position) {
+        position = Math.max(0, Math.min(MAX_SONG_POSITION, position));
+        try {
+            return new ShortMessage(SONG_POSITION_POINTER, position & 0x7F, (position >> 7) & 0x7F);
+        } catch (InvalidMidiDataException e) {
+            System.err.println(e);
+        }
+        return null;
+    }
+
+
+    /***** Port ****************************************/
+
+    private static class Port {
+
+        private final Receiver receiver;
+        private final long latencyMicros;
+
+        private Port(Receiver receiver, long latencyMicros) {
+            this.receiver = receiver;
+            this.latencyMicros = latencyMicros;
+        }
+    }
+
+}
@@ -0,0 +1,218 @@
+package net.perkowitz.issho.hachi.clock;
+
+import com.google.common.collect.Maps;
+import lombok.Getter;
+import net.perkowitz.issho.util.LatencyHistogram;
+
+import java.util.Map;
+
+/**
+ * Software phase-locked loop for following an external midi clock.
+ *
+ * Incoming clock pulses arrive with USB and OS jitter. Rather than running the modules directly from them,
+ * an alpha-beta filter estimates the pulse period and where the pulses "should" have landed, and steers a
+ * ClockEngine (tempo and phase, via ClockEngine.sync) so that its pulses follow the smoothed grid.
+ * The modules run from the engine's pulses, which are steady and can be scheduled with lookahead.
+ *
+ * If the external clock drops out, the engine keeps running at the last estimated tempo for up to
+ * FLYWHEEL_PULSES, then holds. When pulses resume, the loop snaps back onto them without a restart.
+ *
+ * All methods except the getters are meant to be called from a single thread (the sequencer loop).
+ */
+public class MidiClockPll {
+
+    // how much of each pulse's timing error is applied to the phase and the period
+    private static final double PHASE_GAIN = 0.1;
+    private static final double PERIOD_GAIN = 0.005;
+
+    // no input for this many pulses means the external clock has dropped out
+    private static final int DROPOUT_PULSES = 12;
+    // after a dropout, keep running at the last tempo for this many pulses before holding
+    private static final int FLYWHEEL_PULSES = ClockEngine.PULSES_PER_BEAT * 4;
+
+    private static final double MIN_TEMPO = 20;
+    private static final double MAX_TEMPO = 300;
+    private static final double MIN_PERIOD_NANOS = ClockEngine.intervalNanos(MAX_TEMPO);
+    private static final double MAX_PERIOD_NANOS = ClockEngine.intervalNanos(MIN_TEMPO);
+
+    private final ClockEngine clockEngine;
+
+    private boolean playingInput = false;
+    private boolean following = false;
+    private long lastInputNanos = 0;
+    private long lastOutputNanos = 0;
+    private long estimateNanos = 0;
+    private double periodNanos = 0;
+
+    @Getter private volatile long phaseErrorNanos = 0;
+    @Getter private volatile long dropoutCount = 0;
+    @Getter private volatile long inputCount = 0;
+    @Getter private final LatencyHistogram phaseError = new LatencyHistogram();
+    @Getter private final LatencyHistogram inputJitter = new LatencyHistogram();
+
+
+    public MidiClockPll(ClockEngine clockEngine) {
+        this.clockEngine = clockEngine;
+    }
+
+
+    /***** transport ****************************************/
+
+    /**
+     * the external clock has started (or continued); the next input pulse is the first one to play,
+     * and the input pulses are played directly until the period is known
+     */
+    public void start() {
+        following = false;
+        playingInput = true;
+    }
+
+    public void stop() {
+        following = false;
+        playingInput = false;
+    }
+
+
+    /***** pulses ****************************************/
+
+    /**
+     * handle a pulse from the external clock.
+     *
+     * @param nowNanos: arrival time on the System.nanoTime() timebase
+     * @return true if the caller should play this pulse immediately: the first pulse after a start, and
+     * any after it until the period has been measured; after that the engine's pulses are played instead
+     */
+    public boolean onInputPulse(long nowNanos) {
+
+        inputCount++;
+        long gap = nowNanos - lastInputNanos;
+
+        if (lastInputNanos == 0 || gap > dropoutNanos()) {
+            // first pulse ever, or the first after a dropout: take its time as is and keep the old period
+            if (lastInputNanos != 0) {
+                dropoutCount++;
+            }
+            estimateNanos = nowNanos;
+
+        } else if (periodNanos == 0) {
+            periodNanos = clampPeriod(gap);
+            estimateNanos = nowNanos;
+
+        } else {
+            // alpha-beta filter; a missed pulse is treated as one more period rather than as an error
+            long steps = Math.max(1, Math.round(gap / periodNanos));
+            double predicted = estimateNanos + steps * periodNanos;
+            double residual = nowNanos - predicted;
+            inputJitter.record(Math.abs(Math.round(residual)));
+            estimateNanos = Math.round(predicted + PHASE_GAIN * residual);
+            periodNanos = clampPeriod(periodNanos + PERIOD_GAIN * residual / steps);
+        }
+        lastInputNanos = nowNanos;
+
+        boolean playNow = false;
+        if (playingInput) {
+            // the engine only takes over once it can be given a tempo, or it would play at the internal one
+            playNow = true;
+            lastOutputNanos = nowNanos;
+            if (periodNanos > 0) {
+                playingInput = false;
+                following = true;
+            }
+        } else if (following && periodNanos > 0) {
+            long error = nowNanos - nearestOutput(nowNanos);
+            phaseErrorNanos = error;
+            phaseError.record(Math.abs(error));
+        }
+
+        if (periodNanos > 0) {
+            // next output pulse falls on the smoothed grid, but never within half a period of the last one
+            double next = estimateNanos + periodNanos;
+            while (next < lastOutputNanos + periodNanos / 2) {
+                next += periodNanos;
+            }
+            clockEngine.sync(Math.round(next), getTempo());
+        }
+
+        return playNow;
+    }
+
+    /**
+     * note that the engine has fired a pulse
+     *
+     * @param deadlineNanos
+     */
+    public void onOutputPulse(long deadlineNanos) {
+        lastOutputNanos = deadlineNanos;
+    }
+
+
+    /***** state ****************************************/
+
+    /**
+     * @return true from when the period is known after a start until a stop, unless the external clock
+     * has been gone longer than the flywheel allows
+     */
+    public boolean isFollowing() {
+        if (!following) {
+            return false;
+        }
+        double period = periodNanos > 0 ? periodNanos : MAX_PERIOD_NANOS;
+        return System.nanoTime() - lastInputNanos < (DROPOUT_PULSES + FLYWHEEL_PULSES) * period;
+    }
+
+    /**
+     * @return true if the external clock is arriving and the tempo has been estimated
+     */
+    public boolean isLocked() {
+        return periodNanos > 0 && lastInputNanos != 0 && System.nanoTime() - lastInputNanos < dropoutNanos();
+    }
+
+    /**
+     * @return estimated tempo of the external clock in bpm, or 0 before it has been measured
+     */
+    public double getTempo() {
+        return periodNanos > 0 ? (double) ClockEngine.NANOS_PER_MINUTE / (periodNanos * ClockEngine.PULSES_PER_BEAT) : 0;
+    }
+
+    public void resetStats() {
+        phaseError.reset();
+        inputJitter.reset();
+        dropoutCount = 0;
+        inputCount = 0;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        map.put("locked", isLocked());
+        map.put("following", isFollowing());
+        map.put("bpm", Math.round(getTempo() * 100) / 100.0);
+        map.put("phaseErrorMicros", phaseErrorNanos / 1000);
+        map.put("dropouts", dropoutCount);
+        map.put("pulses", inputCount);
+        map.put("phaseError", phaseError.summary());
+        map.put("inputJitter", inputJitter.summary());
+        return map;
+    }
+
+    public String toString() {
+        return String.format("%s bpm=%.2f phaseError=%dus dropouts=%d |phaseError| %s, jitter %s",
+                isLocked() ? "locked" : "unlocked", getTempo(), phaseErrorNanos / 1000, dropoutCount, phaseError, inputJitter);
+    }
+
+
+    /***** private implementation ****************************************/
+
+    private long nearestOutput(long nanos) {
+        long steps = Math.round((nanos - lastOutputNanos) / periodNanos);
+        return lastOutputNanos + Math.round(steps * periodNanos);
+    }
+
+    private double dropoutNanos() {
+        return DROPOUT_PULSES * (periodNanos > 0 ? periodNanos : MAX_PERIOD_NANOS);
+    }
+
+    private static double clampPeriod(double period) {
+        return Math.max(MIN_PERIOD_NANOS, Math.min(MAX_PERIOD_NANOS, period));
+    }
+
+}
@@ -1,17 +1,12 @@
 package net.perkowitz.issho.hachi.modules;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import net.perkowitz.issho.hachi.Chord;
 import net.perkowitz.issho.hachi.Chordable;
+import net.perkowitz.issho.midi.MidiScheduler;
 
 import javax.sound.midi.*;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
  * Created by optic on 10/24/16.
@@ -20,9 +15,15 @@ public class ChordModule extends MidiModule implements Chordable {
 
     protected Chord chord = null;
 
-    // remember what notes we actually played for input note numbers, so we can stop them later
-    // maps to a list rather than a set because some synths (e.g. Sub 37) track multiple ons/offs for same note
-    private Map<Integer, List<Integer>> playedNotesMap = Maps.newHashMap();
+    private static final int NOTES = 128;
+
+    // remember what notes we actually played for input note numbers, so we can stop them later:
+    // a count for each input and played note, and a bitmap per input of the played notes with a count.
+    // counts rather than flags because some synths (e.g. Sub 37) track multiple ons/offs for same note
+    private final byte[] playedCounts = new byte[NOTES * NOTES];
+    private final long[] playedNotes = new long[NOTES * 2];
+    private int lastNoteNumber = -1;
+    private int lastMappedNote = -1;
 
 
     public ChordModule(Transmitter inputTransmitter, Receiver outputReceiver) {
@@ -50,29 +51,39 @@ public class ChordModule extends MidiModule implements Chordable {
 
         if (velocity == 0) {
             // note off -- send note off for any notes we mapped this note number to
-            Collection<Integer> mappedNotes = playedNotesMap.get(noteNumber);
-            if (mappedNotes == null || mappedNotes.isEmpty()) {
-                mappedNotes = Sets.newHashSet(noteNumber);
-            }
-            for (Integer mappedNote : mappedNotes) {
-//                System.out.printf("- mapped note off for %d to %d\n", noteNumber, mappedNote);
-                send(channel, mappedNote, velocity);
+            if (playedNotes[noteNumber * 2] == 0 && playedNotes[noteNumber * 2 + 1] == 0) {
+                send(channel, noteNumber, velocity);
+            } else {
+                for (int word = noteNumber * 2; word < noteNumber * 2 + 2; word++) {
+                    long bits = playedNotes[word];
+                    while (bits != 0) {
+                        int mappedNote = (word - noteNumber * 2) * 64 + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+//                        System.out.printf("- mapped note off for %d to %d\n", noteNumber, mappedNote);
+                        for (int count = playedCounts[noteNumber * NOTES + mappedNote]; count > 0; count--) {
+                            send(channel, mappedNote, velocity);
+                        }
+                        playedCounts[noteNumber * NOTES + mappedNote] = 0;
+                    }
+                    playedNotes[word] = 0;
+                }
             }
-            playedNotesMap.put(noteNumber, Lists.<Integer>newArrayList());
 
         } else {
-            // note on -- once we compute any mapping, add those mappings to the playedNotesMap
+            // note on -- once we compute any mapping, remember it in playedCounts
             int mappedNote = noteNumber;
             if (chord != null && !chord.isEmpty()) {
                 mappedNote = chord.mapNote(noteNumber);
 //                System.out.printf("- mapped %d to %d\n", noteNumber, mappedNote);
             }
 
-            if (playedNotesMap.get(noteNumber) == null) {
-                playedNotesMap.put(noteNumber, Lists.<Integer>newArrayList(mappedNote));
-            } else {
-                playedNotesMap.get(noteNumber).add(mappedNote);
+            int index = noteNumber * NOTES + mappedNote;
+            if (playedCounts[index] < Byte.MAX_VALUE) {
+                playedCounts[index]++;
             }
+            playedNotes[noteNumber * 2 + (mappedNote >> 6)] |= 1L << (mappedNote & 63);
+            lastNoteNumber = noteNumber;
+            lastMappedNote = mappedNote;
             send(channel, mappedNote, velocity);
 
         }
@@ -80,13 +91,42 @@ public class ChordModule extends MidiModule implements Chordable {
 
     }
 
+    /**
+     * stop every note this module has on, and forget the mappings
+     */
+    @Override
+    protected void notesOff() {
+        super.notesOff();
+        forgetPlayedNotes(false);
+    }
+
+    /**
+     * stop every note but the one just played, and forget the other mappings
+     */
+    @Override
+    protected void notesOffExceptLast() {
+        super.notesOffExceptLast();
+        forgetPlayedNotes(true);
+    }
+
     protected void send(int channel, int noteNumber, int velocity) {
-        try {
-            ShortMessage noteMessage = new ShortMessage();
-            noteMessage.setMessage(ShortMessage.NOTE_ON, channel, noteNumber, velocity);
-            outputReceiver.send(noteMessage, -1);
-        } catch (InvalidMidiDataException e) {
-            System.err.println(e);
+        midiOutput.note(channel, noteNumber, velocity, MidiScheduler.eventTimestamp());
+    }
+
+
+    /***** private implementation ********************************/
+
+    private void forgetPlayedNotes(boolean keepLast) {
+        for (int noteNumber = 0; noteNumber < NOTES; noteNumber++) {
+            if (playedNotes[noteNumber * 2] != 0 || playedNotes[noteNumber * 2 + 1] != 0) {
+                Arrays.fill(playedCounts, noteNumber * NOTES, (noteNumber + 1) * NOTES, (byte) 0);
+                playedNotes[noteNumber * 2] = 0;
+                playedNotes[noteNumber * 2 + 1] = 0;
+            }
+        }
+        if (keepLast && lastNoteNumber >= 0) {
+            playedCounts[lastNoteNumber * NOTES + lastMappedNote] = 1;
+            playedNotes[lastNoteNumber * 2 + (lastMappedNote >> 6)] |= 1L << (lastMappedNote & 63);
         }
     }
 
@@ -1,12 +1,14 @@
 package net.perkowitz.issho.hachi.modules;
 
+import net.perkowitz.issho.midi.MidiOutput;
+import net.perkowitz.issho.midi.MidiScheduler;
+import net.perkowitz.issho.midi.NoteTracker;
+
 import javax.sound.midi.*;
 
 import static javax.sound.midi.ShortMessage.*;
 import static javax.sound.midi.ShortMessage.CONTROL_CHANGE;
 import static javax.sound.midi.ShortMessage.NOTE_OFF;
-import static net.perkowitz.issho.util.MidiUtil.MIDI_PITCH_BEND_MAX;
-import static net.perkowitz.issho.util.MidiUtil.MIDI_PITCH_BEND_MIN;
 import static net.perkowitz.issho.util.MidiUtil.MIDI_PITCH_BEND_ZERO;
 
 /**
@@ -21,6 +23,7 @@ public class MidiModule extends BasicModule implements Receiver {
 
     protected Transmitter inputTransmitter;
     protected Receiver outputReceiver;
+    protected MidiOutput midiOutput;
     protected boolean isMuted;
     protected int velocityVariability = 10;
 
@@ -32,6 +35,7 @@ public class MidiModule extends BasicModule implements Receiver {
 
         // where to send the sequencer's midi output
         this.outputReceiver = outputReceiver;
+        this.midiOutput = new MidiOutput(outputReceiver, outputReceiver == null ? null : NoteTracker.forPort(outputReceiver));
     }
 
 
@@ -54,7 +58,35 @@ public class MidiModule extends BasicModule implements Receiver {
         sendMidiCC(channel, MidiModule.MIDI_RESET_ALL_CONTROLLERS, 0);
     }
 
+    /**
+     * send a note off for every note this module has on
+     */
+    protected void notesOff() {
+        midiOutput.notesOff(MidiScheduler.eventTimestamp());
+    }
+
+    /**
+     * after a legato note on, stop every other note this module has on
+     */
+    protected void notesOffExceptLast() {
+        midiOutput.notesOffExceptLast(MidiScheduler.eventTimestamp());
+    }
+
+    /**
+     * send a note off for a note (as sent, after any mapping) only if this module has it on
+     */
+    protected void noteOff(int channel, int noteNumber) {
+        midiOutput.noteOff(channel, noteNumber, MidiScheduler.eventTimestamp());
+    }
+
     protected void sendMidiNote(int channel, int noteNumber, int velocity) {
+        sendMidiNote(midiOutput, channel, noteNumber, velocity);
+    }
+
+    /**
+     * send a note to another output port than the module's own (e.g. for a track routed elsewhere)
+     */
+    protected void sendMidiNote(MidiOutput output, int channel, int noteNumber, int velocity) {
 
 //        System.out.printf("sendMidiNote: %s, %d, %d, %d\n", this.toString(), channel, noteNumber, velocity);
 
@@ -66,14 +98,7 @@ public class MidiModule extends BasicModule implements Receiver {
             v = Math.min(127, Math.max(0, v));
         }
 
-        try {
-            ShortMessage noteMessage = new ShortMessage();
-            noteMessage.setMessage(ShortMessage.NOTE_ON, channel, noteNumber, v);
-            outputReceiver.send(noteMessage, -1);
-
-        } catch (InvalidMidiDataException e) {
-            System.err.println(e);
-        }
+        output.note(channel, noteNumber, v, MidiScheduler.eventTimestamp());
     }
 
     protected void sendMidiCC(int channel, int ccNumber, int value) {
@@ -81,51 +106,20 @@ public class MidiModule extends BasicModule implements Receiver {
 
         if (isMuted && value > 0) return;
 
-        try {
-            ShortMessage message = new ShortMessage();
-            message.setMessage(ShortMessage.CONTROL_CHANGE, channel, ccNumber, value);
-            outputReceiver.send(message, -1);
-
-        } catch (InvalidMidiDataException e) {
-            System.err.println(e);
-        }
+        midiOutput.cc(channel, ccNumber, value, MidiScheduler.eventTimestamp());
     }
 
     protected void sendMidiProgramChange(int channel, int value) {
 //        System.out.printf("Prog: %d, %d\n", channel, value);
 
-        try {
-            ShortMessage message = new ShortMessage();
-            message.setMessage(ShortMessage.PROGRAM_CHANGE, channel, value, 0);
-            outputReceiver.send(message, -1);
-
-        } catch (InvalidMidiDataException e) {
-            System.err.println(e);
-        }
+        midiOutput.programChange(channel, value, MidiScheduler.eventTimestamp());
     }
 
     protected void sendMidiPitchBend(int channel, int value) {
 
         if (isMuted && value != MIDI_PITCH_BEND_ZERO) return;
 
-        try {
-
-            if (value < MIDI_PITCH_BEND_MIN) {
-                value = MIDI_PITCH_BEND_MIN;
-            }
-            if (value > MIDI_PITCH_BEND_MAX) {
-                value = MIDI_PITCH_BEND_MAX;
-            }
-
-            int data1 = value & 0x7F;           // lower 7 bits
-            int data2 = (value & 0x3F80) >> 7;  // upper 7 bits (out of 14, not out of 16)
-            ShortMessage message = new ShortMessage();
-            message.setMessage(ShortMessage.PITCH_BEND, channel, data1, data2);  // for midi pitch bend, LSB precedes MSB
-            outputReceiver.send(message, -1);
-
-        } catch (InvalidMidiDataException e) {
-            System.err.println(e);
-        }
+        midiOutput.pitchBend(channel, value, MidiScheduler.eventTimestamp());
     }
 
     protected void sendMidiPitchBendZero(int channel) {
@@ -15,12 +15,16 @@ import net.perkowitz.issho.hachi.modules.Module;
 import net.perkowitz.issho.hachi.modules.Muteable;
 import net.perkowitz.issho.hachi.modules.SettingsSubmodule;
 import net.perkowitz.issho.hachi.modules.SettingsUtil;
+import net.perkowitz.issho.midi.MidiOutput;
+import net.perkowitz.issho.midi.MidiScheduler;
+import net.perkowitz.issho.midi.NoteTracker;
 import net.perkowitz.issho.util.MidiUtil;
 import org.codehaus.jackson.map.ObjectMapper;
 
 import javax.sound.midi.Receiver;
 import javax.sound.midi.Transmitter;
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -67,9 +71,12 @@ public class BeatModule extends MidiModule implements Module, Clockable, GridLis
     private boolean patternEditing = false;
     private boolean patternSelecting = false;
     private EditMode editMode = EditMode.GATE;
-    private List<Integer> onNotes = Lists.newArrayList();
     @Setter private List<Integer> sessionPrograms = Lists.newArrayList();
 
+    // tracks routed to another output port or channel; null or -1 to use the module's
+    private final MidiOutput[] trackOutputs = new MidiOutput[BeatUtil.TRACK_COUNT];
+    private final int[] trackChannels = new int[BeatUtil.TRACK_COUNT];
+
 
     /***** Constructor ****************************************/
 
@@ -79,9 +86,35 @@ public class BeatModule extends MidiModule implements Module, Clockable, GridLis
         this.beatDisplay.setPalette(palette);
         this.filePrefix = filePrefix;
         this.settingsModule = new SettingsSubmodule(true, true, true, true);
+        Arrays.fill(trackChannels, -1);
         load(0);
     }
 
+    /**
+     * send a track's notes to another output port and/or channel
+     *
+     * @param trackIndex
+     * @param receiver: the output port, or null for the module's
+     * @param channel: the channel, or -1 for the module's
+     */
+    public void setTrackOutput(int trackIndex, Receiver receiver, int channel) {
+        if (trackIndex < 0 || trackIndex >= BeatUtil.TRACK_COUNT) return;
+        MidiOutput output = null;
+        if (receiver != null && receiver != outputReceiver) {
+            // tracks on the same port share an output
+            for (MidiOutput trackOutput : trackOutputs) {
+                if (trackOutput != null && trackOutput.getReceiver() == receiver) {
+                    output = trackOutput;
+                }
+            }
+            if (output == null) {
+                output = new MidiOutput(receiver, NoteTracker.forPort(receiver));
+            }
+        }
+        trackOutputs[trackIndex] = output;
+        trackChannels[trackIndex] = channel;
+    }
+
 
     /***** private implementation ****************************************/
 
@@ -145,7 +178,12 @@ public class BeatModule extends MidiModule implements Module, Clockable, GridLis
         // if a fill is playing that shuffles the steps, this will figure out which step is actually playing
         int actualStep = playingPattern.getStep(0, nextStepIndex).getIndex();
         boolean drawMeasure = currentPulse < 12;
-        beatDisplay.drawStepsClock(actualStep, currentMeasure, drawMeasure);
+        LedPriority previousPriority = LedPriority.set(LedPriority.PLAYHEAD);
+        try {
+            beatDisplay.drawStepsClock(actualStep, currentMeasure, drawMeasure);
+        } finally {
+            LedPriority.set(previousPriority);
+        }
 
 
         // send the midi notes
@@ -160,14 +198,14 @@ public class BeatModule extends MidiModule implements Module, Clockable, GridLis
             BeatStep step = playingPattern.getStep(trackIndex, nextStepIndex);
             if (step.getGateMode() == PLAY) {
                 // if it's a PLAY step, stop any previous notes and then play (if track enabled)
-                noteOff(track.getNoteNumber());
+                noteOff(track);
                 playingTrack.setPlaying(true);
                 if (memory.getCurrentSession().trackIsEnabled(track.getIndex())) {
-                    sendMidiNote(memory.getMidiChannel(), track.getNoteNumber(), step.getVelocity());
+                    sendTrackNote(track, step.getVelocity());
                 }
             } else if (step.getGateMode() == REST) {
                 // if it's a REST step, stop any previous notes
-                noteOff(track.getNoteNumber());
+                noteOff(track);
             } else if (step.getGateMode() == TIE) {
                 // if it's a TIE, you just let it keep going
             }
@@ -323,19 +361,19 @@ public class BeatModule extends MidiModule implements Module, Clockable, GridLis
      */
 
     public void onPadPressed(GridPad pad, int velocity) {
-        onControlPressed(new GridControl(pad, null), velocity);
+        onControlPressed(GridControl.at(pad), velocity);
     }
 
     public void onPadReleased(GridPad pad) {
-        onControlReleased(new GridControl(pad, null));
+        onControlReleased(GridControl.at(pad));
     }
 
     public void onButtonPressed(GridButton button, int velocity) {
-        onControlPressed(new GridControl(button, null), velocity);
+        onControlPressed(GridControl.at(button), velocity);
     }
 
     public void onButtonReleased(GridButton button) {
-        onControlReleased(new GridControl(button, null));
+        onControlReleased(GridControl.at(button));
     }
 
     /**
@@ -404,7 +442,7 @@ public class BeatModule extends MidiModule implements Module, Clockable, GridLis
                     break;
                 case JUMP:
                     BeatTrack track = memory.getSelectedPattern().getTrack(index);
-                    sendMidiNote(memory.getMidiChannel(), track.getNoteNumber(), velocity);
+                    sendTrackNote(track, velocity);
                     beatDisplay.drawControlHighlight(control, true);
                     break;
                 case PITCH:
@@ -561,7 +599,7 @@ public class BeatModule extends MidiModule implements Module, Clockable, GridLis
             switch (editMode) {
                 case JUMP:
                     BeatTrack track = memory.getSelectedPattern().getTrack(index);
-                    sendMidiNote(memory.getMidiChannel(), track.getNoteNumber(), 0);
+                    sendTrackNote(track, 0);
                     beatDisplay.drawControlHighlight(control, false);
                     break;
                 case PITCH:
@@ -703,28 +741,38 @@ public class BeatModule extends MidiModule implements Module, Clockable, GridLis
      *
      */
     protected void sendMidiNote(int channel, int noteNumber, int velocity) {
-        if (velocity != 0) {
-            onNotes.add(noteNumber);
-        }
         int offsetNoteNumber = midiNoteOffset + noteNumber;
         super.sendMidiNote(channel, offsetNoteNumber, velocity);
     }
 
-    private void notesOff() {
-        for (Integer note : onNotes) {
-            sendMidiNote(memory.getMidiChannel(), note, 0);
+    private void sendTrackNote(BeatTrack track, int velocity) {
+        int index = track.getIndex();
+        sendMidiNote(trackOutput(index), trackChannel(index), midiNoteOffset + track.getNoteNumber(), velocity);
+    }
 
-        }
-        onNotes.clear();
+    private void noteOff(BeatTrack track) {
+        int index = track.getIndex();
+        trackOutput(index).noteOff(trackChannel(index), midiNoteOffset + track.getNoteNumber(), MidiScheduler.eventTimestamp());
     }
 
-    private void noteOff(Integer note) {
-        if (onNotes.contains(note)) {
-            sendMidiNote(memory.getMidiChannel(), note, 0);
-            onNotes.remove(note);
+    @Override
+    protected void notesOff() {
+        super.notesOff();
+        for (MidiOutput trackOutput : trackOutputs) {
+            if (trackOutput != null) {
+                trackOutput.notesOff(MidiScheduler.eventTimestamp());
+            }
         }
     }
 
+    private MidiOutput trackOutput(int index) {
+        return trackOutputs[index] != null ? trackOutputs[index] : midiOutput;
+    }
+
+    private int trackChannel(int index) {
+        return trackChannels[index] >= 0 ? trackChannels[index] : memory.getMidiChannel();
+    }
+
 
 
     /***** Saveable implementation ***************************************
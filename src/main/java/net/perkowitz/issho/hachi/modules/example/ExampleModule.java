@@ -176,19 +176,19 @@ public class ExampleModule extends MidiModule implements Module, Clockable, Grid
      */
 
     public void onPadPressed(GridPad pad, int velocity) {
-        onControlPressed(new GridControl(pad, null), velocity);
+        onControlPressed(GridControl.at(pad), velocity);
     }
 
     public void onPadReleased(GridPad pad) {
-        onControlReleased(new GridControl(pad, null));
+        onControlReleased(GridControl.at(pad));
     }
 
     public void onButtonPressed(GridButton button, int velocity) {
-        onControlPressed(new GridControl(button, null), velocity);
+        onControlPressed(GridControl.at(button), velocity);
     }
 
     public void onButtonReleased(GridButton button) {
-        onControlReleased(new GridControl(button, null));
+        onControlReleased(GridControl.at(button));
     }
 
     /**
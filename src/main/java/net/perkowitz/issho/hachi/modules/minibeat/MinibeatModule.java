@@ -10,6 +10,7 @@ import net.perkowitz.issho.hachi.Clockable;
 import net.perkowitz.issho.hachi.Saveable;
 import net.perkowitz.issho.hachi.Sessionizeable;
 import net.perkowitz.issho.hachi.modules.*;
+import net.perkowitz.issho.midi.MidiScheduler;
 import org.codehaus.jackson.map.ObjectMapper;
 
 import javax.sound.midi.InvalidMidiDataException;
@@ -242,19 +243,19 @@ public class MinibeatModule extends MidiModule implements Module, Clockable, Gri
      */
 
     public void onPadPressed(GridPad pad, int velocity) {
-        onControlPressed(new GridControl(pad, null), velocity);
+        onControlPressed(GridControl.at(pad), velocity);
     }
 
     public void onPadReleased(GridPad pad) {
-        onControlReleased(new GridControl(pad, null));
+        onControlReleased(GridControl.at(pad));
     }
 
     public void onButtonPressed(GridButton button, int velocity) {
-        onControlPressed(new GridControl(button, null), velocity);
+        onControlPressed(GridControl.at(button), velocity);
     }
 
     public void onButtonReleased(GridButton button) {
-        onControlReleased(new GridControl(button, null));
+        onControlReleased(GridControl.at(button));
     }
 
     /**
@@ -465,15 +466,8 @@ public class MinibeatModule extends MidiModule implements Module, Clockable, Gri
 
         if (isMuted && velocity > 0) return;
 
-        try {
-            int offsetNoteNumber = midiNoteOffset + noteNumber;
-            ShortMessage noteMessage = new ShortMessage();
-            noteMessage.setMessage(ShortMessage.NOTE_ON, channel, offsetNoteNumber, velocity);
-            outputReceiver.send(noteMessage, -1);
-
-        } catch (InvalidMidiDataException e) {
-            System.err.println(e);
-        }
+        int offsetNoteNumber = midiNoteOffset + noteNumber;
+        midiOutput.note(channel, offsetNoteNumber, velocity, MidiScheduler.eventTimestamp());
 
     }
 
@@ -2,7 +2,9 @@ package net.perkowitz.issho.hachi.modules.mono;
 
 import lombok.Getter;
 import lombok.Setter;
+import net.perkowitz.issho.devices.AnimatedColor;
 import net.perkowitz.issho.devices.GridButton;
+import net.perkowitz.issho.devices.GridColor;
 import net.perkowitz.issho.devices.GridControl;
 import net.perkowitz.issho.devices.GridDisplay;
 import net.perkowitz.issho.devices.GridPad;
@@ -19,12 +21,24 @@ import static net.perkowitz.issho.hachi.modules.mono.MonoUtil.*;
 public class MonoDisplay {
 
     @Setter private GridDisplay display;
-    @Getter @Setter private List<Color> palette = MonoUtil.PALETTE_FUCHSIA;
+    @Getter private List<Color> palette = MonoUtil.PALETTE_FUCHSIA;
+    // the selected step flashing against each palette color, built once per palette
+    private AnimatedColor[] selectedStepColors;
     @Getter @Setter private boolean settingsMode = false;
     @Getter @Setter private int currentFileIndex = 0;
 
     public MonoDisplay(GridDisplay display) {
         this.display = display;
+        setPalette(palette);
+    }
+
+    public void setPalette(List<Color> palette) {
+        this.palette = palette;
+        Color selected = palette.get(MonoUtil.COLOR_KEYBOARD_SELECTED);
+        selectedStepColors = new AnimatedColor[palette.size()];
+        for (int index = 0; index < palette.size(); index++) {
+            selectedStepColors[index] = AnimatedColor.flash(selected, palette.get(index));
+        }
     }
 
     public void redraw(MonoMemory memory) {
@@ -170,25 +184,30 @@ public class MonoDisplay {
         }
 
 
-        Color stepColor = palette.get(MonoUtil.COLOR_STEP_OFF);
+        int stepColorIndex = MonoUtil.COLOR_STEP_OFF;
         if (highlight) {
-            stepColor = palette.get(MonoUtil.COLOR_STEP_HIGHLIGHT);
+            stepColorIndex = MonoUtil.COLOR_STEP_HIGHLIGHT;
             if (highlight && step.isEnabled()) {
 //                display.setPad(GridPad.at(keyX, keyY), palette.get(MonoUtil.COLOR_KEYBOARD_HIGHLIGHT));
             }
         } else if (step.isEnabled()) {
             switch (step.getGate()) {
                 case PLAY:
-                    stepColor = palette.get(MonoUtil.COLOR_STEP_PLAY);
+                    stepColorIndex = MonoUtil.COLOR_STEP_PLAY;
                     break;
                 case TIE:
-                    stepColor = palette.get(MonoUtil.COLOR_STEP_TIE);
+                    stepColorIndex = MonoUtil.COLOR_STEP_TIE;
                     break;
                 case REST:
-                    stepColor = palette.get(MonoUtil.COLOR_STEP_REST);
+                    stepColorIndex = MonoUtil.COLOR_STEP_REST;
                     break;
             }
         }
+        GridColor stepColor = palette.get(stepColorIndex);
+        if (step.isSelected() && !highlight) {
+            // the device flashes the selected step by itself where it can
+            stepColor = selectedStepColors[stepColorIndex];
+        }
         display.setPad(GridPad.at(x, y), stepColor);
 
     }
@@ -14,8 +14,6 @@ import javax.sound.midi.Transmitter;
 import java.io.File;
 import java.util.List;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import static net.perkowitz.issho.hachi.modules.mono.MonoUtil.*;
 import static net.perkowitz.issho.hachi.modules.mono.MonoUtil.Gate.PLAY;
@@ -36,11 +34,7 @@ public class MonoModule extends ChordModule implements Module, Clockable, GridLi
     private int nextStepIndex = 0;
     private MonoDisplay monoDisplay;
 
-    private Set<Integer> onNotes = Sets.newHashSet();
 
-    private static Timer timer = null;
-    private static int flashIntervalMillis = 125;
-    private static int flashCount = 0;
 
     private MonoStep lastStep = null;
 
@@ -64,7 +58,6 @@ public class MonoModule extends ChordModule implements Module, Clockable, GridLi
         monoDisplay = new MonoDisplay(this.display);
         monoDisplay.setPalette(palette);
         this.filePrefix = filePrefix;
-//        startTimer();
         load(0);
     }
 
@@ -107,7 +100,6 @@ public class MonoModule extends ChordModule implements Module, Clockable, GridLi
         } else if (step.isEnabled() && step.getGate() == PLAY) {
             notesOff();
             sendMidiNote(memory.getMidiChannel(), transpose + step.getNote(), step.getVelocity());
-            onNotes.add(step.getNote());
         } else if (step.isEnabled() && step.getGate() == MonoUtil.Gate.TIE) {
             // do nothing
         }
@@ -130,14 +122,6 @@ public class MonoModule extends ChordModule implements Module, Clockable, GridLi
         }
     }
 
-    private void notesOff() {
-        for (Integer note : onNotes) {
-            sendMidiNote(memory.getMidiChannel(), transpose + note, 0);
-
-        }
-        onNotes.clear();
-    }
-
     private void save(String filename) {
 
         try {
@@ -175,29 +159,6 @@ public class MonoModule extends ChordModule implements Module, Clockable, GridLi
 
     }
 
-    public void startTimer() {
-
-        if (timer != null) {
-            timer.cancel();
-        }
-
-        timer = new Timer();
-
-        timer.scheduleAtFixedRate(new TimerTask() {
-            public void run() {
-//                MonoStep step = memory.currentStep();
-//                if (step != null) {
-//                    if (flashCount == 0) {
-//                        monoDisplay.drawStepOff(step);
-//                    } else {
-//                        monoDisplay.drawStep(step);
-//                    }
-//                }
-//                flashCount = (flashCount + 1) % 2;
-            }
-        }, flashIntervalMillis, flashIntervalMillis);
-    }
-
 
     /***** Module implementation ***********************************/
 
@@ -249,19 +210,19 @@ public class MonoModule extends ChordModule implements Module, Clockable, GridLi
     /***** GridListener interface ****************************************/
 
     public void onPadPressed(GridPad pad, int velocity) {
-        onControlPressed(new GridControl(pad, null), velocity);
+        onControlPressed(GridControl.at(pad), velocity);
     }
 
     public void onPadReleased(GridPad pad) {
-        onControlReleased(new GridControl(pad, null));
+        onControlReleased(GridControl.at(pad));
     }
 
     public void onButtonPressed(GridButton button, int velocity) {
-        onControlPressed(new GridControl(button, null), velocity);
+        onControlPressed(GridControl.at(button), velocity);
     }
 
     public void onButtonReleased(GridButton button) {
-        onControlReleased(new GridControl(button, null));
+        onControlReleased(GridControl.at(button));
     }
 
     private void onControlPressed(GridControl control, int velocity) {
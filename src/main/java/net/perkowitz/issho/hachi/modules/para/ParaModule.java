@@ -36,7 +36,7 @@ public class ParaModule extends ChordModule implements Module, Clockable, GridLi
     private ParaDisplay paraDisplay;
     private SettingsSubmodule settingsModule;
 
-    private Set<Integer> onNotes = Sets.newHashSet();
+    private Set<Integer> keyboardNotes = Sets.newHashSet();
 
     private ParaStep lastStep = null;
 
@@ -106,15 +106,20 @@ public class ParaModule extends ChordModule implements Module, Clockable, GridLi
         }
 
         // unhighlight the previous step
-        if (lastStep != null) {
-            paraDisplay.drawStep(memory, lastStep, false);
-//            lastStep = null;
+        LedPriority previousPriority = LedPriority.set(LedPriority.PLAYHEAD);
+        try {
+            if (lastStep != null) {
+                paraDisplay.drawStep(memory, lastStep, false);
+//                lastStep = null;
+            }
+        } finally {
+            LedPriority.set(previousPriority);
         }
 
 //        paraDisplay.drawKeyboard(memory, memory.currentStep(), false);
 
         if (!stepEditing) {
-            paraDisplay.drawKeyboardNotes(onNotes, true, false, memory.getStepSelectMode());
+            paraDisplay.drawKeyboardNotes(keyboardNotes, true, false, memory.getStepSelectMode());
         }
 
         // advance to the next step and play notes
@@ -141,7 +146,7 @@ public class ParaModule extends ChordModule implements Module, Clockable, GridLi
             drawKeyboardNotes = true;
             for (int note : step.getNotes()) {
                 sendMidiNote(memory.getMidiChannel(), transpose + note, step.getVelocity());
-                onNotes.add(note);
+                keyboardNotes.add(note);
             }
         } else if (step.isEnabled() && step.getGate() == TIE) {
             // for a TIE we just keep doing what we've been doing
@@ -154,7 +159,7 @@ public class ParaModule extends ChordModule implements Module, Clockable, GridLi
 //        if (drawKeyboardNotes) {
 ////            paraDisplay.drawKeyboard();
 //            if (lastStep != null) {
-//                paraDisplay.drawKeyboardNotes(onNotes, true);
+//                paraDisplay.drawKeyboardNotes(keyboardNotes, true);
 //            }
 //            paraDisplay.drawKeyboardNotes(step.getNotes(), false);
 //        }
@@ -165,22 +170,25 @@ public class ParaModule extends ChordModule implements Module, Clockable, GridLi
             if (step.equals(memory.selectedStep())) {
                 editFlag = true;
             }
-            paraDisplay.drawKeyboardNotes(onNotes, false, editFlag, memory.getStepSelectMode());
+            paraDisplay.drawKeyboardNotes(keyboardNotes, false, editFlag, memory.getStepSelectMode());
         }
 
         // always draw the step itself
-        paraDisplay.drawStep(memory, editStep, true);
+        previousPriority = LedPriority.set(LedPriority.PLAYHEAD);
+        try {
+            paraDisplay.drawStep(memory, editStep, true);
+        } finally {
+            LedPriority.set(previousPriority);
+        }
 
         lastStep = editStep;
         nextStepIndex = (nextStepIndex + 1) % ParaPattern.STEP_COUNT;
     }
 
-    private void notesOff() {
-        for (Integer note : onNotes) {
-            sendMidiNote(memory.getMidiChannel(), transpose + note, 0);
-
-        }
-        onNotes.clear();
+    @Override
+    protected void notesOff() {
+        super.notesOff();
+        keyboardNotes.clear();
     }
 
     private void save(String filename) {
@@ -310,19 +318,19 @@ public class ParaModule extends ChordModule implements Module, Clockable, GridLi
     /***** GridListener interface ****************************************/
 
     public void onPadPressed(GridPad pad, int velocity) {
-        onControlPressed(new GridControl(pad, null), velocity);
+        onControlPressed(GridControl.at(pad), velocity);
     }
 
     public void onPadReleased(GridPad pad) {
-        onControlReleased(new GridControl(pad, null));
+        onControlReleased(GridControl.at(pad));
     }
 
     public void onButtonPressed(GridButton button, int velocity) {
-        onControlPressed(new GridControl(button, null), velocity);
+        onControlPressed(GridControl.at(button), velocity);
     }
 
     public void onButtonReleased(GridButton button) {
-        onControlReleased(new GridControl(button, null));
+        onControlReleased(GridControl.at(button));
     }
 
     private void onControlPressed(GridControl control, int velocity) {
@@ -11,6 +11,9 @@ import net.perkowitz.issho.hachi.Sessionizeable;
 import net.perkowitz.issho.hachi.modules.Muteable;
 import net.perkowitz.issho.hachi.modules.rhythm.models.*;
 import net.perkowitz.issho.hachi.modules.Module;
+import net.perkowitz.issho.midi.MidiOutput;
+import net.perkowitz.issho.midi.MidiScheduler;
+import net.perkowitz.issho.midi.NoteTracker;
 import org.codehaus.jackson.map.ObjectMapper;
 
 import javax.sound.midi.InvalidMidiDataException;
@@ -46,6 +49,7 @@ public class RhythmModule implements Module, RhythmInterface, Clockable, Session
     private RhythmDisplay rhythmDisplay;
     private Transmitter inputTransmitter;
     private Receiver outputReceiver;
+    private MidiOutput midiOutput;
 
     private Map<RhythmInterface.Mode, Boolean> modeIsActiveMap = Maps.newHashMap();
     private Map<RhythmDisplay.DisplayButton, RhythmDisplay.ButtonState> buttonStateMap = Maps.newHashMap();
@@ -91,6 +95,7 @@ public class RhythmModule implements Module, RhythmInterface, Clockable, Session
 
         // where to send the sequencer's midi output
         this.outputReceiver = outputReceiver;
+        this.midiOutput = new MidiOutput(outputReceiver, NoteTracker.forPort(outputReceiver));
 
         this.filePrefix = filePrefix;
 
@@ -597,15 +602,8 @@ public class RhythmModule implements Module, RhythmInterface, Clockable, Session
 
         if (muted && velocity > 0) return;
 
-        try {
-            int offsetNoteNumber = midiNoteOffset + noteNumber;
-            ShortMessage noteMessage = new ShortMessage();
-            noteMessage.setMessage(ShortMessage.NOTE_ON, channel, offsetNoteNumber, velocity);
-            outputReceiver.send(noteMessage, -1);
-
-        } catch (InvalidMidiDataException e) {
-            System.err.println(e);
-        }
+        int offsetNoteNumber = midiNoteOffset + noteNumber;
+        midiOutput.note(channel, offsetNoteNumber, velocity, MidiScheduler.eventTimestamp());
 
     }
 
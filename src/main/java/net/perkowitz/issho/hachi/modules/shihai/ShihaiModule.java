@@ -12,6 +12,7 @@ import net.perkowitz.issho.hachi.Multitrack;
 import net.perkowitz.issho.hachi.Sessionizeable;
 import net.perkowitz.issho.devices.GridControl;
 import net.perkowitz.issho.hachi.modules.*;
+import net.perkowitz.issho.midi.NoteTracker;
 
 import javax.sound.midi.Receiver;
 import javax.sound.midi.Transmitter;
@@ -45,6 +46,7 @@ public class ShihaiModule extends MidiModule implements Clockable {
     private int patternsReleasedCount = 0;
     private int tempoIndex = 2;
     @Setter private List<Integer> panicExclude = null;
+    private List<NoteTracker> noteTrackers = Lists.newArrayList();
 
 
     /***** constructor ****************************************/
@@ -53,6 +55,20 @@ public class ShihaiModule extends MidiModule implements Clockable {
         super(inputTransmitter, outputReceiver);
         this.shihaiDisplay = new ShihaiDisplay(display);
         this.settingsModule = new SettingsSubmodule(true, false, false, false);
+        if (midiOutput.getNoteTracker() != null) {
+            noteTrackers.add(midiOutput.getNoteTracker());
+        }
+    }
+
+    /**
+     * another output port whose notes the panic button should stop
+     *
+     * @param noteTracker
+     */
+    public void addNoteTracker(NoteTracker noteTracker) {
+        if (!noteTrackers.contains(noteTracker)) {
+            noteTrackers.add(noteTracker);
+        }
     }
 
 
@@ -100,19 +116,19 @@ public class ShihaiModule extends MidiModule implements Clockable {
     /***** GridListener interface ****************************************/
 
     public void onPadPressed(GridPad pad, int velocity) {
-        onControlPressed(new GridControl(pad, null), velocity);
+        onControlPressed(GridControl.at(pad), velocity);
     }
 
     public void onPadReleased(GridPad pad) {
-        onControlReleased(new GridControl(pad, null));
+        onControlReleased(GridControl.at(pad));
     }
 
     public void onButtonPressed(GridButton button, int velocity) {
-        onControlPressed(new GridControl(button, null), velocity);
+        onControlPressed(GridControl.at(button), velocity);
     }
 
     public void onButtonReleased(GridButton button) {
-        onControlReleased(new GridControl(button, null));
+        onControlReleased(GridControl.at(button));
     }
 
     private void onControlPressed(GridControl control, int velocity) {
@@ -124,8 +140,12 @@ public class ShihaiModule extends MidiModule implements Clockable {
 
         } else if (control.equals(ShihaiUtil.panicControl)) {
             shihaiDisplay.drawControl(ShihaiUtil.panicControl, true);
+            // note offs for everything the modules have on, on every port, for synths that ignore all notes off
             for (int channel = 0; channel < 16; channel++) {
                 if (panicExclude == null || !panicExclude.contains(channel)) {
+                    for (NoteTracker noteTracker : noteTrackers) {
+                        noteTracker.releaseChannel(channel);
+                    }
                     sendAllNotesOff(channel);
                 }
             }
@@ -1,7 +1,6 @@
 package net.perkowitz.issho.hachi.modules.step;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import net.perkowitz.issho.devices.*;
 import net.perkowitz.issho.hachi.Clockable;
@@ -14,7 +13,6 @@ import javax.sound.midi.Receiver;
 import javax.sound.midi.Transmitter;
 import java.io.File;
 import java.util.List;
-import java.util.Set;
 
 import static net.perkowitz.issho.hachi.modules.step.Stage.Marker.*;
 import static net.perkowitz.issho.hachi.modules.step.StepUtil.*;
@@ -31,7 +29,6 @@ public class StepModule extends ChordModule implements Module, Clockable, GridLi
     private SettingsSubmodule settingsModule;
     private boolean settingsView = false;
 
-    private Set<Integer> onNotes = Sets.newHashSet();
 
     private String filePrefix = "monomodule";
     private int currentFileIndex = 0;
@@ -125,7 +122,6 @@ public class StepModule extends ChordModule implements Module, Clockable, GridLi
             case Play:
                 notesOff();
                 int note = step.getNote();
-                onNotes.add(note);
                 sendMidiNote(memory.getMidiChannel(), note, step.getVelocity());
                 break;
             case Tie:
@@ -140,9 +136,8 @@ public class StepModule extends ChordModule implements Module, Clockable, GridLi
 //                    notesOff();
 //                }
                 // NOTE: the Sub 37 requires you to send a note off for every note on, even if you send 2 note ons for the same note
-                // not sure if other synths do this; if others do not, should remove this notesOff() and uncomment above if()
-                notesOff();
-                onNotes.add(note);
+                // not sure if other synths do this; if others do not, should remove this notesOffExceptLast() and uncomment above if()
+                notesOffExceptLast();
                 break;
         }
     }
@@ -168,14 +163,6 @@ public class StepModule extends ChordModule implements Module, Clockable, GridLi
         return memory.currentPattern().getStage(currentStageIndex);
     }
 
-    private void notesOff() {
-        for (Integer note : onNotes) {
-            sendMidiNote(memory.getMidiChannel(), note, 0);
-
-        }
-        onNotes.clear();
-    }
-
 
     /***** Module implementation ***********************************/
 
@@ -232,19 +219,19 @@ public class StepModule extends ChordModule implements Module, Clockable, GridLi
     /***** GridListener interface ****************************************/
 
     public void onPadPressed(GridPad pad, int velocity) {
-        onControlPressed(new GridControl(pad, null), velocity);
+        onControlPressed(GridControl.at(pad), velocity);
     }
 
     public void onPadReleased(GridPad pad) {
-        onControlReleased(new GridControl(pad, null));
+        onControlReleased(GridControl.at(pad));
     }
 
     public void onButtonPressed(GridButton button, int velocity) {
-        onControlPressed(new GridControl(button, null), velocity);
+        onControlPressed(GridControl.at(button), velocity);
     }
 
     public void onButtonReleased(GridButton button) {
-        onControlReleased(new GridControl(button, null));
+        onControlReleased(GridControl.at(button));
     }
 
     private void onControlPressed(GridControl control, int velocity) {
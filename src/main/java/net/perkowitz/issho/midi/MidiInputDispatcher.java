@@ -0,0 +1,280 @@
+package net.perkowitz.issho.midi;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import lombok.Getter;
+import net.perkowitz.issho.util.LatencyHistogram;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Transmitter;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Takes everything from one MIDI input (subscribed once to the device's transmitter) and passes each message
+ * on to every listener that wants it. Each listener asks for a set of channels and kinds of message, and the
+ * dispatcher keeps a table from status byte to listeners, rebuilt only when a listener is added, removed or
+ * changed. So a message costs one table lookup plus one send per interested listener, and allocates nothing.
+ *
+ * For code written against a javax Transmitter (e.g. the modules), transmitter() gives each caller its own
+ * Transmitter whose receiver is a listener for everything.
+ *
+ * Listeners are called on the device's input thread, in the order they were added. The dispatcher times each
+ * listener and the whole dispatch of each message; listeners that hand off to the sequencer thread (see
+ * SequencerLoop.receiver()) return right away, and the sequencer times the wait on its side.
+ */
+public class MidiInputDispatcher implements Receiver {
+
+    // kinds of message a listener can ask for, by status
+    public static final int NOTE = (1 << 0x8) | (1 << 0x9);
+    public static final int POLY_PRESSURE = 1 << 0xA;
+    public static final int CONTROL_CHANGE = 1 << 0xB;
+    public static final int PROGRAM_CHANGE = 1 << 0xC;
+    public static final int CHANNEL_PRESSURE = 1 << 0xD;
+    public static final int PITCH_BEND = 1 << 0xE;
+    public static final int SYSTEM = 1 << 0xF;          // sysex, song position and the rest of 0xF0-0xF7
+    public static final int REALTIME = 1 << 0x10;       // clock, start, stop, continue etc. (0xF8-0xFF)
+    public static final int ALL_KINDS = NOTE | POLY_PRESSURE | CONTROL_CHANGE | PROGRAM_CHANGE | CHANNEL_PRESSURE
+            | PITCH_BEND | SYSTEM | REALTIME;
+    public static final int ALL_CHANNELS = 0xFFFF;
+
+    private static final int STATUS_COUNT = 256;
+    private static final Listener[] NO_LISTENERS = new Listener[0];
+
+    @Getter private final String name;
+
+    // guarded by this; routes is replaced as a whole, so dispatch reads it without locking
+    private final List<Listener> listeners = Lists.newArrayList();
+    private volatile Listener[][] routes;
+
+    @Getter private final LatencyHistogram dispatchTime = new LatencyHistogram();
+    @Getter private volatile long messageCount = 0;
+    @Getter private volatile long unroutedCount = 0;
+
+
+    public MidiInputDispatcher(String name) {
+        this.name = name;
+        rebuildRoutes();
+    }
+
+    /**
+     * which kind a status byte is
+     *
+     * @param status
+     * @return one of the kind constants, or 0 for a data byte
+     */
+    public static int kind(int status) {
+        if (status < 0x80) {
+            return 0;
+        }
+        if (status >= 0xF8) {
+            return REALTIME;
+        }
+        return 1 << (status >> 4);
+    }
+
+    /**
+     * @param name: for the stats
+     * @param receiver
+     * @param channelMask: a bit for each channel wanted (0-15); system and realtime messages have no channel
+     * @param kindMask: kinds wanted, e.g. NOTE | CONTROL_CHANGE
+     * @return the listener, for changing its filter or removing it
+     */
+    public synchronized Listener addListener(String name, Receiver receiver, int channelMask, int kindMask) {
+        Listener listener = new Listener(name, receiver, channelMask, kindMask);
+        listeners.add(listener);
+        rebuildRoutes();
+        return listener;
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        if (listeners.remove(listener)) {
+            rebuildRoutes();
+        }
+    }
+
+    public synchronized List<Listener> getListeners() {
+        return Lists.newArrayList(listeners);
+    }
+
+    /**
+     * a Transmitter that adds its receiver as a listener for everything on this input
+     *
+     * @param name: for the stats
+     * @return
+     */
+    public Transmitter transmitter(String name) {
+        return new ListenerTransmitter(name);
+    }
+
+    /**
+     * how many listeners a status byte goes to
+     *
+     * @param status
+     * @return
+     */
+    public int getRouteCount(int status) {
+        return routes[status & 0xFF].length;
+    }
+
+    public synchronized void resetStats() {
+        dispatchTime.reset();
+        messageCount = 0;
+        unroutedCount = 0;
+        for (Listener listener : listeners) {
+            listener.time.reset();
+        }
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        map.put("name", name);
+        map.put("messages", messageCount);
+        map.put("unrouted", unroutedCount);
+        map.put("dispatch", dispatchTime.summary());
+        List<Map<String, Object>> listenerMaps = Lists.newArrayList();
+        for (Listener listener : getListeners()) {
+            listenerMaps.add(listener.toMap());
+        }
+        map.put("listeners", listenerMaps);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: messages=%d unrouted=%d listeners=%d dispatch: %s",
+                name, messageCount, unroutedCount, getListeners().size(), dispatchTime);
+    }
+
+
+    /***** Receiver implementation ****************************************/
+
+    public void send(MidiMessage message, long timeStamp) {
+        long start = System.nanoTime();
+        Listener[] targets = routes[message.getStatus() & 0xFF];
+        messageCount++;
+        if (targets.length == 0) {
+            unroutedCount++;
+            return;
+        }
+
+        long time = start;
+        for (Listener listener : targets) {
+            try {
+                listener.receiver.send(message, timeStamp);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            long now = System.nanoTime();
+            listener.time.record(now - time);
+            time = now;
+        }
+        dispatchTime.record(time - start);
+    }
+
+    public void close() {
+    }
+
+
+    /***** private implementation ****************************************/
+
+    /**
+     * work out every status byte's listeners from scratch; caller holds lock
+     */
+    private void rebuildRoutes() {
+        Listener[][] newRoutes = new Listener[STATUS_COUNT][];
+        List<Listener> targets = Lists.newArrayList();
+        for (int status = 0; status < STATUS_COUNT; status++) {
+            targets.clear();
+            for (Listener listener : listeners) {
+                if (listener.wants(status)) {
+                    targets.add(listener);
+                }
+            }
+            newRoutes[status] = targets.isEmpty() ? NO_LISTENERS : targets.toArray(new Listener[targets.size()]);
+        }
+        routes = newRoutes;
+    }
+
+
+    /***** listeners ****************************************/
+
+    public class Listener {
+
+        @Getter private final String name;
+        private final Receiver receiver;
+        @Getter private int channelMask;
+        @Getter private int kindMask;
+        @Getter private final LatencyHistogram time = new LatencyHistogram();
+
+        private Listener(String name, Receiver receiver, int channelMask, int kindMask) {
+            this.name = name;
+            this.receiver = receiver;
+            this.channelMask = channelMask;
+            this.kindMask = kindMask;
+        }
+
+        public void setFilter(int channelMask, int kindMask) {
+            synchronized (MidiInputDispatcher.this) {
+                this.channelMask = channelMask;
+                this.kindMask = kindMask;
+                rebuildRoutes();
+            }
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = Maps.newLinkedHashMap();
+            map.put("name", name);
+            map.put("time", time.summary());
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s", name, time);
+        }
+
+        private boolean wants(int status) {
+            int kind = kind(status);
+            if ((kindMask & kind) == 0) {
+                return false;
+            }
+            if (kind == SYSTEM || kind == REALTIME) {
+                return true;
+            }
+            return (channelMask & (1 << (status & 0x0F))) != 0;
+        }
+    }
+
+    private class ListenerTransmitter implements Transmitter {
+
+        private final String name;
+        private Listener listener = null;
+        private Receiver receiver = null;
+
+        private ListenerTransmitter(String name) {
+            this.name = name;
+        }
+
+        public synchronized void setReceiver(Receiver receiver) {
+            if (listener != null) {
+                removeListener(listener);
+                listener = null;
+            }
+            this.receiver = receiver;
+            if (receiver != null) {
+                listener = addListener(name, receiver, ALL_CHANNELS, ALL_KINDS);
+            }
+        }
+
+        public synchronized Receiver getReceiver() {
+            return receiver;
+        }
+
+        public void close() {
+            setReceiver(null);
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+package net.perkowitz.issho.midi;
+
+import lombok.Getter;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import static net.perkowitz.issho.util.MidiUtil.MIDI_PITCH_BEND_MAX;
+import static net.perkowitz.issho.util.MidiUtil.MIDI_PITCH_BEND_MIN;
+
+/**
+ * Sends short MIDI messages to a Receiver without allocating anything: each MidiOutput owns one
+ * ShortMessage that is refilled for every event.
+ *
+ * That only works because every receiver we send to is done with a message by the time send() returns:
+ * the javax device receivers copy the bytes out, and MidiScheduler copies them into its own queue.
+ * Don't put anything that holds on to messages behind a MidiOutput.
+ *
+ * Given a NoteTracker, it also counts the notes it has on, so notesOff() can stop exactly those.
+ */
+public class MidiOutput {
+
+    @Getter private final Receiver receiver;
+    @Getter private final NoteTracker noteTracker;
+    private final ShortMessage message = new ShortMessage();
+
+    // guarded by this: on counts per channel and note, and a bitmap per channel of the notes with a count
+    private final short[] noteCounts;
+    private final long[] soundingNotes;
+    @Getter private volatile int soundingCount = 0;
+    private int lastChannel = -1;
+    private int lastNoteNumber = -1;
+
+    @Getter private volatile long sentCount = 0;
+
+
+    public MidiOutput(Receiver receiver) {
+        this(receiver, null);
+    }
+
+    /**
+     * @param receiver
+     * @param noteTracker: the tracker for the receiver's port, or null to not track notes
+     */
+    public MidiOutput(Receiver receiver, NoteTracker noteTracker) {
+        this.receiver = receiver;
+        this.noteTracker = noteTracker;
+        if (noteTracker != null) {
+            noteCounts = new short[NoteTracker.CHANNELS * NoteTracker.NOTES];
+            soundingNotes = new long[NoteTracker.CHANNELS * 2];
+            noteTracker.register(this);
+        } else {
+            noteCounts = null;
+            soundingNotes = null;
+        }
+    }
+
+
+    /***** public methods ****************************************/
+
+    public void note(int channel, int noteNumber, int velocity, long timeStamp) {
+        send(ShortMessage.NOTE_ON, channel, noteNumber, velocity, timeStamp);
+    }
+
+    public void cc(int channel, int ccNumber, int value, long timeStamp) {
+        send(ShortMessage.CONTROL_CHANGE, channel, ccNumber, value, timeStamp);
+    }
+
+    public void programChange(int channel, int program, long timeStamp) {
+        send(ShortMessage.PROGRAM_CHANGE, channel, program, 0, timeStamp);
+    }
+
+    /**
+     * @param channel
+     * @param value: 14-bit bend, clamped to MIDI_PITCH_BEND_MIN..MIDI_PITCH_BEND_MAX
+     * @param timeStamp
+     */
+    public void pitchBend(int channel, int value, long timeStamp) {
+        if (value < MIDI_PITCH_BEND_MIN) {
+            value = MIDI_PITCH_BEND_MIN;
+        }
+        if (value > MIDI_PITCH_BEND_MAX) {
+            value = MIDI_PITCH_BEND_MAX;
+        }
+        int data1 = value & 0x7F;           // lower 7 bits
+        int data2 = (value & 0x3F80) >> 7;  // upper 7 bits (out of 14, not out of 16)
+        send(ShortMessage.PITCH_BEND, channel, data1, data2, timeStamp);  // for midi pitch bend, LSB precedes MSB
+    }
+
+    public synchronized void send(int command, int channel, int data1, int data2, long timeStamp) {
+        if (receiver == null) return;
+        try {
+            message.setMessage(command, channel, data1, data2);
+            receiver.send(message, timeStamp);
+            sentCount++;
+            if (noteCounts != null) {
+                if (command == ShortMessage.NOTE_ON && data2 > 0) {
+                    trackNoteOn(channel, data1);
+                } else if (command == ShortMessage.NOTE_ON || command == ShortMessage.NOTE_OFF) {
+                    trackNoteOff(channel, data1);
+                }
+            }
+        } catch (InvalidMidiDataException e) {
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * send a note off for a note only if this output has it on
+     *
+     * @param channel
+     * @param noteNumber
+     * @param timeStamp
+     */
+    public synchronized void noteOff(int channel, int noteNumber, long timeStamp) {
+        if (isSounding(channel, noteNumber)) {
+            note(channel, noteNumber, 0, timeStamp);
+        }
+    }
+
+    /**
+     * send a note off for every note this output has on, one per note on sent
+     *
+     * @param timeStamp
+     */
+    public synchronized void notesOff(long timeStamp) {
+        for (int channel = 0; channel < NoteTracker.CHANNELS && soundingCount > 0; channel++) {
+            release(channel, timeStamp, -1);
+        }
+    }
+
+    /**
+     * send a note off for every note this output has on in one channel
+     *
+     * @param channel
+     * @param timeStamp
+     */
+    public synchronized void notesOff(int channel, long timeStamp) {
+        release(channel, timeStamp, -1);
+    }
+
+    /**
+     * for legato: after a note on, send a note off for every other note this output has on, and for any earlier
+     * ons of the same note, so only the note just played is left sounding
+     *
+     * @param timeStamp
+     */
+    public synchronized void notesOffExceptLast(long timeStamp) {
+        for (int channel = 0; channel < NoteTracker.CHANNELS && soundingCount > 0; channel++) {
+            release(channel, timeStamp, channel == lastChannel ? lastNoteNumber : -1);
+        }
+    }
+
+    public synchronized boolean isSounding(int channel, int noteNumber) {
+        return noteCounts != null && noteCounts[channel * NoteTracker.NOTES + noteNumber] > 0;
+    }
+
+    public void resetStats() {
+        sentCount = 0;
+    }
+
+
+    /***** private implementation ****************************************/
+
+    /**
+     * send the note offs for one channel, leaving one on for keepNoteNumber (-1 for none); caller holds lock
+     */
+    private void release(int channel, long timeStamp, int keepNoteNumber) {
+        if (noteCounts == null || soundingCount == 0) return;
+        for (int word = channel * 2; word < channel * 2 + 2; word++) {
+            // walk a copy of the bitmap, since each last note off clears the note's bit
+            long bits = soundingNotes[word];
+            while (bits != 0) {
+                int noteNumber = (word - channel * 2) * 64 + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int index = channel * NoteTracker.NOTES + noteNumber;
+                int keep = noteNumber == keepNoteNumber ? 1 : 0;
+                for (int count = noteCounts[index]; count > keep; count--) {
+                    note(channel, noteNumber, 0, timeStamp);
+                }
+                while (noteCounts[index] > keep) {
+                    // the receiver refused the note off; forget the note rather than keep trying
+                    trackNoteOff(channel, noteNumber);
+                }
+            }
+        }
+    }
+
+    private void trackNoteOn(int channel, int noteNumber) {
+        lastChannel = channel;
+        lastNoteNumber = noteNumber;
+        int index = channel * NoteTracker.NOTES + noteNumber;
+        if (noteCounts[index] == Short.MAX_VALUE) return;
+        noteCounts[index]++;
+        soundingNotes[channel * 2 + (noteNumber >> 6)] |= 1L << (noteNumber & 63);
+        soundingCount++;
+        noteTracker.noteOn(channel, noteNumber);
+    }
+
+    private void trackNoteOff(int channel, int noteNumber) {
+        int index = channel * NoteTracker.NOTES + noteNumber;
+        if (noteCounts[index] == 0) return;
+        noteCounts[index]--;
+        if (noteCounts[index] == 0) {
+            soundingNotes[channel * 2 + (noteNumber >> 6)] &= ~(1L << (noteNumber & 63));
+        }
+        soundingCount--;
+        noteTracker.noteOff(channel, noteNumber);
+    }
+
+}
@@ -0,0 +1,453 @@
+package net.perkowitz.issho.midi;
+
+import com.google.common.collect.Maps;
+import lombok.Getter;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Sits in front of one output port and merges everything sent to it from all the modules and threads.
+ * Messages are sorted into lanes and a writer thread for the port sends them in strict priority order:
+ * whenever it's ready for the next message it takes it from the highest lane that has one, so a burst of
+ * controllers or a sysex dump can only delay a note by the one message already on its way.
+ *
+ * - REALTIME: clock, start/stop/continue and song position
+ * - NOTE: note on/off, poly pressure, and channel mode messages (all notes off, reset controllers etc.),
+ *   which have to stay in order with the notes
+ * - CONTROLLER: control changes, pitch bend and channel pressure. A value that hasn't gone out yet is
+ *   replaced by a newer one for the same controller, so a sweep can't pile up behind the notes.
+ * - BULK: program changes, sysex and anything else
+ *
+ * Messages on the same channel keep their order, so a program change or pitch bend sent just before a note
+ * still goes out before it: a higher lane only overtakes messages on other channels (and clock, which has no
+ * channel, overtakes everything). A controller value is only replaced while no note or other message on its
+ * channel has been queued behind it, and never for data entry, increment/decrement or the RPN/NRPN parameter
+ * numbers, which only mean something in sequence. Messages keep their order within a lane. Short messages are
+ * copied into primitive ring buffers, so senders may reuse their message (see MidiOutput) and nothing is
+ * allocated per message. Nothing is dropped: when a lane is full the sender waits for the writer. Until
+ * start() (and once the writer has sent what was queued at stop()) messages go straight through.
+ */
+public class MidiOutputMerger implements Receiver, Runnable {
+
+    public enum Lane { REALTIME, NOTE, CONTROLLER, BULK }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int LANE_COUNT = Lane.values().length;
+    private static final int CHANNEL_MODE_FIRST_CC = 120;
+    private static final int CHANNELS = 16;
+    private static final int PITCH_BEND_KEY = 16 * 128;
+    private static final int CHANNEL_PRESSURE_KEY = PITCH_BEND_KEY + 16;
+    private static final int CONTROLLER_KEY_COUNT = CHANNEL_PRESSURE_KEY + 16;
+    private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    // in the bulk lane, marks a message waiting in bulkMessages
+    private static final int BULK_MESSAGE = 0;
+
+    private final Receiver receiver;
+    private final String name;
+    private final int capacity;
+    private final Object lock = new Object();
+
+    // guarded by lock: a ring of packed messages per lane (status | data1 << 8 | data2 << 16),
+    // with heads and tails counting up forever
+    private final int[][] lanes;
+    private final long[] heads = new long[LANE_COUNT];
+    private final long[] tails = new long[LANE_COUNT];
+    private final ArrayDeque<MidiMessage> bulkMessages = new ArrayDeque<MidiMessage>();
+    private final long[] controllerPositions = new long[CONTROLLER_KEY_COUNT];
+
+    // guarded by lock: per channel, each channel message's place in the channel's order (its ticket), how many
+    // tickets have been handed out and sent, and the last ticket handed to a message outside the controller lane.
+    // compared by difference, so they can wrap
+    private final int[][] tickets;
+    private final int[] channelQueued = new int[CHANNELS];
+    private final int[] channelSent = new int[CHANNELS];
+    private final int[] lastOtherTickets = new int[CHANNELS];
+
+    // only touched by the writer thread
+    private final ShortMessage message = new ShortMessage();
+
+    private Thread thread = null;
+    private volatile boolean running = false;
+    // guarded by lock: true until the writer thread has exited
+    private boolean writing = false;
+
+    private final long[] sentCounts = new long[LANE_COUNT];
+    private final int[] maxDepths = new int[LANE_COUNT];
+    @Getter private volatile long coalescedCount = 0;
+    @Getter private volatile long blockedCount = 0;
+
+
+    public MidiOutputMerger(Receiver receiver, String name) {
+        this(receiver, name, DEFAULT_CAPACITY);
+    }
+
+    public MidiOutputMerger(Receiver receiver, String name, int capacity) {
+        this.receiver = receiver;
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        lanes = new int[LANE_COUNT][this.capacity];
+        tickets = new int[LANE_COUNT][this.capacity];
+        Arrays.fill(controllerPositions, -1);
+        Arrays.fill(lastOtherTickets, -1);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        synchronized (lock) {
+            running = true;
+            writing = true;
+        }
+        thread = new Thread(this, "hachi-midi-out-" + name);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * send whatever is still queued, then stop the writer thread
+     */
+    public void stop() {
+        Thread writer;
+        synchronized (this) {
+            writer = thread;
+            thread = null;
+        }
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        if (writer != null) {
+            try {
+                writer.join(STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * which lane a message goes in
+     *
+     * @param status
+     * @param data1
+     * @return
+     */
+    public static Lane lane(int status, int data1) {
+        if (status >= 0xF8 || status == ShortMessage.SONG_POSITION_POINTER) {
+            return Lane.REALTIME;
+        }
+        switch (status & 0xF0) {
+            case ShortMessage.NOTE_ON:
+            case ShortMessage.NOTE_OFF:
+            case ShortMessage.POLY_PRESSURE:
+                return Lane.NOTE;
+            case ShortMessage.CONTROL_CHANGE:
+                return data1 >= CHANNEL_MODE_FIRST_CC ? Lane.NOTE : Lane.CONTROLLER;
+            case ShortMessage.PITCH_BEND:
+            case ShortMessage.CHANNEL_PRESSURE:
+                return Lane.CONTROLLER;
+            default:
+                return Lane.BULK;
+        }
+    }
+
+    public int getDepth(Lane lane) {
+        synchronized (lock) {
+            return (int) (tails[lane.ordinal()] - heads[lane.ordinal()]);
+        }
+    }
+
+    public long getSentCount(Lane lane) {
+        synchronized (lock) {
+            return sentCounts[lane.ordinal()];
+        }
+    }
+
+    public void resetStats() {
+        synchronized (lock) {
+            Arrays.fill(sentCounts, 0);
+            Arrays.fill(maxDepths, 0);
+            coalescedCount = 0;
+            blockedCount = 0;
+        }
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        map.put("name", name);
+        synchronized (lock) {
+            for (Lane lane : Lane.values()) {
+                Map<String, Object> laneMap = Maps.newLinkedHashMap();
+                laneMap.put("sent", sentCounts[lane.ordinal()]);
+                laneMap.put("depth", tails[lane.ordinal()] - heads[lane.ordinal()]);
+                laneMap.put("maxDepth", maxDepths[lane.ordinal()]);
+                map.put(lane.name().toLowerCase(), laneMap);
+            }
+        }
+        map.put("coalesced", coalescedCount);
+        map.put("blocked", blockedCount);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(name).append(":");
+        synchronized (lock) {
+            for (Lane lane : Lane.values()) {
+                builder.append(String.format(" %s=%d/%d", lane.name().toLowerCase(),
+                        sentCounts[lane.ordinal()], maxDepths[lane.ordinal()]));
+            }
+        }
+        builder.append(String.format(" coalesced=%d blocked=%d", coalescedCount, blockedCount));
+        return builder.toString();
+    }
+
+
+    /***** Receiver implementation ****************************************/
+
+    public void send(MidiMessage midiMessage, long timeStamp) {
+        if (!running) {
+            synchronized (lock) {
+                awaitWriter();
+            }
+            receiver.send(midiMessage, timeStamp);
+            return;
+        }
+
+        int packed = BULK_MESSAGE;
+        Lane lane = Lane.BULK;
+        if (midiMessage instanceof ShortMessage) {
+            ShortMessage shortMessage = (ShortMessage) midiMessage;
+            int status = shortMessage.getStatus();
+            int data1 = shortMessage.getData1();
+            packed = status | (data1 << 8) | (shortMessage.getData2() << 16);
+            lane = lane(status, data1);
+        }
+        int index = lane.ordinal();
+
+        synchronized (lock) {
+            if (lane == Lane.CONTROLLER && coalesce(packed)) {
+                return;
+            }
+
+            while (running && tails[index] - heads[index] >= capacity) {
+                // never drop a message; wait for the writer to make room
+                blockedCount++;
+                lock.notifyAll();
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (!running) {
+                awaitWriter();
+                receiver.send(midiMessage, timeStamp);
+                return;
+            }
+
+            long position = tails[index]++;
+            lanes[index][(int) (position % capacity)] = packed;
+            int channel = channel(packed);
+            if (channel >= 0) {
+                int ticket = channelQueued[channel]++;
+                tickets[index][(int) (position % capacity)] = ticket;
+                if (lane != Lane.CONTROLLER) {
+                    lastOtherTickets[channel] = ticket;
+                }
+            }
+            if (packed == BULK_MESSAGE) {
+                bulkMessages.add(midiMessage);
+            }
+            if (lane == Lane.CONTROLLER) {
+                controllerPositions[controllerKey(packed)] = position;
+            }
+            int depth = (int) (tails[index] - heads[index]);
+            if (depth > maxDepths[index]) {
+                maxDepths[index] = depth;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    public void close() {
+        stop();
+        receiver.close();
+    }
+
+
+    /***** Runnable implementation ****************************************/
+
+    public void run() {
+        try {
+            write();
+        } finally {
+            synchronized (lock) {
+                writing = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+
+    /***** private implementation ****************************************/
+
+    private void write() {
+        while (true) {
+            int packed;
+            MidiMessage bulkMessage = null;
+            synchronized (lock) {
+                int index = nextLane();
+                while (index < 0) {
+                    if (!running) return;
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    index = nextLane();
+                }
+
+                long position = heads[index]++;
+                packed = lanes[index][(int) (position % capacity)];
+                int channel = channel(packed);
+                if (channel >= 0) {
+                    channelSent[channel]++;
+                }
+                if (index == Lane.BULK.ordinal() && packed == BULK_MESSAGE) {
+                    bulkMessage = bulkMessages.poll();
+                }
+                if (index == Lane.CONTROLLER.ordinal()) {
+                    int key = controllerKey(packed);
+                    if (controllerPositions[key] == position) {
+                        controllerPositions[key] = -1;
+                    }
+                }
+                sentCounts[index]++;
+                // wake any sender waiting for room
+                lock.notifyAll();
+            }
+
+            try {
+                if (bulkMessage != null) {
+                    receiver.send(bulkMessage, -1);
+                } else {
+                    message.setMessage(packed & 0xFF, (packed >> 8) & 0xFF, (packed >> 16) & 0xFF);
+                    receiver.send(message, -1);
+                }
+            } catch (InvalidMidiDataException e) {
+                System.err.println(e);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * after a stop, wait (up to the stop timeout) for the writer to send what's still queued, so nothing
+     * sent straight through can overtake it or reach the port at the same time; caller holds lock
+     */
+    private void awaitWriter() {
+        long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MILLIS;
+        while (writing) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                return;
+            }
+            try {
+                lock.wait(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * the highest lane whose next message is also next on its channel; caller holds lock.
+     * there's always one when anything is queued: the oldest message queued is next in its lane and its channel
+     */
+    private int nextLane() {
+        int firstQueued = -1;
+        for (int index = 0; index < LANE_COUNT; index++) {
+            if (tails[index] > heads[index]) {
+                int slot = (int) (heads[index] % capacity);
+                int channel = channel(lanes[index][slot]);
+                if (channel < 0 || tickets[index][slot] == channelSent[channel]) {
+                    return index;
+                }
+                if (firstQueued < 0) {
+                    firstQueued = index;
+                }
+            }
+        }
+        return firstQueued;
+    }
+
+    /**
+     * if there's an unsent value for the same controller, replace it; caller holds lock
+     *
+     * @param packed
+     * @return true if the value was coalesced into the pending one
+     */
+    private boolean coalesce(int packed) {
+        if ((packed & 0xF0) == ShortMessage.CONTROL_CHANGE && isParameterController((packed >> 8) & 0x7F)) {
+            return false;
+        }
+        int index = Lane.CONTROLLER.ordinal();
+        long position = controllerPositions[controllerKey(packed)];
+        if (position >= heads[index] && position < tails[index]) {
+            int channel = channel(packed);
+            if (tickets[index][(int) (position % capacity)] - lastOtherTickets[channel] < 0) {
+                // something else on the channel is queued behind the old value; the new one has to go after it
+                return false;
+            }
+            lanes[index][(int) (position % capacity)] = packed;
+            coalescedCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param packed
+     * @return the channel of a channel message, or -1 for system messages and sysex
+     */
+    private static int channel(int packed) {
+        int status = packed & 0xFF;
+        if (status < 0x80 || status >= 0xF0) {
+            return -1;
+        }
+        return status & 0x0F;
+    }
+
+    /**
+     * data entry, data increment/decrement and the RPN/NRPN parameter numbers (see MidiRepeatFilter)
+     */
+    private static boolean isParameterController(int controller) {
+        return controller == 6 || controller == 38 || (controller >= 96 && controller <= 101);
+    }
+
+    private static int controllerKey(int packed) {
+        int status = packed & 0xFF;
+        int channel = status & 0x0F;
+        switch (status & 0xF0) {
+            case ShortMessage.PITCH_BEND:
+                return PITCH_BEND_KEY + channel;
+            case ShortMessage.CHANNEL_PRESSURE:
+                return CHANNEL_PRESSURE_KEY + channel;
+            default:
+                return channel * 128 + ((packed >> 8) & 0x7F);
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+package net.perkowitz.issho.midi;
+
+import com.google.common.collect.Maps;
+import lombok.Getter;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Sits in front of one output port and drops control changes, pitch bends and program changes that repeat the
+ * value last sent on the same channel (and controller) within the window. Modules can then resend their
+ * controllers on every step without it costing anything on the wire. After the window a repeat goes out again,
+ * in case the synth has been changed from its own panel since.
+ *
+ * Some values can't be judged from the last one alone, so they always go through: channel mode messages, and
+ * the RPN/NRPN controllers, whose data means something different depending on the parameter selected.
+ * Reset all controllers forgets the channel's controllers and pitch bend, and bank select forgets its program,
+ * so the next value is sent even if it matches.
+ */
+public class MidiRepeatFilter implements Receiver {
+
+    public static final long DEFAULT_WINDOW_MILLIS = 1000;
+
+    private static final int CHANNELS = 16;
+    private static final int CONTROLLERS = 128;
+    private static final int CHANNEL_MODE_FIRST_CC = 120;
+    private static final int RESET_ALL_CONTROLLERS_CC = 121;
+    private static final int BANK_SELECT_MSB_CC = 0;
+    private static final int BANK_SELECT_LSB_CC = 32;
+    private static final int UNKNOWN = -1;
+
+    private final Receiver receiver;
+    private final String name;
+    private final long windowNanos;
+
+    // guarded by this
+    private final int[] controllerValues = new int[CHANNELS * CONTROLLERS];
+    private final long[] controllerNanos = new long[CHANNELS * CONTROLLERS];
+    private final int[] pitchBendValues = new int[CHANNELS];
+    private final long[] pitchBendNanos = new long[CHANNELS];
+    private final int[] programValues = new int[CHANNELS];
+    private final long[] programNanos = new long[CHANNELS];
+
+    @Getter private volatile long passedCount = 0;
+    @Getter private volatile long suppressedControllerCount = 0;
+    @Getter private volatile long suppressedPitchBendCount = 0;
+    @Getter private volatile long suppressedProgramCount = 0;
+
+
+    public MidiRepeatFilter(Receiver receiver, String name) {
+        this(receiver, name, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * @param receiver
+     * @param name
+     * @param windowMillis: how long a value is remembered; 0 to pass everything
+     */
+    public MidiRepeatFilter(Receiver receiver, String name, long windowMillis) {
+        this.receiver = receiver;
+        this.name = name;
+        this.windowNanos = windowMillis * 1000000L;
+        forget();
+    }
+
+    /**
+     * forget every value sent, so the next of each goes out (e.g. after a synth has been power cycled)
+     */
+    public synchronized void forget() {
+        Arrays.fill(controllerValues, UNKNOWN);
+        Arrays.fill(pitchBendValues, UNKNOWN);
+        Arrays.fill(programValues, UNKNOWN);
+    }
+
+    public long getSuppressedCount() {
+        return suppressedControllerCount + suppressedPitchBendCount + suppressedProgramCount;
+    }
+
+    public void resetStats() {
+        passedCount = 0;
+        suppressedControllerCount = 0;
+        suppressedPitchBendCount = 0;
+        suppressedProgramCount = 0;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        map.put("name", name);
+        map.put("passed", passedCount);
+        map.put("suppressedControllers", suppressedControllerCount);
+        map.put("suppressedPitchBends", suppressedPitchBendCount);
+        map.put("suppressedPrograms", suppressedProgramCount);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: passed=%d suppressed cc=%d bend=%d program=%d",
+                name, passedCount, suppressedControllerCount, suppressedPitchBendCount, suppressedProgramCount);
+    }
+
+
+    /***** Receiver implementation ****************************************/
+
+    public void send(MidiMessage message, long timeStamp) {
+        send(message, timeStamp, System.nanoTime());
+    }
+
+    /**
+     * @param message
+     * @param timeStamp
+     * @param nowNanos: System.nanoTime() as of this message
+     */
+    public synchronized void send(MidiMessage message, long timeStamp, long nowNanos) {
+        if (windowNanos > 0 && message instanceof ShortMessage && isRepeat((ShortMessage) message, nowNanos)) {
+            return;
+        }
+        passedCount++;
+        receiver.send(message, timeStamp);
+    }
+
+    public void close() {
+        receiver.close();
+    }
+
+
+    /***** private implementation ****************************************/
+
+    /**
+     * check the message against the last value sent and remember it if it's going out; caller holds lock
+     */
+    private boolean isRepeat(ShortMessage message, long nowNanos) {
+        int channel = message.getChannel();
+        switch (message.getCommand()) {
+
+            case ShortMessage.CONTROL_CHANGE:
+                int controller = message.getData1();
+                int value = message.getData2();
+                if (controller >= CHANNEL_MODE_FIRST_CC) {
+                    if (controller == RESET_ALL_CONTROLLERS_CC) {
+                        Arrays.fill(controllerValues, channel * CONTROLLERS, (channel + 1) * CONTROLLERS, UNKNOWN);
+                        pitchBendValues[channel] = UNKNOWN;
+                    }
+                    return false;
+                }
+                if (isParameterController(controller)) {
+                    return false;
+                }
+                if (controller == BANK_SELECT_MSB_CC || controller == BANK_SELECT_LSB_CC) {
+                    programValues[channel] = UNKNOWN;
+                }
+                int index = channel * CONTROLLERS + controller;
+                if (isRepeat(controllerValues, controllerNanos, index, value, nowNanos)) {
+                    suppressedControllerCount++;
+                    return true;
+                }
+                return false;
+
+            case ShortMessage.PITCH_BEND:
+                int bend = message.getData1() | (message.getData2() << 7);
+                if (isRepeat(pitchBendValues, pitchBendNanos, channel, bend, nowNanos)) {
+                    suppressedPitchBendCount++;
+                    return true;
+                }
+                return false;
+
+            case ShortMessage.PROGRAM_CHANGE:
+                if (isRepeat(programValues, programNanos, channel, message.getData1(), nowNanos)) {
+                    suppressedProgramCount++;
+                    return true;
+                }
+                return false;
+
+            default:
+                return false;
+        }
+    }
+
+    private boolean isRepeat(int[] values, long[] nanos, int index, int value, long nowNanos) {
+        if (values[index] == value && nowNanos - nanos[index] < windowNanos) {
+            return true;
+        }
+        values[index] = value;
+        nanos[index] = nowNanos;
+        return false;
+    }
+
+    /**
+     * data entry, data increment/decrement and the RPN/NRPN parameter numbers
+     */
+    private static boolean isParameterController(int controller) {
+        return controller == 6 || controller == 38 || (controller >= 96 && controller <= 101);
+    }
+
+}
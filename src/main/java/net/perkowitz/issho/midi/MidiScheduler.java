@@ -0,0 +1,296 @@
+package net.perkowitz.issho.midi;
+
+import lombok.Getter;
+import lombok.Setter;
+import net.perkowitz.issho.util.LatencyHistogram;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.Arrays;
+
+/**
+ * A Receiver that holds timestamped messages in a priority queue and releases them to the
+ * wrapped Receiver from its own thread at their exact System.nanoTime().
+ *
+ * Timestamps passed to send() are in microseconds on the System.nanoTime() timebase (i.e. nanoTime / 1000);
+ * a timestamp of -1 means "as soon as possible". The clock thread sets the ideal time of the pulse it is
+ * handling with setEventTime(), and senders pick it up with eventTimestamp(), so notes go out on the grid
+ * no matter how long the module's bookkeeping took, as long as it finishes inside the lookahead.
+ *
+ * The queue is a binary heap kept in parallel primitive arrays, and short messages are copied into it as
+ * packed bytes and sent from a single reused ShortMessage, so scheduling allocates nothing once the arrays
+ * have grown to the busiest moment. That also means callers may reuse their message as soon as send()
+ * returns (see MidiOutput). Other messages (e.g. sysex) are queued by reference.
+ */
+public class MidiScheduler implements Receiver, Runnable {
+
+    private static final long DEFAULT_SPIN_NANOS = 200 * 1000;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    private static final ThreadLocal<long[]> eventTime = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[] { -1 };
+        }
+    };
+
+    private final Receiver receiver;
+    private final Object queue = new Object();
+
+    // guarded by queue: a binary heap ordered by (nanos, sequence)
+    private long[] nanos = new long[INITIAL_CAPACITY];
+    private long[] sequences = new long[INITIAL_CAPACITY];
+    private int[] packed = new int[INITIAL_CAPACITY];
+    private MidiMessage[] messages = new MidiMessage[INITIAL_CAPACITY];
+    private int size = 0;
+    private long sequence = 0;
+
+    // only touched by the release thread (or by stop() once it's gone)
+    private final ShortMessage releaseMessage = new ShortMessage();
+    private Thread thread = null;
+    private volatile boolean running = false;
+
+    @Getter @Setter private volatile long spinNanos = DEFAULT_SPIN_NANOS;
+    @Getter private final LatencyHistogram releaseLateness = new LatencyHistogram();
+
+
+    public MidiScheduler(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+
+    /***** event time ****************************************/
+
+    /**
+     * set the ideal time (System.nanoTime) of the events the current thread is about to send
+     *
+     * @param nanos
+     */
+    public static void setEventTime(long nanos) {
+        eventTime.get()[0] = nanos / 1000;
+    }
+
+    public static void clearEventTime() {
+        eventTime.get()[0] = -1;
+    }
+
+    /**
+     * the timestamp to pass to Receiver.send() for events sent from the current thread:
+     * the ideal time set by the clock in microseconds, or -1 if there is none (e.g. for events
+     * triggered by pad presses).
+     *
+     * @return microseconds or -1
+     */
+    public static long eventTimestamp() {
+        return eventTime.get()[0];
+    }
+
+
+    /***** public methods ****************************************/
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "hachi-midi-scheduler");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * send whatever is still queued right away, without waiting for its time, then stop the release thread
+     */
+    public void stop() {
+        Thread releaser;
+        synchronized (this) {
+            running = false;
+            releaser = thread;
+            thread = null;
+        }
+        synchronized (queue) {
+            queue.notifyAll();
+        }
+        if (releaser != null && releaser != Thread.currentThread()) {
+            try {
+                releaser.join(STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public int getQueueSize() {
+        synchronized (queue) {
+            return size;
+        }
+    }
+
+
+    /***** Receiver implementation ****************************************/
+
+    public void send(MidiMessage message, long timeStamp) {
+
+        if (!running) {
+            receiver.send(message, -1);
+            return;
+        }
+
+        long releaseNanos = timeStamp < 0 ? System.nanoTime() : timeStamp * 1000;
+        synchronized (queue) {
+            add(releaseNanos, message);
+            queue.notify();
+        }
+    }
+
+    public void close() {
+        stop();
+        receiver.close();
+    }
+
+
+    /***** Runnable implementation ****************************************/
+
+    public void run() {
+
+        while (running) {
+
+            boolean ready = false;
+            long nextNanos = 0;
+            int nextPacked = 0;
+            MidiMessage nextMessage = null;
+            synchronized (queue) {
+                try {
+                    while (running && !ready) {
+                        if (size == 0) {
+                            queue.wait();
+                        } else {
+                            long waitNanos = nanos[0] - System.nanoTime() - spinNanos;
+                            if (waitNanos > 0) {
+                                // a newly-queued earlier message will notify and wake us
+                                queue.wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                            } else {
+                                nextNanos = nanos[0];
+                                nextPacked = packed[0];
+                                nextMessage = messages[0];
+                                removeFirst();
+                                ready = true;
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (!ready) break;
+
+            while (nextNanos - System.nanoTime() > 0) {
+                // spin the last stretch to release on time
+            }
+            releaseLateness.record(System.nanoTime() - nextNanos);
+            release(nextPacked, nextMessage);
+        }
+
+        // don't strand anything (e.g. note offs) when stopped
+        synchronized (queue) {
+            while (size > 0) {
+                int nextPacked = packed[0];
+                MidiMessage nextMessage = messages[0];
+                removeFirst();
+                release(nextPacked, nextMessage);
+            }
+        }
+    }
+
+
+    /***** private implementation ****************************************/
+
+    private void release(int bytes, MidiMessage message) {
+        if (message != null) {
+            receiver.send(message, -1);
+            return;
+        }
+        try {
+            releaseMessage.setMessage(bytes & 0xFF, (bytes >> 8) & 0xFF, (bytes >> 16) & 0xFF);
+            receiver.send(releaseMessage, -1);
+        } catch (InvalidMidiDataException e) {
+            System.err.println(e);
+        }
+    }
+
+    private void add(long releaseNanos, MidiMessage message) {
+        if (size == nanos.length) {
+            int capacity = size * 2;
+            nanos = Arrays.copyOf(nanos, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+            packed = Arrays.copyOf(packed, capacity);
+            messages = Arrays.copyOf(messages, capacity);
+        }
+
+        int index = size++;
+        nanos[index] = releaseNanos;
+        sequences[index] = sequence++;
+        if (message instanceof ShortMessage) {
+            // copy the bytes so the sender can reuse its message
+            ShortMessage shortMessage = (ShortMessage) message;
+            packed[index] = shortMessage.getStatus() | (shortMessage.getData1() << 8) | (shortMessage.getData2() << 16);
+            messages[index] = null;
+        } else {
+            packed[index] = 0;
+            messages[index] = message;
+        }
+
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!before(index, parent)) break;
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void removeFirst() {
+        size--;
+        if (size > 0) {
+            swap(0, size);
+        }
+        messages[size] = null;
+
+        int index = 0;
+        while (true) {
+            int child = index * 2 + 1;
+            if (child >= size) break;
+            if (child + 1 < size && before(child + 1, child)) {
+                child++;
+            }
+            if (!before(child, index)) break;
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    private boolean before(int a, int b) {
+        long diff = nanos[a] - nanos[b];
+        if (diff != 0) {
+            return diff < 0;
+        }
+        return sequences[a] < sequences[b];
+    }
+
+    private void swap(int a, int b) {
+        long n = nanos[a];
+        nanos[a] = nanos[b];
+        nanos[b] = n;
+        long q = sequences[a];
+        sequences[a] = sequences[b];
+        sequences[b] = q;
+        int p = packed[a];
+        packed[a] = packed[b];
+        packed[b] = p;
+        MidiMessage m = messages[a];
+        messages[a] = messages[b];
+        messages[b] = m;
+    }
+
+}
@@ -0,0 +1,106 @@
+package net.perkowitz.issho.midi;
+
+import com.google.common.collect.MapMaker;
+
+import javax.sound.midi.Receiver;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps count of the notes sounding on one output port, per channel and note number, and which MidiOutputs
+ * (i.e. which modules) played them. Each MidiOutput registered here counts its own notes as it sends them
+ * (see MidiOutput.notesOff), and the port keeps the totals, so a module can stop just its own notes while
+ * a panic or shutdown can stop everything still sounding on the port. Counts rather than flags, because
+ * some synths (e.g. Sub 37) expect an off for every on, even for the same note.
+ *
+ * All counts are kept in primitive arrays, so playing notes allocates nothing.
+ * There is one tracker per port receiver; get it with forPort().
+ */
+public class NoteTracker {
+
+    public static final int CHANNELS = 16;
+    public static final int NOTES = 128;
+
+    private static final Map<Receiver, NoteTracker> trackers = new MapMaker().weakKeys().makeMap();
+
+    private final List<MidiOutput> outputs = new CopyOnWriteArrayList<MidiOutput>();
+
+    // guarded by this
+    private final int[] counts = new int[CHANNELS * NOTES];
+    private int soundingCount = 0;
+
+
+    /**
+     * the tracker for everything sent to a receiver, created on first use
+     *
+     * @param receiver
+     * @return
+     */
+    public static NoteTracker forPort(Receiver receiver) {
+        synchronized (trackers) {
+            NoteTracker tracker = trackers.get(receiver);
+            if (tracker == null) {
+                tracker = new NoteTracker();
+                trackers.put(receiver, tracker);
+            }
+            return tracker;
+        }
+    }
+
+
+    /***** public methods ****************************************/
+
+    public synchronized boolean isSounding(int channel, int noteNumber) {
+        return counts[channel * NOTES + noteNumber] > 0;
+    }
+
+    public synchronized int getSoundingCount() {
+        return soundingCount;
+    }
+
+    public int getOutputCount() {
+        return outputs.size();
+    }
+
+    /**
+     * send a note off for every note sounding on the port, on behalf of whichever output played it
+     */
+    public void releaseAll() {
+        for (MidiOutput output : outputs) {
+            output.notesOff(MidiScheduler.eventTimestamp());
+        }
+    }
+
+    /**
+     * send a note off for every note sounding on one channel of the port
+     *
+     * @param channel
+     */
+    public void releaseChannel(int channel) {
+        for (MidiOutput output : outputs) {
+            output.notesOff(channel, MidiScheduler.eventTimestamp());
+        }
+    }
+
+
+    /***** package methods: called by MidiOutput, holding its own lock ****************************************/
+
+    void register(MidiOutput output) {
+        outputs.add(output);
+    }
+
+    synchronized void noteOn(int channel, int noteNumber) {
+        counts[channel * NOTES + noteNumber]++;
+        soundingCount++;
+    }
+
+    synchronized void noteOff(int channel, int noteNumber) {
+        int index = channel * NOTES + noteNumber;
+        if (counts[index] > 0) {
+            counts[index]--;
+            soundingCount--;
+        }
+    }
+
+}
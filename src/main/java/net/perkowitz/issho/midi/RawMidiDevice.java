@@ -0,0 +1,600 @@
+package net.perkowitz.issho.midi;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.sound.midi.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A MidiDevice that reads and writes MIDI bytes directly on a channel, such as an ALSA rawmidi node
+ * (/dev/snd/midiC1D0), a serial port or a named pipe, instead of going through the javax.sound.midi providers.
+ *
+ * Output is encoded with running status into a buffer, and a writer thread sends whatever has built up
+ * in one write, so a step's worth of notes usually goes out together. Senders don't wait for the write
+ * unless the buffer is full. Until the device is opened (or if it was made with a channel and never
+ * opened) each message is written as it's sent.
+ *
+ * Input is parsed by a reader thread, running status and all, and each message is handed to the
+ * transmitter's receiver as a new MidiMessage with a timestamp of -1. The reader opens its path itself,
+ * so a pipe with nothing on the other end yet doesn't hold up startup.
+ */
+public class RawMidiDevice implements MidiDevice {
+
+    public static final int BUFFER_SIZE = 4096;
+
+    private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    private final Info info;
+    private final String path;
+    @Getter private final boolean input;
+    @Getter private final boolean output;
+
+    private volatile ReadableByteChannel inputChannel = null;
+    private volatile WritableByteChannel outputChannel = null;
+    private volatile boolean open = false;
+
+    @Getter @Setter private boolean runningStatus = true;
+
+    private final RawReceiver receiver = new RawReceiver();
+    private final RawTransmitter transmitter = new RawTransmitter();
+
+    // output, guarded by lock
+    private final Object lock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private int outputStatus = 0;
+    private volatile Thread writerThread = null;
+    private boolean writerBusy = false;
+
+    // output, only touched by the writer (or by senders when there is no writer)
+    private ByteBuffer writing = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private Thread readerThread = null;
+
+    @Getter private volatile long messagesSent = 0;
+    @Getter private volatile long bytesSent = 0;
+    @Getter private volatile long writeCount = 0;
+    @Getter private volatile long messagesReceived = 0;
+    @Getter private volatile long errorCount = 0;
+
+
+    /**
+     * a device on a path; opening it opens the path for reading, writing or both
+     *
+     * @param name
+     * @param path
+     * @param input: read MIDI from the path (the device has a transmitter)
+     * @param output: write MIDI to the path (the device has a receiver)
+     */
+    public RawMidiDevice(String name, String path, boolean input, boolean output) {
+        this.info = new RawInfo(name, path);
+        this.path = path;
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * a device on channels that are already open, e.g. the two ends of a java.nio Pipe
+     *
+     * @param name
+     * @param inputChannel: may be null
+     * @param outputChannel: may be null
+     */
+    public RawMidiDevice(String name, ReadableByteChannel inputChannel, WritableByteChannel outputChannel) {
+        this.info = new RawInfo(name, name);
+        this.path = null;
+        this.input = inputChannel != null;
+        this.output = outputChannel != null;
+        this.inputChannel = inputChannel;
+        this.outputChannel = outputChannel;
+    }
+
+    public void resetStats() {
+        messagesSent = 0;
+        bytesSent = 0;
+        writeCount = 0;
+        messagesReceived = 0;
+        errorCount = 0;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        map.put("name", info.getName());
+        map.put("path", info.getDescription());
+        map.put("messagesSent", messagesSent);
+        map.put("bytesSent", bytesSent);
+        map.put("writes", writeCount);
+        map.put("messagesReceived", messagesReceived);
+        map.put("errors", errorCount);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%s): sent=%d bytes=%d writes=%d received=%d errors=%d",
+                info.getName(), info.getDescription(), messagesSent, bytesSent, writeCount, messagesReceived, errorCount);
+    }
+
+
+    /***** MidiDevice implementation ****************************************/
+
+    public Info getDeviceInfo() {
+        return info;
+    }
+
+    public void open() throws MidiUnavailableException {
+        synchronized (this) {
+            if (open) return;
+            try {
+                if (output && outputChannel == null) {
+                    outputChannel = FileChannel.open(Paths.get(path), StandardOpenOption.WRITE);
+                }
+            } catch (IOException e) {
+                throw new MidiUnavailableException(String.format("Unable to open %s: %s", path, e));
+            }
+            open = true;
+
+            if (output) {
+                writerThread = new Thread(new Runnable() {
+                    public void run() {
+                        write();
+                    }
+                }, "hachi-rawmidi-out-" + info.getName());
+                writerThread.setDaemon(true);
+                writerThread.setPriority(Thread.MAX_PRIORITY);
+                writerThread.start();
+            }
+            if (input) {
+                readerThread = new Thread(new Runnable() {
+                    public void run() {
+                        read();
+                    }
+                }, "hachi-rawmidi-in-" + info.getName());
+                readerThread.setDaemon(true);
+                readerThread.start();
+            }
+        }
+    }
+
+    /**
+     * send whatever is still buffered, then stop the threads and close the channels
+     */
+    public void close() {
+        Thread writer;
+        Thread reader;
+        synchronized (this) {
+            if (!open) {
+                closeChannel(inputChannel);
+                closeChannel(outputChannel);
+                return;
+            }
+            open = false;
+            writer = writerThread;
+            reader = readerThread;
+            readerThread = null;
+        }
+
+        if (writer != null) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+            join(writer);
+        }
+        closeChannel(outputChannel);
+
+        // closing the channel breaks the reader out of a blocking read
+        closeChannel(inputChannel);
+        if (reader != null) {
+            reader.interrupt();
+            join(reader);
+        }
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public long getMicrosecondPosition() {
+        return -1;
+    }
+
+    public int getMaxReceivers() {
+        return output ? -1 : 0;
+    }
+
+    public int getMaxTransmitters() {
+        return input ? -1 : 0;
+    }
+
+    public Receiver getReceiver() throws MidiUnavailableException {
+        if (!output) {
+            throw new MidiUnavailableException(info.getName() + " has no output");
+        }
+        return receiver;
+    }
+
+    public List<Receiver> getReceivers() {
+        List<Receiver> receivers = Lists.newArrayList();
+        if (output) {
+            receivers.add(receiver);
+        }
+        return receivers;
+    }
+
+    public Transmitter getTransmitter() throws MidiUnavailableException {
+        if (!input) {
+            throw new MidiUnavailableException(info.getName() + " has no input");
+        }
+        return transmitter;
+    }
+
+    public List<Transmitter> getTransmitters() {
+        List<Transmitter> transmitters = Lists.newArrayList();
+        if (input) {
+            transmitters.add(transmitter);
+        }
+        return transmitters;
+    }
+
+
+    /***** output ****************************************/
+
+    private void send(MidiMessage message) {
+        if (outputChannel == null) return;
+
+        synchronized (lock) {
+            int length = message.getLength();
+            boolean fits = length <= pending.capacity();
+            while (writerThread != null && (fits ? pending.remaining() < length : pending.position() > 0 || writerBusy)) {
+                // full: wait for the writer to take the buffer (or, for a message bigger than the buffer,
+                // to finish writing altogether so it can go straight out)
+                lock.notifyAll();
+                try {
+                    lock.wait(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (pending.remaining() < length && pending.position() > 0) {
+                // no writer to make room
+                writePending();
+            }
+
+            encode(message);
+            messagesSent++;
+
+            if (writerThread == null) {
+                writePending();
+            } else {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * append the message's bytes to pending, leaving out the status byte when running status allows
+     */
+    private void encode(MidiMessage message) {
+        if (message instanceof ShortMessage) {
+            ShortMessage shortMessage = (ShortMessage) message;
+            int status = shortMessage.getStatus();
+            int length = shortMessage.getLength();
+            if (status >= 0xF8) {
+                // realtime messages can go anywhere and don't affect running status
+                pending.put((byte) status);
+                return;
+            }
+            if (status < 0xF0) {
+                if (!runningStatus || status != outputStatus) {
+                    pending.put((byte) status);
+                    outputStatus = status;
+                }
+            } else {
+                pending.put((byte) status);
+                outputStatus = 0;
+            }
+            if (length > 1) {
+                pending.put((byte) shortMessage.getData1());
+            }
+            if (length > 2) {
+                pending.put((byte) shortMessage.getData2());
+            }
+
+        } else {
+            // sysex and anything else: the bytes as they are, and start over with running status
+            byte[] bytes = message.getMessage();
+            if (message.getLength() > pending.remaining()) {
+                // bigger than the buffer, which send() has made sure is empty
+                writeFully(ByteBuffer.wrap(bytes, 0, message.getLength()));
+            } else {
+                pending.put(bytes, 0, message.getLength());
+            }
+            outputStatus = 0;
+        }
+    }
+
+    /**
+     * write pending out on the calling thread; caller holds lock
+     */
+    private void writePending() {
+        pending.flip();
+        writeFully(pending);
+        pending.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) {
+        try {
+            int bytes = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                outputChannel.write(buffer);
+            }
+            if (bytes > 0) {
+                bytesSent += bytes;
+                writeCount++;
+            }
+        } catch (IOException e) {
+            errorCount++;
+            System.err.println(e);
+        }
+    }
+
+    private void write() {
+        while (true) {
+            synchronized (lock) {
+                writerBusy = false;
+                lock.notifyAll();
+                try {
+                    while (pending.position() == 0 && open) {
+                        lock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    writerThread = null;
+                    return;
+                }
+                if (pending.position() == 0) {
+                    // closed and nothing left to send; senders write straight through from now on
+                    writerThread = null;
+                    return;
+                }
+
+                // take everything that has built up and let senders carry on into the other buffer
+                ByteBuffer taken = pending;
+                pending = writing;
+                writing = taken;
+                writerBusy = true;
+                lock.notifyAll();
+            }
+
+            writing.flip();
+            writeFully(writing);
+            writing.clear();
+        }
+    }
+
+
+    /***** input ****************************************/
+
+    private void read() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        RawMidiParser parser = new RawMidiParser();
+        try {
+            if (inputChannel == null) {
+                inputChannel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            }
+            while (open) {
+                if (inputChannel.read(buffer) < 0) break;
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    MidiMessage message = parser.parse(buffer.get());
+                    if (message != null) {
+                        messagesReceived++;
+                        Receiver target = transmitter.getReceiver();
+                        if (target != null) {
+                            target.send(message, -1);
+                        }
+                    }
+                }
+                buffer.clear();
+            }
+        } catch (ClosedChannelException e) {
+            // closed
+        } catch (IOException e) {
+            if (open) {
+                errorCount++;
+                System.err.println(e);
+            }
+        }
+    }
+
+
+    /***** private implementation ****************************************/
+
+    private void closeChannel(Channel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+
+    private void join(Thread thread) {
+        try {
+            thread.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /***** Receiver and Transmitter ****************************************/
+
+    private class RawReceiver implements Receiver {
+        public void send(MidiMessage message, long timeStamp) {
+            RawMidiDevice.this.send(message);
+        }
+
+        public void close() {}
+    }
+
+    private class RawTransmitter implements Transmitter {
+        private volatile Receiver receiver = null;
+
+        public void setReceiver(Receiver receiver) {
+            this.receiver = receiver;
+        }
+
+        public Receiver getReceiver() {
+            return receiver;
+        }
+
+        public void close() {
+            receiver = null;
+        }
+    }
+
+    private static class RawInfo extends Info {
+        RawInfo(String name, String description) {
+            super(name, "issho", description, "1");
+        }
+    }
+
+
+    /***** RawMidiParser ****************************************/
+
+    /**
+     * Turns a stream of MIDI bytes back into messages, one byte at a time: running status, realtime
+     * messages in the middle of other messages, and sysex.
+     */
+    public static class RawMidiParser {
+
+        private int status = 0;
+        private int expected = 0;
+        private int count = 0;
+        private final int[] data = new int[2];
+
+        private byte[] sysex = new byte[256];
+        private int sysexLength = -1;
+
+        /**
+         * @param b
+         * @return the message this byte completes, or null
+         */
+        public MidiMessage parse(byte b) {
+            int value = b & 0xFF;
+
+            if (value >= 0xF8) {
+                return message(value, 0, 0);
+            }
+
+            if (value == 0xF0) {
+                status = 0;
+                sysexLength = 0;
+                appendSysex(value);
+                return null;
+            }
+
+            if (value == 0xF7) {
+                if (sysexLength < 0) return null;
+                appendSysex(value);
+                byte[] bytes = Arrays.copyOf(sysex, sysexLength);
+                sysexLength = -1;
+                try {
+                    return new SysexMessage(bytes, bytes.length);
+                } catch (InvalidMidiDataException e) {
+                    System.err.println(e);
+                    return null;
+                }
+            }
+
+            if (value >= 0x80) {
+                // any other status ends (and drops) an unfinished sysex
+                sysexLength = -1;
+                status = value;
+                expected = dataLength(value);
+                count = 0;
+                if (expected == 0) {
+                    status = 0;
+                    return message(value, 0, 0);
+                }
+                return null;
+            }
+
+            // data byte
+            if (sysexLength >= 0) {
+                appendSysex(value);
+                return null;
+            }
+            if (status == 0) {
+                // no status to go with it
+                return null;
+            }
+            data[count++] = value;
+            if (count < expected) {
+                return null;
+            }
+
+            int messageStatus = status;
+            count = 0;
+            if (messageStatus >= 0xF0) {
+                // system common messages don't run
+                status = 0;
+            }
+            return message(messageStatus, data[0], expected > 1 ? data[1] : 0);
+        }
+
+        private void appendSysex(int value) {
+            if (sysexLength == sysex.length) {
+                sysex = Arrays.copyOf(sysex, sysex.length * 2);
+            }
+            sysex[sysexLength++] = (byte) value;
+        }
+
+        private static MidiMessage message(int status, int data1, int data2) {
+            try {
+                ShortMessage message = new ShortMessage();
+                message.setMessage(status, data1, data2);
+                return message;
+            } catch (InvalidMidiDataException e) {
+                System.err.println(e);
+                return null;
+            }
+        }
+
+        private static int dataLength(int status) {
+            if (status < 0xF0) {
+                switch (status & 0xF0) {
+                    case ShortMessage.PROGRAM_CHANGE:
+                    case ShortMessage.CHANNEL_PRESSURE:
+                        return 1;
+                    default:
+                        return 2;
+                }
+            }
+            switch (status) {
+                case ShortMessage.MIDI_TIME_CODE:
+                case ShortMessage.SONG_SELECT:
+                    return 1;
+                case ShortMessage.SONG_POSITION_POINTER:
+                    return 2;
+                default:
+                    return 0;
+            }
+        }
+    }
+
+}
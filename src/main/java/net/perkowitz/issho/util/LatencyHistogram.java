@@ -0,0 +1,139 @@
+package net.perkowitz.issho.util;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, fixed-size histogram of nanosecond durations, in the style of HdrHistogram.
+ * Values below SUB_BUCKET_COUNT are recorded exactly; above that, each power of two is split into
+ * HALF_BUCKET_COUNT linear buckets, so any recorded value is accurate to about 3%.
+ * record() is allocation-free and safe to call from any thread.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * HALF_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+
+    /***** public methods ****************************************/
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(indexFor(nanos));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(nanos);
+
+        long max = maxValue.get();
+        while (nanos > max && !maxValue.compareAndSet(max, nanos)) {
+            max = maxValue.get();
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalValue.set(0);
+        maxValue.set(0);
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    public long getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : totalValue.get() / count;
+    }
+
+    /**
+     * the smallest recorded value that at least the given percentage of recorded values are at or below
+     * (to within the bucket resolution)
+     *
+     * @param percentile: 0 - 100
+     * @return nanoseconds
+     */
+    public long getPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += counts.get(i);
+            if (cumulative >= target) {
+                return Math.min(highestValueFor(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * summary of the histogram in microseconds, suitable for printing or writing as json
+     *
+     * @return map of statistic name to value
+     */
+    public Map<String, Object> summary() {
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        map.put("count", getCount());
+        map.put("meanMicros", micros(getMean()));
+        map.put("p50Micros", micros(getPercentile(50)));
+        map.put("p90Micros", micros(getPercentile(90)));
+        map.put("p99Micros", micros(getPercentile(99)));
+        map.put("p999Micros", micros(getPercentile(99.9)));
+        map.put("maxMicros", micros(getMax()));
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                getCount(), micros(getMean()), micros(getPercentile(50)), micros(getPercentile(99)),
+                micros(getPercentile(99.9)), micros(getMax()));
+    }
+
+
+    /***** private implementation ****************************************/
+
+    static int indexFor(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >> shift) - HALF_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_BUCKET_COUNT + subBucket;
+    }
+
+    static long highestValueFor(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / HALF_BUCKET_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % HALF_BUCKET_COUNT + HALF_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    private static double micros(long nanos) {
+        return Math.round(nanos / 100.0) / 10.0;
+    }
+
+}
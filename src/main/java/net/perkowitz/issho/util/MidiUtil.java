@@ -1,8 +1,12 @@
 package net.perkowitz.issho.util;
 
+import net.perkowitz.issho.midi.RawMidiDevice;
+
 import javax.sound.midi.MidiDevice;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by optic on 7/8/16.
@@ -16,6 +20,37 @@ public class MidiUtil {
 
     public static MidiDevice.Info[] midiDeviceInfos = null;
 
+    /**
+     * find the device described by a device config: a RawMidiDevice if it has a "raw" path (or "rawInput" /
+     * "rawOutput" paths for the two directions), otherwise the javax.sound.midi device matching its "names"
+     *
+     * @param config
+     * @param receive
+     * @param transmit
+     * @return the device, or null if none matches
+     */
+    public static MidiDevice findMidiDevice(Map<Object,Object> config, boolean receive, boolean transmit) {
+
+        String path = (String)config.get(receive ? "rawOutput" : "rawInput");
+        if (path == null) {
+            path = (String)config.get("raw");
+        }
+        if (path != null) {
+            RawMidiDevice device = new RawMidiDevice(path, path, transmit, receive);
+            Boolean runningStatus = (Boolean)config.get("runningStatus");
+            if (runningStatus != null) {
+                device.setRunningStatus(runningStatus);
+            }
+            return device;
+        }
+
+        List<String> names = (List<String>)config.get("names");
+        if (names == null) {
+            return null;
+        }
+        return findMidiDevice(names.toArray(new String[0]), receive, transmit);
+    }
+
     public static MidiDevice findMidiDevice(String[] deviceNames, boolean receive, boolean transmit) {
 
         if (midiDeviceInfos == null) {
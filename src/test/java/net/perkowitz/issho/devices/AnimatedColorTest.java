@@ -0,0 +1,63 @@
+package net.perkowitz.issho.devices;
+
+import net.perkowitz.issho.devices.launchpadpro.Color;
+import net.perkowitz.issho.devices.launchpadpro.LaunchpadPro;
+import org.junit.Test;
+
+import javax.sound.midi.Receiver;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for AnimatedColor phases and host emulation in BufferedDisplay.
+ */
+public class AnimatedColorTest {
+
+    private static final long HALF_FLASH = AnimatedColor.FLASH_PERIOD_NANOS / 2;
+
+    @Test
+    public void testPhase() throws Exception {
+        AnimatedColor flash = AnimatedColor.flash(Color.BRIGHT_RED, Color.DIM_RED);
+        assertEquals(Color.BRIGHT_RED, flash.colorAt(0));
+        assertEquals(Color.DIM_RED, flash.colorAt(HALF_FLASH));
+        assertEquals(Color.BRIGHT_RED, flash.colorAt(2 * HALF_FLASH));
+
+        AnimatedColor pulse = AnimatedColor.pulse(Color.BRIGHT_GREEN);
+        assertEquals(Color.OFF, pulse.colorAt(AnimatedColor.PULSE_PERIOD_NANOS / 2));
+    }
+
+    @Test
+    public void testEmulated() throws Exception {
+        GridDisplay display = mock(GridDisplay.class);
+        BufferedDisplay bufferedDisplay = new BufferedDisplay(display);
+        GridPad pad = GridPad.at(1, 1);
+        bufferedDisplay.setPad(pad, AnimatedColor.flash(Color.BRIGHT_RED, Color.DIM_RED));
+
+        assertEquals(1, bufferedDisplay.flush(0));
+        verify(display, times(1)).setFrame(any(GridColor[].class));
+
+        // redrawn only when the phase changes
+        assertEquals(0, bufferedDisplay.flush(HALF_FLASH / 2));
+        assertEquals(1, bufferedDisplay.flush(HALF_FLASH));
+        assertEquals(0, bufferedDisplay.flush(HALF_FLASH + 1));
+        assertEquals(1, bufferedDisplay.flush(2 * HALF_FLASH));
+        verify(display, times(3)).setFrame(any(GridColor[].class));
+    }
+
+    @Test
+    public void testNative() throws Exception {
+        LaunchpadPro launchpadPro = spy(new LaunchpadPro(mock(Receiver.class), null));
+        assertTrue(AnimatedColor.isNative(launchpadPro));
+        assertTrue(AnimatedColor.isNative(new QueuedGridDevice(launchpadPro, "test")));
+
+        // sent once; the device does the rest
+        BufferedDisplay bufferedDisplay = new BufferedDisplay(launchpadPro);
+        bufferedDisplay.setPad(GridPad.at(1, 1), AnimatedColor.flash(Color.BRIGHT_RED, Color.DIM_RED));
+        assertEquals(1, bufferedDisplay.flush(0));
+        assertEquals(0, bufferedDisplay.flush(HALF_FLASH));
+        assertEquals(0, bufferedDisplay.flush(2 * HALF_FLASH));
+    }
+
+}
@@ -0,0 +1,82 @@
+package net.perkowitz.issho.devices;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * Rough timing of GridControlSet lookups, run by hand:
+ *
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes:$GUAVA_JAR net.perkowitz.issho.devices.GridControlSetBenchmark
+ *
+ * Looks up every pad and button against a chain of sets, the way a module's onControlPressed does.
+ */
+public class GridControlSetBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static final int ITERATIONS = 20000;
+
+    public static void main(String args[]) {
+
+        List<GridControlSet> sets = Lists.newArrayList(
+                GridControlSet.buttonSide(GridButton.Side.Top),
+                GridControlSet.buttonSide(GridButton.Side.Bottom),
+                GridControlSet.buttonSideInverted(GridButton.Side.Left),
+                GridControlSet.buttonSide(GridButton.Side.Right, 0, 3),
+                GridControlSet.buttonSide(GridButton.Side.Right, 4, 7),
+                GridControlSet.padRows(0, 1),
+                GridControlSet.padRow(2),
+                GridControlSet.padRow(3),
+                GridControlSet.padRows(4, 5),
+                GridControlSet.padRow(6),
+                GridControlSet.padRow(7),
+                GridControlSet.padColumn(7));
+
+        List<GridControl> controls = Lists.newArrayList();
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                controls.add(GridControl.at(GridPad.at(x, y)));
+            }
+        }
+        for (GridButton.Side side : GridButton.Side.values()) {
+            for (int index = 0; index < 8; index++) {
+                controls.add(GridControl.at(GridButton.at(side, index)));
+            }
+        }
+        GridControl[] lookups = controls.toArray(new GridControl[controls.size()]);
+        GridControlSet[] chain = sets.toArray(new GridControlSet[sets.size()]);
+
+        long sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            sink += run(chain, lookups);
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            sink += run(chain, lookups);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        long lookupCount = (long) ITERATIONS * lookups.length * chain.length;
+        System.out.printf("contains+getIndex: %.1f ns/lookup (%d lookups per round, sink %d)\n",
+                (double) best / lookupCount, lookupCount, sink);
+    }
+
+    private static long run(GridControlSet[] chain, GridControl[] lookups) {
+        long sum = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (GridControl control : lookups) {
+                for (GridControlSet set : chain) {
+                    if (set.contains(control)) {
+                        sum += set.getIndex(control);
+                    }
+                }
+            }
+        }
+        return sum;
+    }
+
+}
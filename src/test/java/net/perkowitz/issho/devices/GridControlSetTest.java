@@ -0,0 +1,76 @@
+package net.perkowitz.issho.devices;
+
+import com.google.common.collect.Lists;
+import net.perkowitz.issho.devices.launchpadpro.Color;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for GridControlSet lookups.
+ */
+public class GridControlSetTest {
+
+    @Test
+    public void testPads() throws Exception {
+        GridControlSet set = GridControlSet.pads(2, 3, 4, 7);
+        assertEquals(8, set.size());
+        assertTrue(set.contains(GridPad.at(4, 2)));
+        assertTrue(set.contains(GridControl.at(GridPad.at(7, 3))));
+        assertFalse(set.contains(GridPad.at(3, 2)));
+        assertFalse(set.contains(GridControl.at(GridButton.at(GridButton.Side.Top, 4))));
+        assertEquals(Integer.valueOf(5), set.getIndex(GridControl.at(GridPad.at(5, 3))));
+        assertNull(set.getIndex(GridControl.at(GridPad.at(0, 0))));
+    }
+
+    @Test
+    public void testButtons() throws Exception {
+        GridControlSet set = GridControlSet.buttonSideInverted(GridButton.Side.Left);
+        assertTrue(set.contains(GridButton.at(GridButton.Side.Left, 0)));
+        assertFalse(set.contains(GridButton.at(GridButton.Side.Right, 0)));
+        assertFalse(set.contains(GridPad.at(0, 0)));
+        assertEquals(Integer.valueOf(7), set.getIndex(GridControl.at(GridButton.at(GridButton.Side.Left, 0))));
+    }
+
+    @Test
+    public void testOutsideTables() throws Exception {
+        GridPad pad = GridPad.at(GridPad.TABLE_SIZE + 1, 0);
+        GridControlSet set = new GridControlSet(Lists.newArrayList(new GridControl(pad, 3)));
+        assertTrue(set.contains(GridPad.at(GridPad.TABLE_SIZE + 1, 0)));
+        assertEquals(Integer.valueOf(3), set.getIndex(new GridControl(pad, null)));
+        assertFalse(set.contains(GridPad.at(0, 0)));
+    }
+
+    @Test
+    public void testChanges() throws Exception {
+        GridControlSet set = GridControlSet.padRow(0);
+        GridControl added = new GridControl(GridButton.at(GridButton.Side.Top, 2), 8);
+        set.add(added);
+        assertTrue(set.contains(GridButton.at(GridButton.Side.Top, 2)));
+        assertTrue(set.remove(GridControl.at(GridPad.at(3, 0))));
+        assertFalse(set.contains(GridPad.at(3, 0)));
+        assertFalse(set.remove(GridControl.at(GridPad.at(3, 0))));
+
+        // what's drawn follows the changes
+        GridDisplay display = mock(GridDisplay.class);
+        set.draw(display, Color.BRIGHT_ORANGE);
+        ArgumentCaptor<GridControl[]> drawn = ArgumentCaptor.forClass(GridControl[].class);
+        verify(display).setControls(drawn.capture(), eq(Color.BRIGHT_ORANGE));
+        assertEquals(8, drawn.getValue().length);
+        assertSame(added, drawn.getValue()[7]);
+
+        // a copy doesn't change with the original
+        GridControlSet copy = new GridControlSet(set);
+        set.remove(added);
+        assertTrue(copy.contains(GridButton.at(GridButton.Side.Top, 2)));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testControlsReadOnly() throws Exception {
+        GridControlSet.padRow(0).getControls().clear();
+    }
+
+}
@@ -0,0 +1,62 @@
+package net.perkowitz.issho.devices;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for interned pads, buttons and controls.
+ */
+public class GridControlTest {
+
+    @Test
+    public void testInterned() throws Exception {
+        assertSame(GridPad.at(3, 5), GridPad.at(3, 5));
+        assertSame(GridButton.at(GridButton.Side.Left, 2), GridButton.at(GridButton.Side.Left, 2));
+        assertSame(GridKnob.at(GridKnob.Side.Top, 7), GridKnob.at(GridKnob.Side.Top, 7));
+        assertSame(GridControl.at(GridPad.at(3, 5)), GridControl.at(GridPad.at(3, 5)));
+        assertSame(GridControl.at(GridButton.at(GridButton.Side.Right, 0)), GridControl.at(GridButton.at(GridButton.Side.Right, 0)));
+
+        // outside the tables they're still usable, just not shared
+        assertEquals(GridPad.at(20, 1), GridPad.at(20, 1));
+        assertEquals(GridPad.at(20, 1).hashCode(), GridPad.at(20, 1).hashCode());
+    }
+
+    @Test
+    public void testOutsideTables() throws Exception {
+        // e.g. LaunchpadPro.noteToPad gives x=-1 for the side notes; these must not recurse
+        GridPad[] pads = { GridPad.at(-1, 3), GridPad.at(3, -1), GridPad.at(GridPad.TABLE_SIZE, 0), GridPad.at(0, 100) };
+        for (GridPad pad : pads) {
+            GridControl control = GridControl.at(pad);
+            assertEquals(pad, control.getPad());
+            assertEquals(control, GridControl.at(pad));
+        }
+
+        GridButton button = GridButton.at(GridButton.Side.Left, -1);
+        assertEquals(button, GridControl.at(button).getButton());
+        button = GridButton.at(GridButton.Side.Left, GridButton.TABLE_SIZE + 5);
+        assertEquals(button, GridControl.at(button).getButton());
+
+        GridKnob knob = GridKnob.at(GridKnob.Side.Top, -2);
+        assertEquals(knob, GridControl.at(knob).getKnob());
+        knob = GridKnob.at(GridKnob.Side.Top, GridKnob.TABLE_SIZE);
+        assertEquals(knob, GridControl.at(knob).getKnob());
+    }
+
+    @Test
+    public void testEquals() throws Exception {
+        GridPad pad = GridPad.at(1, 2);
+        GridButton button = GridButton.at(GridButton.Side.Top, 1);
+
+        // the index doesn't count
+        GridControl control = new GridControl(pad, 10);
+        assertEquals(GridControl.at(pad), control);
+        assertEquals(GridControl.at(pad).hashCode(), control.hashCode());
+        assertEquals(control, pad);
+
+        assertNotEquals(GridControl.at(pad), GridControl.at(button));
+        assertNotEquals(GridControl.at(pad), GridControl.at(GridPad.at(2, 1)));
+        assertNotEquals(GridControl.at(button), GridControl.at(GridButton.at(GridButton.Side.Bottom, 1)));
+    }
+
+}
@@ -0,0 +1,144 @@
+package net.perkowitz.issho.devices;
+
+import com.google.common.collect.Lists;
+import net.perkowitz.issho.devices.launchpadpro.Color;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for GridFrame cell mapping and coalesced, prioritized flushing.
+ */
+public class GridFrameTest {
+
+    GridFrame frame;
+    GridDisplay display;
+
+    @Before
+    public void setUp() throws Exception {
+        frame = new GridFrame();
+        display = mock(GridDisplay.class);
+    }
+
+    @Test
+    public void testCells() throws Exception {
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                GridPad pad = GridFrame.padAt(GridFrame.cell(GridPad.at(x, y)));
+                assertEquals(GridPad.at(x, y), pad);
+            }
+        }
+        for (GridButton.Side side : GridButton.Side.values()) {
+            for (int index = 0; index < 8; index++) {
+                GridButton button = GridFrame.buttonAt(GridFrame.cell(GridButton.at(side, index)));
+                assertEquals(GridButton.at(side, index), button);
+            }
+        }
+        assertEquals(-1, GridFrame.cell(GridPad.at(8, 0)));
+        assertEquals(-1, GridFrame.cell(GridButton.at(GridButton.Side.Top, 8)));
+    }
+
+    @Test
+    public void testDrawFrame() throws Exception {
+        GridColor[] cells = new GridColor[GridFrame.CELL_COUNT];
+        cells[GridFrame.cell(GridPad.at(0, 0))] = Color.WHITE;
+        cells[GridFrame.cell(GridButton.at(GridButton.Side.Right, 7))] = Color.WHITE;
+        GridFrame.draw(display, cells);
+        verify(display).setPad(GridPad.at(0, 0), Color.WHITE);
+        verify(display).setButton(GridButton.at(GridButton.Side.Right, 7), Color.WHITE);
+        verifyNoMoreInteractions(display);
+    }
+
+    @Test
+    public void testFlushCoalesces() throws Exception {
+        GridPad pad = GridPad.at(3, 4);
+        frame.set(pad, Color.BRIGHT_RED);
+        frame.set(pad, Color.BRIGHT_GREEN);
+        frame.set(GridButton.at(GridButton.Side.Left, 2), Color.WHITE);
+
+        // the changed cells go to the display in one batch
+        ArgumentCaptor<GridColor[]> cellsCaptor = ArgumentCaptor.forClass(GridColor[].class);
+        assertEquals(2, frame.flush(display));
+        verify(display, times(1)).setFrame(cellsCaptor.capture());
+        verifyNoMoreInteractions(display);
+        GridColor[] cells = cellsCaptor.getValue();
+        int count = 0;
+        for (GridColor color : cells) {
+            if (color != null) {
+                count++;
+            }
+        }
+        assertEquals(2, count);
+        assertEquals(Color.BRIGHT_GREEN, cells[GridFrame.cell(pad)]);
+        assertEquals(Color.WHITE, cells[GridFrame.cell(GridButton.at(GridButton.Side.Left, 2))]);
+        reset(display);
+
+        // nothing changed since the last flush
+        assertEquals(0, frame.flush(display));
+        verify(display, never()).setFrame(any(GridColor[].class));
+
+        frame.markAllDirty();
+        assertEquals(2, frame.flush(display));
+    }
+
+    @Test
+    public void testFlushBudget() throws Exception {
+        GridPad staticPad = GridPad.at(0, 0);
+        GridPad editPad = GridPad.at(1, 0);
+        GridPad playheadPad = GridPad.at(2, 0);
+        frame.set(GridFrame.cell(staticPad), Color.WHITE, LedPriority.STATIC);
+        frame.set(GridFrame.cell(editPad), Color.WHITE, LedPriority.EDIT);
+        frame.set(GridFrame.cell(playheadPad), Color.WHITE, LedPriority.STATIC);
+        frame.set(GridFrame.cell(playheadPad), Color.BRIGHT_RED, LedPriority.PLAYHEAD);
+
+        // the playhead and then the edit go first; the static cell waits for the next flush
+        ArgumentCaptor<GridColor[]> cellsCaptor = ArgumentCaptor.forClass(GridColor[].class);
+        assertEquals(2, frame.flush(display, 2));
+        verify(display, times(2)).setFrame(cellsCaptor.capture());
+        assertTrue(frame.isDirty());
+        reset(display);
+
+        assertEquals(1, frame.flush(display, 2));
+        verify(display, times(1)).setFrame(any(GridColor[].class));
+        assertFalse(frame.isDirty());
+    }
+
+    @Test
+    public void testPriorityOrder() throws Exception {
+        final List<GridColor[]> frames = Lists.newArrayList();
+        final List<LedPriority> priorities = Lists.newArrayList();
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                GridColor[] cells = invocation.getArgument(0);
+                frames.add(Arrays.copyOf(cells, cells.length));
+                priorities.add(LedPriority.current());
+                return null;
+            }
+        }).when(display).setFrame(any(GridColor[].class));
+
+        frame.set(GridPad.at(0, 0), Color.WHITE);
+        LedPriority previous = LedPriority.set(LedPriority.PLAYHEAD);
+        frame.set(GridPad.at(5, 5), Color.BRIGHT_RED);
+        LedPriority.set(previous);
+
+        assertEquals(2, frame.flush(display));
+        assertEquals(2, frames.size());
+        assertEquals(Color.BRIGHT_RED, frames.get(0)[GridFrame.cell(GridPad.at(5, 5))]);
+        assertNull(frames.get(0)[GridFrame.cell(GridPad.at(0, 0))]);
+        assertEquals(Color.WHITE, frames.get(1)[GridFrame.cell(GridPad.at(0, 0))]);
+
+        // each level is sent with its own priority, so a queued display keeps the order
+        assertEquals(Lists.newArrayList(LedPriority.PLAYHEAD, LedPriority.STATIC), priorities);
+        assertEquals(LedPriority.STATIC, LedPriority.current());
+    }
+
+}
@@ -0,0 +1,56 @@
+package net.perkowitz.issho.devices;
+
+import net.perkowitz.issho.devices.launchpadpro.Color;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for OffscreenDisplay.
+ */
+public class OffscreenDisplayTest {
+
+    OffscreenDisplay offscreenDisplay;
+    GridDisplay display;
+
+    @Before
+    public void setUp() throws Exception {
+        offscreenDisplay = new OffscreenDisplay();
+        display = mock(GridDisplay.class);
+    }
+
+    @Test
+    public void testBlit() throws Exception {
+        assertFalse(offscreenDisplay.isDrawn());
+
+        GridPad pad = GridPad.at(1, 2);
+        GridButton button = GridButton.at(GridButton.Side.Bottom, 3);
+        offscreenDisplay.setPad(pad, Color.BRIGHT_RED);
+        offscreenDisplay.setPad(pad, Color.BRIGHT_GREEN);
+        offscreenDisplay.setButton(button, Color.WHITE);
+        assertTrue(offscreenDisplay.isDrawn());
+
+        // the whole picture goes to the display in one batch, with only the cells that were drawn
+        ArgumentCaptor<GridColor[]> cellsCaptor = ArgumentCaptor.forClass(GridColor[].class);
+        offscreenDisplay.blit(display);
+        verify(display, times(1)).setFrame(cellsCaptor.capture());
+        verifyNoMoreInteractions(display);
+        GridColor[] cells = cellsCaptor.getValue();
+        assertEquals(Color.BRIGHT_GREEN, cells[GridFrame.cell(pad)]);
+        assertEquals(Color.WHITE, cells[GridFrame.cell(button)]);
+        assertNull(cells[GridFrame.cell(GridPad.at(0, 0))]);
+    }
+
+    @Test
+    public void testInitialize() throws Exception {
+        offscreenDisplay.initialize(true, null);
+        for (int cell = 0; cell < GridFrame.PAD_COUNT; cell++) {
+            assertEquals(Color.OFF, offscreenDisplay.get(cell));
+        }
+        assertNull(offscreenDisplay.get(GridFrame.cell(GridButton.at(GridButton.Side.Top, 0))));
+    }
+
+}
@@ -0,0 +1,176 @@
+package net.perkowitz.issho.devices;
+
+import com.google.common.collect.Lists;
+import net.perkowitz.issho.devices.launchpadpro.Color;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for QueuedGridDevice's overflow policy.
+ */
+public class QueuedGridDeviceTest {
+
+    GridDevice device;
+    QueuedGridDevice queuedGridDevice;
+
+    // the device stalls in its first setFrame until released
+    final CountDownLatch stalled = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<GridColor[]> frames = Lists.newArrayList();
+
+    @Before
+    public void setUp() throws Exception {
+        device = mock(GridDevice.class);
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                GridColor[] cells = invocation.getArgument(0);
+                synchronized (frames) {
+                    frames.add(Arrays.copyOf(cells, cells.length));
+                }
+                stalled.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(device).setFrame(any(GridColor[].class));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        queuedGridDevice.stop();
+    }
+
+    @Test
+    public void testStaleLedsDropped() throws Exception {
+        queuedGridDevice = new QueuedGridDevice(device, "test", 4);
+        queuedGridDevice.start();
+
+        GridPad first = GridPad.at(0, 0);
+        GridPad second = GridPad.at(1, 1);
+        queuedGridDevice.setPad(first, Color.WHITE);
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+
+        // while the device is stuck, the caller doesn't wait and only the latest color is kept
+        queuedGridDevice.setPad(second, Color.BRIGHT_RED);
+        queuedGridDevice.setPad(second, Color.BRIGHT_GREEN);
+        queuedGridDevice.setPad(second, Color.BRIGHT_BLUE);
+        queuedGridDevice.refresh();
+        assertEquals(2, queuedGridDevice.getDroppedCount());
+        assertEquals(2, queuedGridDevice.getDepth());
+
+        release.countDown();
+        queuedGridDevice.stop();
+
+        verify(device, times(2)).setFrame(any(GridColor[].class));
+        verify(device, times(1)).refresh();
+        assertEquals(Color.WHITE, frames.get(0)[GridFrame.cell(first)]);
+        assertEquals(Color.BRIGHT_BLUE, frames.get(1)[GridFrame.cell(second)]);
+        assertNull(frames.get(1)[GridFrame.cell(first)]);
+        assertEquals(0, queuedGridDevice.getDepth());
+    }
+
+    @Test
+    public void testPriorityOrder() throws Exception {
+        queuedGridDevice = new QueuedGridDevice(device, "test", 4);
+        queuedGridDevice.start();
+
+        queuedGridDevice.setPad(GridPad.at(0, 0), Color.WHITE);
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+
+        // the static cell is queued first, but the playhead goes out ahead of it
+        GridPad background = GridPad.at(2, 2);
+        GridPad playhead = GridPad.at(5, 5);
+        queuedGridDevice.setPad(background, Color.BRIGHT_BLUE);
+        LedPriority previous = LedPriority.set(LedPriority.PLAYHEAD);
+        try {
+            queuedGridDevice.setPad(playhead, Color.BRIGHT_RED);
+        } finally {
+            LedPriority.set(previous);
+        }
+
+        release.countDown();
+        queuedGridDevice.stop();
+
+        assertEquals(3, frames.size());
+        assertEquals(Color.BRIGHT_RED, frames.get(1)[GridFrame.cell(playhead)]);
+        assertNull(frames.get(1)[GridFrame.cell(background)]);
+        assertEquals(Color.BRIGHT_BLUE, frames.get(2)[GridFrame.cell(background)]);
+        assertNull(frames.get(2)[GridFrame.cell(playhead)]);
+    }
+
+    @Test
+    public void testCommandsNotDropped() throws Exception {
+        queuedGridDevice = new QueuedGridDevice(device, "test", 2);
+        queuedGridDevice.start();
+
+        queuedGridDevice.setPad(GridPad.at(0, 0), Color.WHITE);
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+
+        // more knob values than the queue holds; the producer waits instead of dropping any
+        final GridKnob knob = GridKnob.at(GridKnob.Side.Top, 0);
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                for (int value = 0; value < 5; value++) {
+                    queuedGridDevice.setKnob(knob, value);
+                }
+            }
+        });
+        producer.start();
+        Thread.sleep(50);
+        assertTrue(producer.isAlive());
+
+        release.countDown();
+        producer.join(5000);
+        queuedGridDevice.stop();
+
+        assertTrue(queuedGridDevice.getBlockedCount() > 0);
+        InOrder inOrder = inOrder(device);
+        for (int value = 0; value < 5; value++) {
+            inOrder.verify(device).setKnob(knob, value);
+        }
+    }
+
+    @Test
+    public void testInitializeClearsPending() throws Exception {
+        queuedGridDevice = new QueuedGridDevice(device, "test", 4);
+        queuedGridDevice.start();
+
+        queuedGridDevice.setPad(GridPad.at(0, 0), Color.WHITE);
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+
+        // drawn before the initialize, so it mustn't be sent after it
+        queuedGridDevice.setPad(GridPad.at(2, 2), Color.BRIGHT_RED);
+        queuedGridDevice.initialize();
+        assertEquals(1, queuedGridDevice.getDepth());
+
+        release.countDown();
+        queuedGridDevice.stop();
+
+        verify(device, times(1)).setFrame(any(GridColor[].class));
+        verify(device, times(1)).initialize();
+    }
+
+    @Test
+    public void testNotStarted() throws Exception {
+        release.countDown();
+        queuedGridDevice = new QueuedGridDevice(device, "test");
+        queuedGridDevice.setPad(GridPad.at(3, 3), Color.WHITE);
+        queuedGridDevice.refresh();
+        verify(device).setPad(GridPad.at(3, 3), Color.WHITE);
+        verify(device).refresh();
+    }
+
+}
@@ -0,0 +1,63 @@
+package net.perkowitz.issho.devices;
+
+import com.google.common.collect.Lists;
+import net.perkowitz.issho.devices.launchpadpro.Color;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for RenderLoop's start and stop.
+ */
+public class RenderLoopTest {
+
+    GridDisplay display;
+    final List<String> threads = Lists.newArrayList();
+
+    @Before
+    public void setUp() throws Exception {
+        display = mock(GridDisplay.class);
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                synchronized (threads) {
+                    threads.add(Thread.currentThread().getName());
+                }
+                return null;
+            }
+        }).when(display).setFrame(any(GridColor[].class));
+    }
+
+    @Test
+    public void testStopFlushesOnRenderThread() throws Exception {
+        // one frame a second, so the drawing below waits for the final flush
+        RenderLoop renderLoop = new RenderLoop(1);
+        BufferedDisplay bufferedDisplay = renderLoop.add(display);
+        renderLoop.start();
+        Thread.sleep(50);
+
+        bufferedDisplay.setPad(GridPad.at(0, 0), Color.WHITE);
+        renderLoop.stop();
+
+        verify(display, times(1)).setFrame(any(GridColor[].class));
+        assertEquals(Lists.newArrayList("hachi-render"), threads);
+    }
+
+    @Test
+    public void testStopNotStarted() throws Exception {
+        RenderLoop renderLoop = new RenderLoop(1);
+        BufferedDisplay bufferedDisplay = renderLoop.add(display);
+
+        bufferedDisplay.setPad(GridPad.at(0, 0), Color.WHITE);
+        renderLoop.stop();
+
+        verify(display, times(1)).setFrame(any(GridColor[].class));
+    }
+
+}
@@ -0,0 +1,115 @@
+package net.perkowitz.issho.devices.launchpad;
+
+import net.perkowitz.issho.devices.GridButton;
+import net.perkowitz.issho.devices.GridColor;
+import net.perkowitz.issho.devices.GridFrame;
+import net.perkowitz.issho.devices.GridPad;
+import net.perkowitz.issho.devices.launchpadpro.Color;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.List;
+
+import static javax.sound.midi.ShortMessage.CONTROL_CHANGE;
+import static javax.sound.midi.ShortMessage.NOTE_ON;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the Launchpad's double buffered mode.
+ */
+public class LaunchpadTest {
+
+    Launchpad launchpad;
+    Receiver receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = mock(Receiver.class);
+        launchpad = new Launchpad(copying(receiver), null);
+    }
+
+    @Test
+    public void singleBuffered() throws Exception {
+        launchpad.setPad(GridPad.at(1, 2), Color.fromIndex(0x33));
+        ShortMessage message = captureOne();
+        assertEquals(NOTE_ON, message.getCommand());
+        assertEquals(2 * 16 + 1, message.getData1());
+        assertEquals(0x33, message.getData2());
+    }
+
+    @Test
+    public void bigFrameFlips() throws Exception {
+        launchpad.setDoubleBuffered(true);
+        launchpad.initialize();
+        assertEquals(1, launchpad.getFlipCount());
+        reset(receiver);
+
+        GridColor[] cells = new GridColor[GridFrame.CELL_COUNT];
+        for (int cell = 0; cell < GridFrame.PAD_COUNT; cell++) {
+            cells[cell] = Color.fromIndex(0x30);
+        }
+        cells[GridFrame.cell(GridButton.at(GridButton.Side.Top, 0))] = Color.fromIndex(0x03);
+        launchpad.setFrame(cells);
+
+        // 40 rapid updates into the hidden buffer, then one buffer flip
+        ArgumentCaptor<MidiMessage> captor = ArgumentCaptor.forClass(MidiMessage.class);
+        verify(receiver, times(41)).send(captor.capture(), any(Long.class));
+        List<MidiMessage> messages = captor.getAllValues();
+        for (int i = 0; i < 40; i++) {
+            ShortMessage message = (ShortMessage) messages.get(i);
+            assertEquals(NOTE_ON, message.getCommand());
+            assertEquals(2, message.getChannel());
+        }
+        // the top buttons come last
+        ShortMessage lastRapid = (ShortMessage) messages.get(36);
+        assertEquals(0x03, lastRapid.getData1());
+        ShortMessage flip = (ShortMessage) messages.get(40);
+        assertEquals(CONTROL_CHANGE, flip.getCommand());
+        assertEquals(0, flip.getData1());
+        assertEquals(0x20 | 0x04, flip.getData2());
+        assertEquals(2, launchpad.getFlipCount());
+    }
+
+    @Test
+    public void smallFrameWritesBothBuffers() throws Exception {
+        launchpad.setDoubleBuffered(true);
+        launchpad.initialize();
+        reset(receiver);
+
+        GridColor[] cells = new GridColor[GridFrame.CELL_COUNT];
+        cells[GridFrame.cell(GridPad.at(0, 0))] = Color.fromIndex(0x30);
+        launchpad.setFrame(cells);
+        ShortMessage message = captureOne();
+        assertEquals(0, message.getChannel());
+        assertEquals(0x30 | 0x04, message.getData2());
+        assertEquals(1, launchpad.getFlipCount());
+    }
+
+
+    /***** helper methods *****************************************/
+
+    private ShortMessage captureOne() {
+        ArgumentCaptor<MidiMessage> captor = ArgumentCaptor.forClass(MidiMessage.class);
+        verify(receiver, times(1)).send(captor.capture(), any(Long.class));
+        return (ShortMessage) captor.getValue();
+    }
+
+    // the device reuses its message, so hand the mock a copy of each one
+    private static Receiver copying(final Receiver receiver) {
+        return new Receiver() {
+            public void send(MidiMessage message, long timeStamp) {
+                receiver.send((MidiMessage) message.clone(), timeStamp);
+            }
+            public void close() {
+                receiver.close();
+            }
+        };
+    }
+
+}
@@ -1,6 +1,7 @@
 package net.perkowitz.issho.devices.launchpadpro;
 
 import com.google.common.collect.Sets;
+import net.perkowitz.issho.devices.AnimatedColor;
 import net.perkowitz.issho.devices.GridButton;
 import net.perkowitz.issho.devices.GridListener;
 import net.perkowitz.issho.devices.GridPad;
@@ -12,6 +13,7 @@ import org.mockito.ArgumentCaptor;
 import javax.sound.midi.MidiMessage;
 import javax.sound.midi.Receiver;
 import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
 
 import static javax.sound.midi.ShortMessage.CONTROL_CHANGE;
 import static javax.sound.midi.ShortMessage.NOTE_ON;
@@ -32,7 +34,7 @@ public class LaunchpadProTest {
     public void setUp() throws Exception {
         receiver = mock(Receiver.class);
         listener = mock(GridListener.class);
-        launchpadPro = new LaunchpadPro(receiver, listener);
+        launchpadPro = new LaunchpadPro(copying(receiver), listener);
     }
 
     @After
@@ -102,6 +104,122 @@ public class LaunchpadProTest {
         }
     }
 
+    @Test
+    public void unchangedNotResent() throws Exception {
+        GridPad pad = GridPad.at(2, 3);
+        GridButton button = GridButton.at(GridButton.Side.Left, 4);
+        launchpadPro.setPad(pad, Color.BRIGHT_BLUE);
+        launchpadPro.setPad(pad, Color.BRIGHT_BLUE);
+        launchpadPro.setButton(button, Color.BRIGHT_BLUE);
+        launchpadPro.setButton(button, Color.BRIGHT_BLUE);
+        verify(receiver, times(2)).send(any(MidiMessage.class), any(Long.class));
+        reset(receiver);
+
+        launchpadPro.setPad(pad, Color.OFF);
+        verify(receiver, times(1)).send(any(MidiMessage.class), any(Long.class));
+        assertEquals(2, launchpadPro.getShadowBuffer().getSkippedCount());
+    }
+
+    @Test
+    public void animatedColors() throws Exception {
+        GridPad pad = GridPad.at(2, 3);
+        GridButton button = GridButton.at(GridButton.Side.Right, 1);
+
+        // flashing: the base color on channel 1 and the flash color on channel 2, sent once
+        ArgumentCaptor<MidiMessage> messageArgumentCaptor = ArgumentCaptor.forClass(MidiMessage.class);
+        launchpadPro.setPad(pad, AnimatedColor.flash(Color.BRIGHT_RED, Color.DIM_RED));
+        launchpadPro.setPad(pad, AnimatedColor.flash(Color.BRIGHT_RED, Color.DIM_RED));
+        verify(receiver, times(2)).send(messageArgumentCaptor.capture(), eq(-1L));
+        ShortMessage base = (ShortMessage) messageArgumentCaptor.getAllValues().get(0);
+        ShortMessage flash = (ShortMessage) messageArgumentCaptor.getAllValues().get(1);
+        verifyNoteMessage(base, pad2note(2, 3), Color.DIM_RED.getIndex());
+        assertEquals(0, base.getChannel());
+        verifyNoteMessage(flash, pad2note(2, 3), Color.BRIGHT_RED.getIndex());
+        assertEquals(1, flash.getChannel());
+        reset(receiver);
+
+        // pulsing: the color on channel 3
+        messageArgumentCaptor = ArgumentCaptor.forClass(MidiMessage.class);
+        launchpadPro.setButton(button, AnimatedColor.pulse(Color.BRIGHT_GREEN));
+        verify(receiver, times(1)).send(messageArgumentCaptor.capture(), eq(-1L));
+        ShortMessage pulse = (ShortMessage) messageArgumentCaptor.getValue();
+        verifyCCMessage(pulse, button2cc(GridButton.Side.Right, 1), Color.BRIGHT_GREEN.getIndex());
+        assertEquals(2, pulse.getChannel());
+        reset(receiver);
+
+        // back to a solid color
+        launchpadPro.setPad(pad, Color.BRIGHT_RED);
+        verify(receiver, times(1)).send(any(MidiMessage.class), any(Long.class));
+    }
+
+    @Test
+    public void refresh() throws Exception {
+        launchpadPro.setPad(GridPad.at(0, 0), Color.BRIGHT_BLUE);
+        launchpadPro.setButton(GridButton.at(GridButton.Side.Top, 0), Color.BRIGHT_BLUE);
+        reset(receiver);
+
+        // only cells that have been set are sent again
+        launchpadPro.refresh();
+        verify(receiver, times(2)).send(any(MidiMessage.class), any(Long.class));
+        reset(receiver);
+
+        launchpadPro.initialize();
+        reset(receiver);
+        launchpadPro.refresh();
+        verify(receiver, times(96)).send(any(MidiMessage.class), any(Long.class));
+    }
+
+    @Test
+    public void sysexFrame() throws Exception {
+        launchpadPro.setSysexEnabled(true);
+
+        // all 96 leds fit in one message: header, 96 (led, color) pairs, end
+        launchpadPro.initialize();
+        ArgumentCaptor<MidiMessage> messageArgumentCaptor = ArgumentCaptor.forClass(MidiMessage.class);
+        verify(receiver, times(1)).send(messageArgumentCaptor.capture(), eq(-1L));
+        MidiMessage message = messageArgumentCaptor.getValue();
+        assertTrue(message instanceof SysexMessage);
+        byte[] data = message.getMessage();
+        assertEquals(7 + 96 * 2 + 1, data.length);
+        assertEquals(0x0a, data[6]);
+        assertEquals((byte) 0xf7, data[data.length - 1]);
+        reset(receiver);
+
+        // outside a frame, changes still go out one at a time
+        launchpadPro.setPad(GridPad.at(0, 0), Color.BRIGHT_BLUE);
+        verify(receiver).send(messageArgumentCaptor.capture(), eq(-1L));
+        verifyNoteMessage(messageArgumentCaptor.getValue(), pad2note(0, 0), Color.BRIGHT_BLUE.getIndex());
+        reset(receiver);
+
+        // nested frames send once, at the end of the outermost
+        launchpadPro.beginFrame();
+        launchpadPro.setPad(GridPad.at(1, 0), Color.BRIGHT_BLUE);
+        launchpadPro.beginFrame();
+        launchpadPro.setPad(GridPad.at(2, 0), Color.BRIGHT_BLUE);
+        launchpadPro.endFrame();
+        verify(receiver, times(0)).send(any(MidiMessage.class), any(Long.class));
+        launchpadPro.endFrame();
+        verify(receiver, times(1)).send(any(SysexMessage.class), eq(-1L));
+    }
+
+    @Test
+    public void sysexFrameWithAnimation() throws Exception {
+        launchpadPro.setSysexEnabled(true);
+
+        // an animated led can't go in the sysex, so what was collected before it is sent first
+        launchpadPro.beginFrame();
+        launchpadPro.setPad(GridPad.at(1, 0), Color.BRIGHT_BLUE);
+        launchpadPro.setPad(GridPad.at(1, 0), AnimatedColor.pulse(Color.BRIGHT_RED));
+        launchpadPro.setPad(GridPad.at(2, 0), Color.BRIGHT_BLUE);
+        launchpadPro.endFrame();
+
+        ArgumentCaptor<MidiMessage> messageArgumentCaptor = ArgumentCaptor.forClass(MidiMessage.class);
+        verify(receiver, times(3)).send(messageArgumentCaptor.capture(), eq(-1L));
+        assertTrue(messageArgumentCaptor.getAllValues().get(0) instanceof SysexMessage);
+        verifyNoteMessage(messageArgumentCaptor.getAllValues().get(1), pad2note(1, 0), Color.BRIGHT_RED.getIndex());
+        assertTrue(messageArgumentCaptor.getAllValues().get(2) instanceof SysexMessage);
+    }
+
     @Test
     public void padPressed() throws Exception {
         int channel = 0;
@@ -182,6 +300,18 @@ public class LaunchpadProTest {
 
     /***** helper methods *****************************************/
 
+    // the device reuses its message, so hand the mock a copy of each one
+    private static Receiver copying(final Receiver receiver) {
+        return new Receiver() {
+            public void send(MidiMessage message, long timeStamp) {
+                receiver.send((MidiMessage) message.clone(), timeStamp);
+            }
+            public void close() {
+                receiver.close();
+            }
+        };
+    }
+
     private int pad2note(int x, int y) {
         // see launchpad pro programmers reference guide, p 17
         return (8-y) * 10 + x + 1;
@@ -0,0 +1,87 @@
+package net.perkowitz.issho.devices.virtual;
+
+import com.google.common.collect.Lists;
+import net.perkowitz.issho.devices.*;
+import net.perkowitz.issho.devices.launchpadpro.Color;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for VirtualGridDevice and AnsiRenderer.
+ */
+public class VirtualGridDeviceTest {
+
+    VirtualGridDevice device;
+    GridListener listener;
+
+    @Before
+    public void setUp() throws Exception {
+        device = new VirtualGridDevice();
+        listener = mock(GridListener.class);
+        device.setListener(listener);
+    }
+
+    @Test
+    public void testLeds() throws Exception {
+        device.initialize();
+        assertEquals(Color.OFF, device.get(GridPad.at(7, 7)));
+        assertEquals(GridFrame.CELL_COUNT, device.getLedCount());
+
+        device.setPad(GridPad.at(1, 2), Color.BRIGHT_RED);
+        device.setButton(GridButton.at(GridButton.Side.Left, 3), Color.WHITE);
+        GridColor[] cells = new GridColor[GridFrame.CELL_COUNT];
+        cells[GridFrame.cell(GridPad.at(0, 0))] = Color.BRIGHT_GREEN;
+        device.setFrame(cells);
+
+        assertEquals(Color.BRIGHT_RED, device.get(GridPad.at(1, 2)));
+        assertEquals(Color.WHITE, device.get(GridButton.at(GridButton.Side.Left, 3)));
+        assertEquals(Color.BRIGHT_GREEN, device.get(GridPad.at(0, 0)));
+        assertEquals(GridFrame.CELL_COUNT + 3, device.getLedCount());
+        assertEquals(1, device.getFrameCount());
+        assertEquals(1, device.getInitializeCount());
+    }
+
+    @Test
+    public void testScript() throws Exception {
+        device.play(Lists.newArrayList(
+                "# a comment",
+                "press pad 3 4 100",
+                "release pad 3 4",
+                "",
+                "tap button Top 2",
+                "wait 1",
+                "bogus line"));
+
+        verify(listener).onPadPressed(GridPad.at(3, 4), 100);
+        verify(listener).onPadReleased(GridPad.at(3, 4));
+        verify(listener).onButtonPressed(GridButton.at(GridButton.Side.Top, 2), 127);
+        verify(listener).onButtonReleased(GridButton.at(GridButton.Side.Top, 2));
+        verifyNoMoreInteractions(listener);
+        assertEquals(2, device.getPressCount());
+    }
+
+    @Test
+    public void testAnsiRenderer() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AnsiRenderer renderer = new AnsiRenderer(device, new PrintStream(bytes), AnsiRenderer.DEFAULT_FRAMES_PER_SECOND);
+
+        device.setPad(GridPad.at(0, 0), Color.BRIGHT_RED);
+        assertTrue(renderer.render());
+        assertTrue(bytes.toString().contains("48;5;196m"));
+
+        // nothing changed, nothing drawn
+        assertFalse(renderer.render());
+        device.setPad(GridPad.at(0, 0), Color.BRIGHT_RED);
+        assertFalse(renderer.render());
+        device.setPad(GridPad.at(0, 0), Color.BRIGHT_GREEN);
+        assertTrue(renderer.render());
+        assertEquals(2, renderer.getFrameCount());
+    }
+
+}
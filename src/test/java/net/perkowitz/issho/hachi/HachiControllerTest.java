@@ -0,0 +1,95 @@
+package net.perkowitz.issho.hachi;
+
+import net.perkowitz.issho.devices.GridDevice;
+import net.perkowitz.issho.hachi.clock.ClockListener;
+import net.perkowitz.issho.hachi.modules.Module;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static javax.sound.midi.ShortMessage.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for HachiController following an external midi clock, with no modules or grid devices.
+ * Midi goes through the sequencer loop, as it does in Hachi, so it's handled on the same thread as the clock pulses.
+ */
+public class HachiControllerTest {
+
+    // 250 bpm at 24ppqn
+    private static final long EXTERNAL_PULSE_MILLIS = 10;
+
+    HachiController controller;
+    Receiver midiInput;
+
+    @Before
+    public void setUp() throws Exception {
+        controller = new HachiController(new Module[0], new GridDevice[0], 0);
+        controller.setMidiClockPllEnabled(true);
+        controller.getSequencerLoop().start();
+        controller.startClock();
+        midiInput = controller.getSequencerLoop().receiver(controller);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        controller.getClockEngine().stop();
+        controller.getSequencerLoop().stop();
+    }
+
+    @Test
+    public void testStopRestoresTempo() throws Exception {
+        followExternalClock();
+
+        midiInput.send(new ShortMessage(STOP), -1);
+        waitForSequencer();
+        assertFalse(controller.getMidiClockPll().isFollowing());
+        assertEquals(120, controller.getClockEngine().getTempo(), 0.0001);
+    }
+
+    @Test
+    public void testTimeoutRestoresTempo() throws Exception {
+        followExternalClock();
+
+        // no stop, the external clock just goes away; the engine keeps the pll's tempo through the flywheel
+        long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (controller.getClockEngine().getTempo() != 120 && System.nanoTime() < timeout) {
+            Thread.sleep(EXTERNAL_PULSE_MILLIS);
+        }
+        assertFalse(controller.getMidiClockPll().isFollowing());
+        assertEquals(120, controller.getClockEngine().getTempo(), 0.0001);
+    }
+
+
+    /***** private implementation ****************************************/
+
+    private void followExternalClock() throws Exception {
+        midiInput.send(new ShortMessage(START), -1);
+        for (int i = 0; i < 24; i++) {
+            midiInput.send(new ShortMessage(TIMING_CLOCK), -1);
+            Thread.sleep(EXTERNAL_PULSE_MILLIS);
+        }
+        waitForSequencer();
+        assertTrue(controller.getMidiClockPll().isFollowing());
+        assertTrue(controller.getClockEngine().getTempo() > 150);
+    }
+
+    /**
+     * wait until the sequencer loop has handled everything posted so far
+     */
+    private void waitForSequencer() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        controller.getSequencerLoop().clockListener(new ClockListener() {
+            public void onPulse(long pulseCount, long deadlineNanos) {
+                done.countDown();
+            }
+        }).onPulse(0, 0);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+
+}
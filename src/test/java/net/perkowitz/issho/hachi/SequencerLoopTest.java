@@ -0,0 +1,178 @@
+package net.perkowitz.issho.hachi;
+
+import net.perkowitz.issho.hachi.clock.ClockListener;
+import net.perkowitz.issho.midi.MidiInputDispatcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Transmitter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for SequencerLoop's multi-producer queue.
+ */
+public class SequencerLoopTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int EVENTS_PER_PRODUCER = 5000;
+
+    SequencerLoop sequencerLoop;
+
+    @Before
+    public void setUp() throws Exception {
+        // small capacity so producers have to wait for space
+        sequencerLoop = new SequencerLoop(16);
+        sequencerLoop.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sequencerLoop.stop();
+    }
+
+    @Test
+    public void testAllEventsOnOneThreadInOrder() throws Exception {
+
+        final long[] lastSeen = new long[PRODUCERS];
+        final Thread[] consumerThread = new Thread[1];
+        final boolean[] failed = new boolean[1];
+        final CountDownLatch done = new CountDownLatch(PRODUCERS * EVENTS_PER_PRODUCER);
+
+        // unsynchronized on purpose: the loop guarantees a single consumer thread
+        ClockListener consumer = new ClockListener() {
+            public void onPulse(long pulseCount, long deadlineNanos) {
+                if (consumerThread[0] == null) {
+                    consumerThread[0] = Thread.currentThread();
+                }
+                int producer = (int) deadlineNanos;
+                if (consumerThread[0] != Thread.currentThread() || pulseCount != lastSeen[producer] + 1) {
+                    failed[0] = true;
+                }
+                lastSeen[producer] = pulseCount;
+                done.countDown();
+            }
+        };
+        final ClockListener posting = sequencerLoop.clockListener(consumer);
+
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 1; i <= EVENTS_PER_PRODUCER; i++) {
+                        posting.onPulse(i, producer);
+                    }
+                }
+            }).start();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(failed[0]);
+        assertEquals(0, sequencerLoop.getDepth());
+        assertTrue(sequencerLoop.getMaxDepth() <= sequencerLoop.getCapacity());
+        assertEquals(PRODUCERS * EVENTS_PER_PRODUCER, sequencerLoop.getLatency().getCount());
+    }
+
+    @Test
+    public void testExecuteOnLoopThread() throws Exception {
+        final Thread[] loopThread = new Thread[2];
+        final CountDownLatch done = new CountDownLatch(2);
+
+        sequencerLoop.clockListener(new ClockListener() {
+            public void onPulse(long pulseCount, long deadlineNanos) {
+                loopThread[0] = Thread.currentThread();
+                done.countDown();
+            }
+        }).onPulse(1, 0);
+        sequencerLoop.execute(new Runnable() {
+            public void run() {
+                loopThread[1] = Thread.currentThread();
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), loopThread[1]);
+        assertSame(loopThread[0], loopThread[1]);
+    }
+
+    @Test
+    public void testModuleInputOnLoopThread() throws Exception {
+        final Thread[] loopThread = new Thread[2];
+        final CountDownLatch done = new CountDownLatch(2);
+
+        sequencerLoop.clockListener(new ClockListener() {
+            public void onPulse(long pulseCount, long deadlineNanos) {
+                loopThread[0] = Thread.currentThread();
+                done.countDown();
+            }
+        }).onPulse(1, 0);
+
+        // as Hachi gives each module its input: a dispatcher transmitter, wrapped by the loop
+        MidiInputDispatcher dispatcher = new MidiInputDispatcher("test");
+        Transmitter moduleInput = sequencerLoop.transmitter(dispatcher.transmitter("module"));
+        Receiver module = new Receiver() {
+            public void send(MidiMessage message, long timeStamp) {
+                loopThread[1] = Thread.currentThread();
+                done.countDown();
+            }
+            public void close() {}
+        };
+        moduleInput.setReceiver(module);
+        assertSame(module, moduleInput.getReceiver());
+
+        dispatcher.send(new ShortMessage(ShortMessage.TIMING_CLOCK), -1);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), loopThread[1]);
+        assertSame(loopThread[0], loopThread[1]);
+
+        // still one listener on the input, and none once the module lets go
+        assertEquals(1, dispatcher.getListeners().size());
+        moduleInput.setReceiver(null);
+        assertEquals(0, dispatcher.getListeners().size());
+    }
+
+    @Test
+    public void testEventArrivalTime() throws Exception {
+
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final long[] arrival = new long[1];
+
+        // hold up the loop so the midi event waits in the queue
+        sequencerLoop.clockListener(new ClockListener() {
+            public void onPulse(long pulseCount, long deadlineNanos) {
+                try {
+                    busy.await(1, TimeUnit.SECONDS);
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }).onPulse(1, 0);
+
+        Receiver receiver = sequencerLoop.receiver(new Receiver() {
+            public void send(MidiMessage message, long timeStamp) {
+                arrival[0] = SequencerLoop.eventArrivalNanos();
+                done.countDown();
+            }
+            public void close() {}
+        });
+        long before = System.nanoTime();
+        receiver.send(new ShortMessage(ShortMessage.TIMING_CLOCK), -1);
+        long after = System.nanoTime();
+        busy.countDown();
+
+        // the receiver sees when the message came in, not when the loop got to it
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(arrival[0] >= before);
+        assertTrue(arrival[0] <= after);
+    }
+
+}
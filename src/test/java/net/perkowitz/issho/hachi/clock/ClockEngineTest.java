@@ -0,0 +1,103 @@
+package net.perkowitz.issho.hachi.clock;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the nanoTime-driven ClockEngine.
+ */
+public class ClockEngineTest {
+
+    private ClockEngine clockEngine;
+    private List<Long> deadlines;
+    private CountDownLatch latch;
+
+    @Before
+    public void setUp() throws Exception {
+        deadlines = Lists.newArrayList();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (clockEngine != null) {
+            clockEngine.stop();
+        }
+    }
+
+    @Test
+    public void testIntervalNanos() throws Exception {
+        // 120bpm * 24ppqn = 48 pulses per second
+        assertEquals(20833333L, ClockEngine.intervalNanos(120));
+        assertEquals(10416667L, ClockEngine.intervalNanos(240));
+    }
+
+    @Test
+    public void testDeadlinesOnGrid() throws Exception {
+        int pulses = 48;
+        latch = new CountDownLatch(pulses);
+        clockEngine = new ClockEngine(recordingListener(), 600);
+        clockEngine.start();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        clockEngine.stop();
+
+        // deadlines are computed from an absolute anchor, so they never drift regardless of callback timing
+        double interval = 60e9 / (600 * ClockEngine.PULSES_PER_BEAT);
+        long first = deadlines.get(0);
+        for (int i = 1; i < pulses; i++) {
+            double expected = first + i * interval;
+            assertTrue(Math.abs(deadlines.get(i) - expected) <= 1);
+        }
+    }
+
+    @Test
+    public void testTempoChange() throws Exception {
+        latch = new CountDownLatch(20);
+        final List<Long> localDeadlines = deadlines;
+        clockEngine = new ClockEngine(new ClockListener() {
+            public void onPulse(long pulseCount, long deadlineNanos) {
+                synchronized (localDeadlines) {
+                    localDeadlines.add(deadlineNanos);
+                }
+                if (pulseCount == 10) {
+                    clockEngine.setTempo(1200);
+                }
+                latch.countDown();
+            }
+        }, 600);
+        clockEngine.start();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        clockEngine.stop();
+
+        synchronized (deadlines) {
+            // the change applies from the interval following pulse 10, without a gap or restart
+            long slow = ClockEngine.intervalNanos(600);
+            long fast = ClockEngine.intervalNanos(1200);
+            assertTrue(Math.abs(deadlines.get(9) - deadlines.get(8) - slow) <= 1);
+            assertTrue(Math.abs(deadlines.get(10) - deadlines.get(9) - fast) <= 1);
+            assertTrue(Math.abs(deadlines.get(19) - deadlines.get(18) - fast) <= 1);
+        }
+    }
+
+
+    /***** helper methods *****************************************/
+
+    private ClockListener recordingListener() {
+        return new ClockListener() {
+            public void onPulse(long pulseCount, long deadlineNanos) {
+                synchronized (deadlines) {
+                    deadlines.add(deadlineNanos);
+                }
+                latch.countDown();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,110 @@
+package net.perkowitz.issho.hachi.clock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.List;
+
+import static javax.sound.midi.ShortMessage.*;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for MidiClockOutput.
+ */
+public class MidiClockOutputTest {
+
+    MidiClockOutput midiClockOutput;
+    Receiver receiver;
+    Receiver earlyReceiver;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = mock(Receiver.class);
+        earlyReceiver = mock(Receiver.class);
+        midiClockOutput = new MidiClockOutput();
+        midiClockOutput.addPort(receiver, 0);
+        midiClockOutput.addPort(earlyReceiver, 2000);
+    }
+
+    @Test
+    public void testStartGoesOutWithFirstPulse() throws Exception {
+
+        midiClockOutput.start();
+        verifyZeroInteractions(receiver);
+
+        midiClockOutput.pulse(10000);
+        midiClockOutput.pulse(30000);
+
+        ArgumentCaptor<MidiMessage> messages = ArgumentCaptor.forClass(MidiMessage.class);
+        ArgumentCaptor<Long> timestamps = ArgumentCaptor.forClass(Long.class);
+        verify(receiver, times(4)).send(messages.capture(), timestamps.capture());
+        List<MidiMessage> sent = messages.getAllValues();
+        assertEquals(SONG_POSITION_POINTER, ((ShortMessage) sent.get(0)).getStatus());
+        assertEquals(0, ((ShortMessage) sent.get(0)).getData1());
+        assertEquals(START, ((ShortMessage) sent.get(1)).getStatus());
+        assertEquals(TIMING_CLOCK, ((ShortMessage) sent.get(2)).getStatus());
+        assertEquals(TIMING_CLOCK, ((ShortMessage) sent.get(3)).getStatus());
+        assertEquals(10000L, (long) timestamps.getAllValues().get(2));
+        assertEquals(30000L, (long) timestamps.getAllValues().get(3));
+        assertEquals(2, midiClockOutput.getPulseCount());
+    }
+
+    @Test
+    public void testLatencyOffset() throws Exception {
+        midiClockOutput.pulse(10000);
+        verify(receiver).send(any(MidiMessage.class), eq(10000L));
+        verify(earlyReceiver).send(any(MidiMessage.class), eq(8000L));
+
+        // no ideal time: send now on every port
+        midiClockOutput.pulse(-1);
+        verify(receiver).send(any(MidiMessage.class), eq(-1L));
+        verify(earlyReceiver).send(any(MidiMessage.class), eq(-1L));
+    }
+
+    @Test
+    public void testContinueAtSongPosition() throws Exception {
+        midiClockOutput.continueAt(200);
+        midiClockOutput.pulse(-1);
+
+        ArgumentCaptor<MidiMessage> messages = ArgumentCaptor.forClass(MidiMessage.class);
+        verify(receiver, times(3)).send(messages.capture(), anyLong());
+        ShortMessage position = (ShortMessage) messages.getAllValues().get(0);
+        assertEquals(SONG_POSITION_POINTER, position.getStatus());
+        assertEquals(200, position.getData1() | (position.getData2() << 7));
+        assertEquals(CONTINUE, ((ShortMessage) messages.getAllValues().get(1)).getStatus());
+    }
+
+    @Test
+    public void testStopIsImmediate() throws Exception {
+        midiClockOutput.stop();
+        ArgumentCaptor<MidiMessage> messages = ArgumentCaptor.forClass(MidiMessage.class);
+        verify(receiver).send(messages.capture(), eq(-1L));
+        assertEquals(STOP, ((ShortMessage) messages.getValue()).getStatus());
+    }
+
+    @Test
+    public void testStopAfterScheduledPulses() throws Exception {
+        midiClockOutput.pulse(10000);
+        midiClockOutput.pulse(30000);
+        midiClockOutput.stop();
+
+        // stamped with the last pulse's time, so a scheduler sends it after the pulses already queued
+        ArgumentCaptor<MidiMessage> messages = ArgumentCaptor.forClass(MidiMessage.class);
+        ArgumentCaptor<Long> timestamps = ArgumentCaptor.forClass(Long.class);
+        verify(earlyReceiver, times(3)).send(messages.capture(), timestamps.capture());
+        assertEquals(STOP, ((ShortMessage) messages.getAllValues().get(2)).getStatus());
+        assertEquals(28000L, (long) timestamps.getAllValues().get(2));
+
+        // once stopped, the next stop goes out right away
+        midiClockOutput.stop();
+        verify(earlyReceiver).send(any(MidiMessage.class), eq(-1L));
+    }
+
+}
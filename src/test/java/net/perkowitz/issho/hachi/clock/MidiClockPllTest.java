@@ -0,0 +1,87 @@
+package net.perkowitz.issho.hachi.clock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for MidiClockPll, fed with synthetic pulse times; the clock engine is never started.
+ */
+public class MidiClockPllTest {
+
+    private ClockEngine clockEngine;
+    private MidiClockPll pll;
+    private long now;
+
+    @Before
+    public void setUp() throws Exception {
+        clockEngine = new ClockEngine(null, 120);
+        pll = new MidiClockPll(clockEngine);
+        now = System.nanoTime();
+    }
+
+    @Test
+    public void testTempoEstimateWithJitter() throws Exception {
+        long interval = ClockEngine.intervalNanos(125);
+        Random random = new Random(1);
+        for (int i = 0; i < 24 * 32; i++) {
+            // +/- 1ms of arrival jitter
+            long jitter = (long) ((random.nextDouble() - 0.5) * 2000000);
+            pll.onInputPulse(now + i * interval + jitter);
+        }
+
+        assertEquals(125, pll.getTempo(), 0.5);
+        assertEquals(pll.getTempo(), clockEngine.getTempo(), 0.0001);
+        assertEquals(0, pll.getDropoutCount());
+    }
+
+    @Test
+    public void testFirstPulseAfterStart() throws Exception {
+        long interval = ClockEngine.intervalNanos(120);
+        assertFalse(pll.onInputPulse(now));
+        pll.start();
+        assertTrue(pll.onInputPulse(now + interval));
+        assertFalse(pll.onInputPulse(now + 2 * interval));
+        pll.stop();
+        assertFalse(pll.onInputPulse(now + 3 * interval));
+    }
+
+    @Test
+    public void testFirstPulsesBeforePeriodKnown() throws Exception {
+        long interval = ClockEngine.intervalNanos(150);
+        pll.start();
+
+        // no period yet: the pulse is played directly and the engine isn't handed the internal tempo
+        assertTrue(pll.onInputPulse(now));
+        assertFalse(pll.isFollowing());
+        assertEquals(120, clockEngine.getTempo(), 0.0001);
+
+        // the second one measures the period, so the engine takes over from here
+        assertTrue(pll.onInputPulse(now + interval));
+        assertTrue(pll.isFollowing());
+        assertEquals(150, clockEngine.getTempo(), 0.5);
+        assertFalse(pll.onInputPulse(now + 2 * interval));
+    }
+
+    @Test
+    public void testDropoutRecovery() throws Exception {
+        long interval = ClockEngine.intervalNanos(120);
+        for (int i = 0; i < 48; i++) {
+            pll.onInputPulse(now + i * interval);
+        }
+        double tempo = pll.getTempo();
+
+        // a gap of a whole beat counts as a dropout, and the tempo estimate survives it
+        long resume = now + 100 * interval;
+        for (int i = 0; i < 48; i++) {
+            pll.onInputPulse(resume + i * interval);
+        }
+        assertEquals(1, pll.getDropoutCount());
+        assertEquals(tempo, pll.getTempo(), 0.5);
+        assertEquals(120, pll.getTempo(), 0.5);
+    }
+
+}
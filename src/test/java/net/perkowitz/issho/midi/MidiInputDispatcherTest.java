@@ -0,0 +1,121 @@
+package net.perkowitz.issho.midi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Transmitter;
+
+import static javax.sound.midi.ShortMessage.*;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for MidiInputDispatcher's routing tables and its Transmitters.
+ */
+public class MidiInputDispatcherTest {
+
+    MidiInputDispatcher dispatcher;
+    Receiver clock;
+    Receiver drums;
+    Receiver everything;
+
+    @Before
+    public void setUp() throws Exception {
+        dispatcher = new MidiInputDispatcher("test");
+        clock = mock(Receiver.class);
+        drums = mock(Receiver.class);
+        everything = mock(Receiver.class);
+    }
+
+    @Test
+    public void testKinds() throws Exception {
+        assertEquals(0, MidiInputDispatcher.kind(0x40));
+        assertTrue((MidiInputDispatcher.NOTE & MidiInputDispatcher.kind(NOTE_OFF | 3)) != 0);
+        assertTrue((MidiInputDispatcher.NOTE & MidiInputDispatcher.kind(NOTE_ON | 3)) != 0);
+        assertEquals(MidiInputDispatcher.CONTROL_CHANGE, MidiInputDispatcher.kind(CONTROL_CHANGE | 15));
+        assertEquals(MidiInputDispatcher.SYSTEM, MidiInputDispatcher.kind(SONG_POSITION_POINTER));
+        assertEquals(MidiInputDispatcher.REALTIME, MidiInputDispatcher.kind(TIMING_CLOCK));
+    }
+
+    @Test
+    public void testRouting() throws Exception {
+        dispatcher.addListener("clock", clock, MidiInputDispatcher.ALL_CHANNELS,
+                MidiInputDispatcher.SYSTEM | MidiInputDispatcher.REALTIME);
+        dispatcher.addListener("drums", drums, 1 << 9, MidiInputDispatcher.NOTE);
+        dispatcher.addListener("everything", everything, MidiInputDispatcher.ALL_CHANNELS, MidiInputDispatcher.ALL_KINDS);
+
+        assertEquals(2, dispatcher.getRouteCount(TIMING_CLOCK));
+        assertEquals(2, dispatcher.getRouteCount(NOTE_ON | 9));
+        assertEquals(1, dispatcher.getRouteCount(NOTE_ON | 8));
+        assertEquals(1, dispatcher.getRouteCount(CONTROL_CHANGE | 9));
+        assertEquals(0, dispatcher.getRouteCount(0x40));
+
+        dispatcher.send(new ShortMessage(TIMING_CLOCK), -1);
+        dispatcher.send(new ShortMessage(NOTE_ON, 9, 36, 100), -1);
+        dispatcher.send(new ShortMessage(NOTE_ON, 8, 36, 100), -1);
+        dispatcher.send(new ShortMessage(CONTROL_CHANGE, 9, 1, 64), -1);
+
+        verify(clock, times(1)).send(any(MidiMessage.class), anyLong());
+        verify(drums, times(1)).send(any(MidiMessage.class), anyLong());
+        verify(everything, times(4)).send(any(MidiMessage.class), anyLong());
+        assertEquals(4, dispatcher.getMessageCount());
+        assertEquals(4, dispatcher.getDispatchTime().getCount());
+    }
+
+    @Test
+    public void testFilterChanges() throws Exception {
+        MidiInputDispatcher.Listener listener = dispatcher.addListener("drums", drums, 1 << 9, MidiInputDispatcher.NOTE);
+        dispatcher.send(new ShortMessage(NOTE_ON, 10, 36, 100), -1);
+        verify(drums, never()).send(any(MidiMessage.class), anyLong());
+        assertEquals(1, dispatcher.getUnroutedCount());
+
+        listener.setFilter(1 << 10, MidiInputDispatcher.NOTE);
+        dispatcher.send(new ShortMessage(NOTE_ON, 10, 36, 100), -1);
+        verify(drums, times(1)).send(any(MidiMessage.class), anyLong());
+        assertEquals(1, listener.getTime().getCount());
+
+        dispatcher.removeListener(listener);
+        assertEquals(0, dispatcher.getRouteCount(NOTE_ON | 10));
+    }
+
+    @Test
+    public void testTransmitters() throws Exception {
+        // each caller gets its own transmitter, so setting a receiver on one doesn't take over the input
+        Transmitter transmitter1 = dispatcher.transmitter("one");
+        Transmitter transmitter2 = dispatcher.transmitter("two");
+        transmitter1.setReceiver(drums);
+        transmitter2.setReceiver(everything);
+        assertSame(drums, transmitter1.getReceiver());
+
+        dispatcher.send(new ShortMessage(NOTE_ON, 0, 60, 100), -1);
+        verify(drums, times(1)).send(any(MidiMessage.class), anyLong());
+        verify(everything, times(1)).send(any(MidiMessage.class), anyLong());
+
+        // a new receiver replaces the transmitter's old one
+        transmitter1.setReceiver(clock);
+        assertEquals(2, dispatcher.getListeners().size());
+        dispatcher.send(new ShortMessage(NOTE_ON, 0, 60, 100), -1);
+        verify(drums, times(1)).send(any(MidiMessage.class), anyLong());
+        verify(clock, times(1)).send(any(MidiMessage.class), anyLong());
+
+        transmitter2.close();
+        assertEquals(1, dispatcher.getListeners().size());
+    }
+
+    @Test
+    public void testListenerException() throws Exception {
+        doThrow(new IllegalStateException("test")).when(drums).send(any(MidiMessage.class), anyLong());
+        dispatcher.addListener("drums", drums, MidiInputDispatcher.ALL_CHANNELS, MidiInputDispatcher.ALL_KINDS);
+        dispatcher.addListener("everything", everything, MidiInputDispatcher.ALL_CHANNELS, MidiInputDispatcher.ALL_KINDS);
+
+        // one listener failing doesn't stop the others getting the message
+        dispatcher.send(new ShortMessage(NOTE_ON, 0, 60, 100), -1);
+        verify(everything, times(1)).send(any(MidiMessage.class), anyLong());
+    }
+
+}
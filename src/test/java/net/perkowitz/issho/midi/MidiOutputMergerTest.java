@@ -0,0 +1,233 @@
+package net.perkowitz.issho.midi;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static javax.sound.midi.ShortMessage.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for MidiOutputMerger's lanes, priority order and controller coalescing.
+ */
+public class MidiOutputMergerTest {
+
+    MidiOutputMerger merger;
+    MidiOutput output;
+    List<int[]> sent;
+    CountDownLatch firstSent;
+    CountDownLatch release;
+
+    @Before
+    public void setUp() throws Exception {
+        sent = Lists.newArrayList();
+        firstSent = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+
+        // a port that holds up the first message until released, so everything after it queues
+        merger = new MidiOutputMerger(new Receiver() {
+            public void send(MidiMessage message, long timeStamp) {
+                ShortMessage shortMessage = (ShortMessage) message;
+                synchronized (sent) {
+                    sent.add(new int[] { shortMessage.getStatus(), shortMessage.getData1(), shortMessage.getData2() });
+                }
+                firstSent.countDown();
+                try {
+                    release.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            public void close() {}
+        }, "test");
+        output = new MidiOutput(merger);
+        merger.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        merger.stop();
+    }
+
+    @Test
+    public void testLanes() throws Exception {
+        assertEquals(MidiOutputMerger.Lane.REALTIME, MidiOutputMerger.lane(TIMING_CLOCK, 0));
+        assertEquals(MidiOutputMerger.Lane.REALTIME, MidiOutputMerger.lane(SONG_POSITION_POINTER, 0));
+        assertEquals(MidiOutputMerger.Lane.NOTE, MidiOutputMerger.lane(NOTE_ON | 3, 60));
+        assertEquals(MidiOutputMerger.Lane.NOTE, MidiOutputMerger.lane(CONTROL_CHANGE | 3, 120));
+        assertEquals(MidiOutputMerger.Lane.CONTROLLER, MidiOutputMerger.lane(CONTROL_CHANGE | 3, 74));
+        assertEquals(MidiOutputMerger.Lane.CONTROLLER, MidiOutputMerger.lane(PITCH_BEND | 3, 0));
+        assertEquals(MidiOutputMerger.Lane.BULK, MidiOutputMerger.lane(PROGRAM_CHANGE | 3, 5));
+    }
+
+    @Test
+    public void testNotesBeforeControllers() throws Exception {
+        output.cc(0, 1, 0, -1);
+        assertTrue(firstSent.await(2, TimeUnit.SECONDS));
+
+        // a burst of controllers, then a note and a program change on other channels and a clock,
+        // all while the port is busy
+        for (int cc = 2; cc < 52; cc++) {
+            output.cc(0, cc, 64, -1);
+        }
+        output.programChange(2, 5, -1);
+        output.note(1, 60, 100, -1);
+        merger.send(new ShortMessage(TIMING_CLOCK), -1);
+        assertEquals(50, merger.getDepth(MidiOutputMerger.Lane.CONTROLLER));
+
+        release.countDown();
+        merger.stop();
+
+        // only the controller already on its way goes ahead of the clock and the note
+        synchronized (sent) {
+            assertEquals(54, sent.size());
+            assertEquals(CONTROL_CHANGE, sent.get(0)[0]);
+            assertEquals(TIMING_CLOCK, sent.get(1)[0]);
+            assertEquals(NOTE_ON | 1, sent.get(2)[0]);
+            for (int i = 0; i < 50; i++) {
+                assertEquals(2 + i, sent.get(3 + i)[1]);
+            }
+            assertEquals(PROGRAM_CHANGE | 2, sent.get(53)[0]);
+        }
+        assertEquals(1, merger.getSentCount(MidiOutputMerger.Lane.NOTE));
+        assertEquals(51, merger.getSentCount(MidiOutputMerger.Lane.CONTROLLER));
+    }
+
+    @Test
+    public void testControllersCoalesce() throws Exception {
+        output.note(0, 60, 100, -1);
+        assertTrue(firstSent.await(2, TimeUnit.SECONDS));
+
+        // a sweep on one controller and a pitch bend, while the port is busy: only the latest values go out
+        for (int value = 0; value < 128; value++) {
+            output.cc(0, 74, value, -1);
+            output.pitchBend(0, value * 64, -1);
+        }
+        output.cc(1, 74, 5, -1);
+        // all notes off stays in order on its channel
+        output.cc(0, 123, 0, -1);
+        assertEquals(3, merger.getDepth(MidiOutputMerger.Lane.CONTROLLER));
+
+        release.countDown();
+        merger.stop();
+
+        synchronized (sent) {
+            assertEquals(5, sent.size());
+            assertArrayEquals(new int[] { CONTROL_CHANGE, 74, 127 }, sent.get(1));
+            assertEquals(PITCH_BEND, sent.get(2)[0]);
+            assertEquals((127 * 64) >> 7, sent.get(2)[2]);
+            assertArrayEquals(new int[] { CONTROL_CHANGE, 123, 0 }, sent.get(3));
+            assertArrayEquals(new int[] { CONTROL_CHANGE | 1, 74, 5 }, sent.get(4));
+        }
+        assertEquals(2 * 127, merger.getCoalescedCount());
+    }
+
+    @Test
+    public void testParameterControllersNotCoalesced() throws Exception {
+        output.note(0, 60, 100, -1);
+        assertTrue(firstSent.await(2, TimeUnit.SECONDS));
+
+        // two NRPN writes and an increment: each value only means something after the ones before it
+        for (int parameter = 0; parameter < 2; parameter++) {
+            output.cc(0, 99, 1, -1);
+            output.cc(0, 98, parameter, -1);
+            output.cc(0, 6, 64 + parameter, -1);
+            output.cc(0, 38, 0, -1);
+        }
+        output.cc(0, 96, 0, -1);
+        output.cc(0, 96, 0, -1);
+
+        release.countDown();
+        merger.stop();
+
+        synchronized (sent) {
+            assertEquals(11, sent.size());
+            assertArrayEquals(new int[] { CONTROL_CHANGE, 98, 0 }, sent.get(2));
+            assertArrayEquals(new int[] { CONTROL_CHANGE, 6, 64 }, sent.get(3));
+            assertArrayEquals(new int[] { CONTROL_CHANGE, 98, 1 }, sent.get(6));
+            assertArrayEquals(new int[] { CONTROL_CHANGE, 6, 65 }, sent.get(7));
+            assertArrayEquals(new int[] { CONTROL_CHANGE, 96, 0 }, sent.get(10));
+        }
+        assertEquals(0, merger.getCoalescedCount());
+    }
+
+    @Test
+    public void testSendAfterStopWaitsForWriter() throws Exception {
+        output.note(0, 60, 100, -1);
+        assertTrue(firstSent.await(2, TimeUnit.SECONDS));
+        output.note(0, 62, 100, -1);
+
+        // stop while the writer is still busy with what was queued, then send straight through
+        Thread stopper = new Thread(new Runnable() {
+            public void run() {
+                merger.stop();
+            }
+        });
+        stopper.start();
+        Thread.sleep(50);
+        Thread sender = new Thread(new Runnable() {
+            public void run() {
+                output.note(0, 64, 100, -1);
+            }
+        });
+        sender.start();
+        Thread.sleep(50);
+        synchronized (sent) {
+            assertEquals(1, sent.size());
+        }
+
+        release.countDown();
+        sender.join(2000);
+        stopper.join(2000);
+
+        synchronized (sent) {
+            assertEquals(3, sent.size());
+            assertEquals(60, sent.get(0)[1]);
+            assertEquals(62, sent.get(1)[1]);
+            assertEquals(64, sent.get(2)[1]);
+        }
+    }
+
+    @Test
+    public void testChannelOrder() throws Exception {
+        output.note(15, 60, 100, -1);
+        assertTrue(firstSent.await(2, TimeUnit.SECONDS));
+
+        // a new patch and a bend have to reach the synth before the notes that follow them on the channel
+        output.programChange(0, 5, -1);
+        output.note(0, 36, 100, -1);
+        output.pitchBend(0, 0, -1);
+        output.note(0, 38, 100, -1);
+        // a value queued before a note isn't replaced by one sent after it
+        output.cc(0, 74, 1, -1);
+        output.note(0, 40, 100, -1);
+        output.cc(0, 74, 2, -1);
+        merger.send(new ShortMessage(TIMING_CLOCK), -1);
+
+        release.countDown();
+        merger.stop();
+
+        synchronized (sent) {
+            assertEquals(9, sent.size());
+            assertEquals(TIMING_CLOCK, sent.get(1)[0]);
+            assertArrayEquals(new int[] { PROGRAM_CHANGE, 5, 0 }, sent.get(2));
+            assertArrayEquals(new int[] { NOTE_ON, 36, 100 }, sent.get(3));
+            assertEquals(PITCH_BEND, sent.get(4)[0]);
+            assertArrayEquals(new int[] { NOTE_ON, 38, 100 }, sent.get(5));
+            assertArrayEquals(new int[] { CONTROL_CHANGE, 74, 1 }, sent.get(6));
+            assertArrayEquals(new int[] { NOTE_ON, 40, 100 }, sent.get(7));
+            assertArrayEquals(new int[] { CONTROL_CHANGE, 74, 2 }, sent.get(8));
+        }
+        assertEquals(0, merger.getCoalescedCount());
+    }
+
+}
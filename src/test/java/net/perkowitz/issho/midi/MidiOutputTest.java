@@ -0,0 +1,260 @@
+package net.perkowitz.issho.midi;
+
+import com.google.common.collect.Lists;
+import net.perkowitz.issho.devices.OffscreenDisplay;
+import net.perkowitz.issho.hachi.modules.beatbox.BeatMemory;
+import net.perkowitz.issho.hachi.modules.beatbox.BeatModule;
+import net.perkowitz.issho.hachi.modules.beatbox.BeatStep;
+import net.perkowitz.issho.hachi.modules.beatbox.BeatUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static javax.sound.midi.ShortMessage.*;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests for MidiOutput, and that sending through it and the rest of an output port (MidiScheduler, MidiRepeatFilter
+ * and MidiOutputMerger), from a module or directly, doesn't allocate on any of the threads involved.
+ */
+public class MidiOutputTest {
+
+    private static final int TRACKS = 16;
+    private static final int STEPS = 2000;
+    private static final int ROUNDS = 3;
+
+    List<int[]> sent;
+    AtomicLong sentCount;
+    AtomicLong offeredCount;
+    Receiver receiver;
+    MidiScheduler scheduler;
+    MidiRepeatFilter filter;
+    MidiOutputMerger merger;
+
+    com.sun.management.ThreadMXBean threads;
+    long[] threadIds;
+    long overhead;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        sent = Lists.newArrayList();
+        sentCount = new AtomicLong();
+        offeredCount = new AtomicLong();
+        receiver = new Receiver() {
+            public void send(MidiMessage message, long timeStamp) {
+                if (sent != null) {
+                    synchronized (sent) {
+                        byte[] bytes = message.getMessage();
+                        sent.add(new int[] { bytes[0] & 0xFF, bytes[1] & 0xFF, bytes.length > 2 ? bytes[2] & 0xFF : 0 });
+                    }
+                }
+                sentCount.incrementAndGet();
+            }
+            public void close() {}
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+        if (merger != null) {
+            merger.stop();
+        }
+    }
+
+    @Test
+    public void testMessages() throws Exception {
+        MidiOutput output = new MidiOutput(receiver);
+        output.note(1, 60, 100, -1);
+        output.cc(2, 7, 64, -1);
+        output.programChange(3, 5, -1);
+        output.pitchBend(4, 100000, -1);
+
+        assertEquals(4, output.getSentCount());
+        assertArrayEquals(new int[] { NOTE_ON | 1, 60, 100 }, sent.get(0));
+        assertArrayEquals(new int[] { CONTROL_CHANGE | 2, 7, 64 }, sent.get(1));
+        assertArrayEquals(new int[] { PROGRAM_CHANGE | 3, 5, 0 }, sent.get(2));
+        assertArrayEquals(new int[] { PITCH_BEND | 4, 0x7F, 0x7F }, sent.get(3));
+    }
+
+    @Test
+    public void testSchedulerCopiesMessage() throws Exception {
+        scheduler = new MidiScheduler(receiver);
+        MidiOutput output = new MidiOutput(scheduler);
+        scheduler.start();
+
+        // the same message is refilled for each note, but each one is released with its own bytes, in time order
+        long now = System.nanoTime();
+        output.note(0, 62, 100, (now + 20000000L) / 1000);
+        output.note(0, 61, 100, (now + 10000000L) / 1000);
+        output.note(0, 60, 100, -1);
+        waitForSent(3);
+
+        synchronized (sent) {
+            assertEquals(60, sent.get(0)[1]);
+            assertEquals(61, sent.get(1)[1]);
+            assertEquals(62, sent.get(2)[1]);
+        }
+    }
+
+    @Test
+    public void testNoAllocation() throws Exception {
+        assumeAllocationCounted();
+
+        // the same chain Hachi builds for each output port
+        MidiOutput output = new MidiOutput(scheduledPort());
+
+        // warm up, so class loading and the first compiles aren't counted
+        play(output, STEPS);
+
+        // anything allocated per step shows up in every round, so the best round ignores one-offs (e.g. a deoptimization)
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS && allocated != 0; round++) {
+            long before = allocatedBytes();
+            play(output, STEPS);
+            allocated = Math.min(allocated, allocatedBytes() - before - overhead);
+        }
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void testModuleStepNoAllocation() throws Exception {
+        assumeAllocationCounted();
+
+        // every track plays on every step, so each step turns the last notes off and plays new ones
+        BeatModule module = new BeatModule(new MidiInputDispatcher("test").transmitter("test"), scheduledPort(),
+                BeatUtil.PALETTE_PINK, temporaryFolder.newFolder().getPath() + "/beat");
+        module.setDisplay(new OffscreenDisplay());
+        BeatMemory memory = new BeatMemory();
+        for (int track = 0; track < BeatUtil.TRACK_COUNT; track++) {
+            for (int step = 0; step < BeatUtil.STEP_COUNT; step++) {
+                memory.getPlayingPattern().getStep(track, step).setGateMode(BeatStep.GateMode.PLAY);
+            }
+        }
+        module.saveMemory(0, memory);
+        module.load(0);
+        module.start(true);
+
+        step(module, STEPS);
+
+        // best of a few rounds, as above
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS && allocated != 0; round++) {
+            long before = allocatedBytes();
+            step(module, STEPS);
+            allocated = Math.min(allocated, allocatedBytes() - before - overhead);
+        }
+        assertEquals(0, allocated);
+        assertTrue(sentCount.get() > 2 * STEPS * BeatUtil.TRACK_COUNT);
+    }
+
+
+    /***** helper methods *****************************************/
+
+    private void assumeAllocationCounted() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+    }
+
+    /**
+     * scheduler, repeat filter and merger, as from Hachi's scheduled(outputPort()), with a count of what goes in;
+     * also notes the ids of this thread and the scheduler and merger threads, and the cost of measuring them
+     */
+    private Receiver scheduledPort() {
+        sent = null;
+        Set<Thread> existing = Thread.getAllStackTraces().keySet();
+        merger = new MidiOutputMerger(receiver, "test");
+        filter = new MidiRepeatFilter(merger, "test");
+        scheduler = new MidiScheduler(filter);
+        merger.start();
+        scheduler.start();
+
+        List<Long> ids = Lists.newArrayList(Thread.currentThread().getId());
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!existing.contains(thread) && thread.getName().startsWith("hachi-midi-")) {
+                ids.add(thread.getId());
+            }
+        }
+        assertEquals(3, ids.size());
+        threadIds = new long[ids.size()];
+        for (int i = 0; i < threadIds.length; i++) {
+            threadIds[i] = ids.get(i);
+        }
+
+        overhead = 0;
+        long before = allocatedBytes();
+        overhead = allocatedBytes() - before;
+
+        return new Receiver() {
+            public void send(MidiMessage message, long timeStamp) {
+                offeredCount.incrementAndGet();
+                scheduler.send(message, timeStamp);
+            }
+            public void close() {}
+        };
+    }
+
+    private long allocatedBytes() {
+        long total = 0;
+        for (long id : threadIds) {
+            total += threads.getThreadAllocatedBytes(id);
+        }
+        return total;
+    }
+
+    // steps a module the way the controller does, with the midi stamped for the pulse
+    private void step(BeatModule module, int steps) throws Exception {
+        for (int step = 0; step < steps; step++) {
+            MidiScheduler.setEventTime(System.nanoTime());
+            module.tick(false);
+            MidiScheduler.clearEventTime();
+            waitForOffered();
+        }
+    }
+
+    // everything offered has been sent, or dropped as a repeat or coalesced
+    private void waitForOffered() throws Exception {
+        long deadline = System.nanoTime() + 2000000000L;
+        while (sentCount.get() + filter.getSuppressedCount() + merger.getCoalescedCount() < offeredCount.get()) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.yield();
+        }
+    }
+
+    // a step's worth of traffic: a note on, a cc and a note off for each track
+    private void play(MidiOutput output, int steps) throws Exception {
+        for (int step = 0; step < steps; step++) {
+            for (int track = 0; track < TRACKS; track++) {
+                output.note(track, 36 + track, 100, -1);
+                output.cc(track, 74, step & 0x7F, -1);
+                output.note(track, 36 + track, 0, -1);
+            }
+            waitForOffered();
+        }
+    }
+
+    private void waitForSent(long count) throws Exception {
+        long deadline = System.nanoTime() + 2000000000L;
+        while (sentCount.get() < count) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.yield();
+        }
+    }
+
+}
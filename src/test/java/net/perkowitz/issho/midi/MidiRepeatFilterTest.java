@@ -0,0 +1,119 @@
+package net.perkowitz.issho.midi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import static javax.sound.midi.ShortMessage.*;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for MidiRepeatFilter.
+ */
+public class MidiRepeatFilterTest {
+
+    private static final long MILLIS = 1000000L;
+
+    MidiRepeatFilter filter;
+    Receiver receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = mock(Receiver.class);
+        filter = new MidiRepeatFilter(receiver, "test", 100);
+    }
+
+    @Test
+    public void testRepeatsInWindow() throws Exception {
+        filter.send(message(CONTROL_CHANGE, 0, 74, 64), -1, 0);
+        filter.send(message(CONTROL_CHANGE, 0, 74, 64), -1, 10 * MILLIS);
+        filter.send(message(CONTROL_CHANGE, 1, 74, 64), -1, 10 * MILLIS);
+        filter.send(message(CONTROL_CHANGE, 0, 74, 65), -1, 20 * MILLIS);
+        filter.send(message(PITCH_BEND, 0, 0, 64), -1, 20 * MILLIS);
+        filter.send(message(PITCH_BEND, 0, 0, 64), -1, 30 * MILLIS);
+        filter.send(message(PROGRAM_CHANGE, 0, 5, 0), -1, 30 * MILLIS);
+        filter.send(message(PROGRAM_CHANGE, 0, 5, 0), -1, 40 * MILLIS);
+        filter.send(message(NOTE_ON, 0, 60, 100), -1, 40 * MILLIS);
+        filter.send(message(NOTE_ON, 0, 60, 100), -1, 40 * MILLIS);
+
+        // the same controller on another channel and a new value both go out; notes are never filtered
+        verify(receiver, times(7)).send(any(MidiMessage.class), anyLong());
+        assertEquals(1, filter.getSuppressedControllerCount());
+        assertEquals(1, filter.getSuppressedPitchBendCount());
+        assertEquals(1, filter.getSuppressedProgramCount());
+        assertEquals(7, filter.getPassedCount());
+    }
+
+    @Test
+    public void testRepeatAfterWindow() throws Exception {
+        filter.send(message(CONTROL_CHANGE, 0, 74, 64), -1, 0);
+        filter.send(message(CONTROL_CHANGE, 0, 74, 64), -1, 99 * MILLIS);
+        verify(receiver, times(1)).send(any(MidiMessage.class), anyLong());
+
+        // the window runs from when the value was last sent, not last suppressed
+        filter.send(message(CONTROL_CHANGE, 0, 74, 64), -1, 100 * MILLIS);
+        verify(receiver, times(2)).send(any(MidiMessage.class), anyLong());
+    }
+
+    @Test
+    public void testAlwaysSent() throws Exception {
+        // RPN/NRPN data means different things for different parameters, and channel mode messages are commands
+        for (int i = 0; i < 2; i++) {
+            filter.send(message(CONTROL_CHANGE, 0, 99, 1), -1, 0);
+            filter.send(message(CONTROL_CHANGE, 0, 98, 2), -1, 0);
+            filter.send(message(CONTROL_CHANGE, 0, 6, 64), -1, 0);
+            filter.send(message(CONTROL_CHANGE, 0, 123, 0), -1, 0);
+        }
+        verify(receiver, times(8)).send(any(MidiMessage.class), anyLong());
+        assertEquals(0, filter.getSuppressedCount());
+    }
+
+    @Test
+    public void testResets() throws Exception {
+        filter.send(message(CONTROL_CHANGE, 0, 74, 64), -1, 0);
+        filter.send(message(PITCH_BEND, 0, 0, 64), -1, 0);
+        filter.send(message(PROGRAM_CHANGE, 0, 5, 0), -1, 0);
+        reset(receiver);
+
+        // after a bank select the same program number is a different program
+        filter.send(message(CONTROL_CHANGE, 0, 0, 1), -1, 0);
+        filter.send(message(PROGRAM_CHANGE, 0, 5, 0), -1, 0);
+        verify(receiver, times(2)).send(any(MidiMessage.class), anyLong());
+        reset(receiver);
+
+        // reset all controllers puts the synth's values back, so ours have to be sent again
+        filter.send(message(CONTROL_CHANGE, 0, 121, 0), -1, 0);
+        filter.send(message(CONTROL_CHANGE, 0, 74, 64), -1, 0);
+        filter.send(message(PITCH_BEND, 0, 0, 64), -1, 0);
+        verify(receiver, times(3)).send(any(MidiMessage.class), anyLong());
+        reset(receiver);
+
+        filter.forget();
+        filter.send(message(CONTROL_CHANGE, 0, 74, 64), -1, 0);
+        verify(receiver, times(1)).send(any(MidiMessage.class), anyLong());
+    }
+
+    @Test
+    public void testNoWindow() throws Exception {
+        filter = new MidiRepeatFilter(receiver, "test", 0);
+        filter.send(message(CONTROL_CHANGE, 0, 74, 64), -1, 0);
+        filter.send(message(CONTROL_CHANGE, 0, 74, 64), -1, 0);
+        verify(receiver, times(2)).send(any(MidiMessage.class), anyLong());
+    }
+
+
+    /***** helper methods *****************************************/
+
+    private ShortMessage message(int command, int channel, int data1, int data2) throws Exception {
+        ShortMessage message = new ShortMessage();
+        message.setMessage(command, channel, data1, data2);
+        return message;
+    }
+
+}
@@ -0,0 +1,102 @@
+package net.perkowitz.issho.midi;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static javax.sound.midi.ShortMessage.NOTE_ON;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for MidiScheduler's timestamped release.
+ */
+public class MidiSchedulerTest {
+
+    MidiScheduler scheduler;
+    List<Integer> notes;
+    List<Long> sentNanos;
+    CountDownLatch latch;
+
+    @Before
+    public void setUp() throws Exception {
+        notes = Lists.newArrayList();
+        sentNanos = Lists.newArrayList();
+        scheduler = new MidiScheduler(new Receiver() {
+            public void send(MidiMessage message, long timeStamp) {
+                synchronized (notes) {
+                    sentNanos.add(System.nanoTime());
+                    notes.add(((ShortMessage) message).getData1());
+                }
+                latch.countDown();
+            }
+            public void close() {}
+        });
+        scheduler.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.stop();
+    }
+
+    @Test
+    public void testReleasedInTimeOrder() throws Exception {
+        latch = new CountDownLatch(3);
+        long now = System.nanoTime();
+        long late = now + 30000000L;
+        long early = now + 10000000L;
+        scheduler.send(noteOn(2), late / 1000);
+        scheduler.send(noteOn(1), early / 1000);
+        scheduler.send(noteOn(0), -1);
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+
+        synchronized (notes) {
+            assertEquals(Lists.newArrayList(0, 1, 2), notes);
+            // never released before its timestamp
+            assertTrue(sentNanos.get(1) >= early / 1000 * 1000);
+            assertTrue(sentNanos.get(2) >= late / 1000 * 1000);
+        }
+    }
+
+    @Test
+    public void testStopFlushes() throws Exception {
+        latch = new CountDownLatch(2);
+        long later = System.nanoTime() + 10000000000L;
+        scheduler.send(noteOn(1), later / 1000);
+        scheduler.send(noteOn(2), later / 1000);
+
+        // everything still queued goes out, in order, before stop returns
+        scheduler.stop();
+        assertEquals(0, latch.getCount());
+        synchronized (notes) {
+            assertEquals(Lists.newArrayList(1, 2), notes);
+        }
+    }
+
+    @Test
+    public void testEventTime() throws Exception {
+        assertEquals(-1, MidiScheduler.eventTimestamp());
+        MidiScheduler.setEventTime(5000000L);
+        assertEquals(5000, MidiScheduler.eventTimestamp());
+        MidiScheduler.clearEventTime();
+        assertEquals(-1, MidiScheduler.eventTimestamp());
+    }
+
+
+    /***** helper methods *****************************************/
+
+    private ShortMessage noteOn(int note) throws Exception {
+        ShortMessage message = new ShortMessage();
+        message.setMessage(NOTE_ON, 0, note, 100);
+        return message;
+    }
+
+}
@@ -0,0 +1,124 @@
+package net.perkowitz.issho.midi;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import java.util.List;
+
+import static javax.sound.midi.ShortMessage.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for NoteTracker and the note counting in MidiOutput.
+ */
+public class NoteTrackerTest {
+
+    List<int[]> sent;
+    Receiver receiver;
+    NoteTracker tracker;
+    MidiOutput output1;
+    MidiOutput output2;
+
+    @Before
+    public void setUp() throws Exception {
+        sent = Lists.newArrayList();
+        receiver = new Receiver() {
+            public void send(MidiMessage message, long timeStamp) {
+                byte[] bytes = message.getMessage();
+                sent.add(new int[] { bytes[0] & 0xFF, bytes[1] & 0xFF, bytes.length > 2 ? bytes[2] & 0xFF : 0 });
+            }
+            public void close() {}
+        };
+        tracker = NoteTracker.forPort(receiver);
+        output1 = new MidiOutput(receiver, tracker);
+        output2 = new MidiOutput(receiver, tracker);
+    }
+
+    @Test
+    public void testForPort() throws Exception {
+        assertSame(tracker, NoteTracker.forPort(receiver));
+        assertEquals(2, tracker.getOutputCount());
+    }
+
+    @Test
+    public void testCounts() throws Exception {
+        output1.note(0, 60, 100, -1);
+        output1.note(0, 60, 100, -1);
+        output2.note(0, 60, 100, -1);
+        output2.note(9, 36, 100, -1);
+        assertEquals(2, output1.getSoundingCount());
+        assertEquals(4, tracker.getSoundingCount());
+
+        output1.note(0, 60, 0, -1);
+        output1.send(NOTE_OFF, 0, 60, 0, -1);
+        // an off for a note that isn't on doesn't count
+        output1.note(0, 61, 0, -1);
+        assertFalse(output1.isSounding(0, 60));
+        assertTrue(output2.isSounding(0, 60));
+        assertTrue(tracker.isSounding(0, 60));
+        assertEquals(2, tracker.getSoundingCount());
+    }
+
+    @Test
+    public void testNotesOff() throws Exception {
+        output1.note(0, 60, 100, -1);
+        output1.note(0, 60, 100, -1);
+        output1.note(3, 127, 100, -1);
+        output2.note(0, 62, 100, -1);
+        sent.clear();
+
+        // one off for each on, and only for the output's own notes
+        output1.notesOff(-1);
+        assertEquals(3, sent.size());
+        assertArrayEquals(new int[] { NOTE_ON, 60, 0 }, sent.get(0));
+        assertArrayEquals(new int[] { NOTE_ON, 60, 0 }, sent.get(1));
+        assertArrayEquals(new int[] { NOTE_ON | 3, 127, 0 }, sent.get(2));
+        assertEquals(0, output1.getSoundingCount());
+        assertEquals(1, tracker.getSoundingCount());
+
+        sent.clear();
+        output1.notesOff(-1);
+        output1.noteOff(0, 60, -1);
+        assertEquals(0, sent.size());
+    }
+
+    @Test
+    public void testNotesOffExceptLast() throws Exception {
+        output1.note(0, 60, 100, -1);
+        output1.note(0, 64, 100, -1);
+        output1.note(0, 64, 100, -1);
+        sent.clear();
+
+        output1.notesOffExceptLast(-1);
+        assertEquals(2, sent.size());
+        assertArrayEquals(new int[] { NOTE_ON, 60, 0 }, sent.get(0));
+        assertArrayEquals(new int[] { NOTE_ON, 64, 0 }, sent.get(1));
+        assertTrue(output1.isSounding(0, 64));
+        assertEquals(1, output1.getSoundingCount());
+    }
+
+    @Test
+    public void testRelease() throws Exception {
+        output1.note(0, 60, 100, -1);
+        output1.note(1, 60, 100, -1);
+        output2.note(0, 62, 100, -1);
+        output2.note(1, 62, 100, -1);
+        sent.clear();
+
+        tracker.releaseChannel(1);
+        assertEquals(2, sent.size());
+        assertEquals(NOTE_ON | 1, sent.get(0)[0]);
+        assertEquals(NOTE_ON | 1, sent.get(1)[0]);
+        assertEquals(2, tracker.getSoundingCount());
+
+        tracker.releaseAll();
+        assertEquals(4, sent.size());
+        assertEquals(0, tracker.getSoundingCount());
+        assertEquals(0, output1.getSoundingCount());
+        assertEquals(0, output2.getSoundingCount());
+    }
+
+}
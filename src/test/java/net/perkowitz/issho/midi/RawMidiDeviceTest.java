@@ -0,0 +1,173 @@
+package net.perkowitz.issho.midi;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import javax.sound.midi.*;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.util.List;
+
+import static javax.sound.midi.ShortMessage.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for RawMidiDevice's encoding, batching and parsing, over a pipe and a file.
+ */
+public class RawMidiDeviceTest {
+
+    @Test
+    public void testRunningStatus() throws Exception {
+        Pipe pipe = Pipe.open();
+        RawMidiDevice device = new RawMidiDevice("test", null, pipe.sink());
+        Receiver receiver = device.getReceiver();
+
+        // not opened, so each message is written as it's sent
+        receiver.send(message(NOTE_ON, 0, 60, 100), -1);
+        receiver.send(message(NOTE_ON, 0, 61, 100), -1);
+        receiver.send(new ShortMessage(TIMING_CLOCK), -1);
+        receiver.send(message(NOTE_ON, 0, 62, 0), -1);
+        receiver.send(message(CONTROL_CHANGE, 1, 7, 64), -1);
+        receiver.send(message(NOTE_ON, 0, 60, 0), -1);
+
+        assertArrayEquals(new int[] {
+                0x90, 60, 100, 61, 100,     // the second note on runs on the first one's status
+                0xF8, 62, 0,                // a clock in between doesn't break running status
+                0xB1, 7, 64,
+                0x90, 60, 0
+        }, read(pipe, 14));
+        assertEquals(6, device.getMessagesSent());
+        assertEquals(6, device.getWriteCount());
+
+        device.setRunningStatus(false);
+        receiver.send(message(NOTE_ON, 0, 60, 100), -1);
+        assertArrayEquals(new int[] { 0x90, 60, 100 }, read(pipe, 3));
+    }
+
+    @Test
+    public void testBatchedOutput() throws Exception {
+        Pipe pipe = Pipe.open();
+        RawMidiDevice device = new RawMidiDevice("test", null, pipe.sink());
+        device.open();
+        Receiver receiver = device.getReceiver();
+
+        for (int track = 0; track < 16; track++) {
+            receiver.send(message(NOTE_ON, 9, 36 + track, 100), -1);
+        }
+        device.close();
+
+        // everything arrives, in order, in fewer writes than messages
+        int[] bytes = read(pipe, 33);
+        assertEquals(0x99, bytes[0]);
+        for (int track = 0; track < 16; track++) {
+            assertEquals(36 + track, bytes[1 + track * 2]);
+        }
+        assertEquals(16, device.getMessagesSent());
+        assertEquals(33, device.getBytesSent());
+        assertTrue(device.getWriteCount() >= 1 && device.getWriteCount() <= 16);
+    }
+
+    @Test
+    public void testInputFromFile() throws Exception {
+        File file = File.createTempFile("rawmidi", ".mid");
+        file.deleteOnExit();
+
+        RawMidiDevice output = new RawMidiDevice("out", file.getPath(), false, true);
+        output.open();
+        Receiver receiver = output.getReceiver();
+        receiver.send(message(NOTE_ON, 2, 60, 100), -1);
+        receiver.send(message(NOTE_ON, 2, 60, 0), -1);
+        receiver.send(message(PROGRAM_CHANGE, 3, 5, 0), -1);
+        receiver.send(new SysexMessage(new byte[] { (byte) 0xF0, 0x00, 0x20, 0x29, (byte) 0xF7 }, 5), -1);
+        receiver.send(message(PITCH_BEND, 2, 0, 64), -1);
+        output.close();
+        assertEquals(15, Files.readAllBytes(file.toPath()).length);
+
+        final List<MidiMessage> messages = Lists.newArrayList();
+        RawMidiDevice input = new RawMidiDevice("in", file.getPath(), true, false);
+        input.getTransmitter().setReceiver(new Receiver() {
+            public void send(MidiMessage message, long timeStamp) {
+                synchronized (messages) {
+                    messages.add(message);
+                    messages.notifyAll();
+                }
+            }
+            public void close() {}
+        });
+        input.open();
+        synchronized (messages) {
+            long deadline = System.currentTimeMillis() + 2000;
+            while (messages.size() < 5 && System.currentTimeMillis() < deadline) {
+                messages.wait(100);
+            }
+        }
+        input.close();
+
+        assertEquals(5, messages.size());
+        verifyShortMessage(messages.get(0), NOTE_ON, 2, 60, 100);
+        verifyShortMessage(messages.get(1), NOTE_ON, 2, 60, 0);
+        verifyShortMessage(messages.get(2), PROGRAM_CHANGE, 3, 5, 0);
+        assertTrue(messages.get(3) instanceof SysexMessage);
+        assertEquals(5, messages.get(3).getLength());
+        verifyShortMessage(messages.get(4), PITCH_BEND, 2, 0, 64);
+        assertEquals(5, input.getMessagesReceived());
+    }
+
+    @Test
+    public void testParser() throws Exception {
+        RawMidiDevice.RawMidiParser parser = new RawMidiDevice.RawMidiParser();
+
+        // stray data with no status is dropped
+        assertNull(parser.parse((byte) 60));
+
+        assertNull(parser.parse((byte) 0x90));
+        assertNull(parser.parse((byte) 60));
+        // a clock in the middle of a note comes out on its own
+        MidiMessage clock = parser.parse((byte) 0xF8);
+        assertEquals(TIMING_CLOCK, clock.getStatus());
+        verifyShortMessage(parser.parse((byte) 100), NOTE_ON, 0, 60, 100);
+
+        // running status
+        assertNull(parser.parse((byte) 61));
+        verifyShortMessage(parser.parse((byte) 0), NOTE_ON, 0, 61, 0);
+
+        // an unfinished sysex is dropped when another status comes along
+        assertNull(parser.parse((byte) 0xF0));
+        assertNull(parser.parse((byte) 0x01));
+        assertNull(parser.parse((byte) 0xC0));
+        verifyShortMessage(parser.parse((byte) 7), PROGRAM_CHANGE, 0, 7, 0);
+    }
+
+
+    /***** helper methods *****************************************/
+
+    private ShortMessage message(int command, int channel, int data1, int data2) throws Exception {
+        ShortMessage message = new ShortMessage();
+        message.setMessage(command, channel, data1, data2);
+        return message;
+    }
+
+    private int[] read(Pipe pipe, int count) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(count);
+        while (buffer.hasRemaining()) {
+            pipe.source().read(buffer);
+        }
+        int[] bytes = new int[count];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = buffer.get(i) & 0xFF;
+        }
+        return bytes;
+    }
+
+    private void verifyShortMessage(MidiMessage message, int command, int channel, int data1, int data2) {
+        assertTrue(message instanceof ShortMessage);
+        ShortMessage shortMessage = (ShortMessage) message;
+        assertEquals(command, shortMessage.getCommand());
+        assertEquals(channel, shortMessage.getChannel());
+        assertEquals(data1, shortMessage.getData1());
+        assertEquals(data2, shortMessage.getData2());
+    }
+
+}
@@ -0,0 +1,47 @@
+package net.perkowitz.issho.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for LatencyHistogram bucketing and percentiles.
+ */
+public class LatencyHistogramTest {
+
+    LatencyHistogram histogram;
+
+    @Before
+    public void setUp() throws Exception {
+        histogram = new LatencyHistogram();
+    }
+
+    @Test
+    public void testBucketPrecision() throws Exception {
+        // every value must land in a bucket whose upper bound is within ~3% above it
+        for (long value = 0; value < 100000000L; value = value * 3 / 2 + 1) {
+            long highest = LatencyHistogram.highestValueFor(LatencyHistogram.indexFor(value));
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= Math.max(1, value / 32));
+        }
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500, histogram.getMean());
+        assertEquals(500000, histogram.getPercentile(50), 500000 / 32);
+        assertEquals(990000, histogram.getPercentile(99), 990000 / 32);
+        assertEquals(1000000, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+}